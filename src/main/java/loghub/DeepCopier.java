@@ -0,0 +1,178 @@
+package loghub;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.reflect.Array;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.time.temporal.TemporalAccessor;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
+
+/**
+ * A structural deep copy of the values stored in an event.
+ * <p>The common containers (maps, lists, sets and arrays) are walked and copied, immutable
+ * leaves like strings, boxed numbers, {@link java.time} values or IP addresses are shared
+ * and dates are cloned. Any other value is copied with a serialization round trip, so it
+ * must be serializable, as before.</p>
+ * <p>A container shared between many places is copied once, so the shape of the copy
+ * is the same as the original one, cycles included.</p>
+ * <p>An instance keep track of the copied containers, so it must be used for a single copy.</p>
+ */
+final class DeepCopier {
+
+    private final Map<Object, Object> copied = new IdentityHashMap<>();
+
+    /**
+     * Copy a connection context. Only the known and immutable contexts are copied without serialization.
+     * @param ctx the context to copy
+     * @return a new context
+     * @throws IOException if the context can't be serialized
+     * @throws ClassNotFoundException
+     */
+    ConnectionContext<?> copyContext(ConnectionContext<?> ctx) throws IOException, ClassNotFoundException {
+        if (ctx == ConnectionContext.EMPTY) {
+            // Immutable, nothing to copy
+            return ctx;
+        } else if (ctx.getClass() == IpConnectionContext.class) {
+            IpConnectionContext ipctx = (IpConnectionContext) ctx;
+            IpConnectionContext newctx = new IpConnectionContext(ipctx.getLocalAddress(), ipctx.getRemoteAddress(), ipctx.getSslParameters());
+            newctx.setPrincipal(ipctx.getPrincipal());
+            return newctx;
+        } else {
+            return (ConnectionContext<?>) serialize(ctx);
+        }
+    }
+
+    /**
+     * Return a deep copy of the given value
+     * @param value the value to copy
+     * @return the copy
+     * @throws NotSerializableException if a value is not a known type and can't be serialized
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    @SuppressWarnings("unchecked")
+    <T> T copy(T value) throws IOException, ClassNotFoundException {
+        if (value == null || isImmutable(value)) {
+            return value;
+        } else if (value.getClass() == Date.class) {
+            return (T) new Date(((Date) value).getTime());
+        } else if (copied.containsKey(value)) {
+            return (T) copied.get(value);
+        }
+        Class<?> valueClass = value.getClass();
+        if (valueClass.isArray()) {
+            return (T) copyArray(value, valueClass.getComponentType());
+        } else if (valueClass == HashMap.class) {
+            return (T) copyMap((Map<Object, Object>) value, new HashMap<>(((Map<?, ?>) value).size() * 4 / 3 + 1));
+        } else if (valueClass == LinkedHashMap.class || valueClass == SharedMap.class) {
+            return (T) copyMap((Map<Object, Object>) value, new LinkedHashMap<>(((Map<?, ?>) value).size() * 4 / 3 + 1));
+        } else if (valueClass == TreeMap.class) {
+            return (T) copyMap((Map<Object, Object>) value, new TreeMap<>(((TreeMap<Object, Object>) value).comparator()));
+        } else if (valueClass == ArrayList.class || valueClass == SharedList.class) {
+            return (T) copyCollection((Collection<Object>) value, new ArrayList<>(((Collection<?>) value).size()));
+        } else if (valueClass == LinkedList.class) {
+            return (T) copyCollection((Collection<Object>) value, new LinkedList<>());
+        } else if (valueClass == HashSet.class) {
+            return (T) copyCollection((Collection<Object>) value, new HashSet<>(((Collection<?>) value).size() * 4 / 3 + 1));
+        } else if (valueClass == LinkedHashSet.class) {
+            return (T) copyCollection((Collection<Object>) value, new LinkedHashSet<>(((Collection<?>) value).size() * 4 / 3 + 1));
+        } else if (valueClass == TreeSet.class) {
+            return (T) copyCollection((Collection<Object>) value, new TreeSet<>(((TreeSet<Object>) value).comparator()));
+        } else {
+            T newValue = (T) serialize(value);
+            copied.put(value, newValue);
+            return newValue;
+        }
+    }
+
+    private <M extends Map<Object, Object>> M copyMap(Map<Object, Object> source, M destination) throws IOException, ClassNotFoundException {
+        copied.put(source, destination);
+        for (Map.Entry<Object, Object> e: source.entrySet()) {
+            // Keys are usually strings, but they must be copied too if mutable
+            destination.put(copy(e.getKey()), copy(e.getValue()));
+        }
+        return destination;
+    }
+
+    private <C extends Collection<Object>> C copyCollection(Collection<Object> source, C destination) throws IOException, ClassNotFoundException {
+        copied.put(source, destination);
+        for (Object o: source) {
+            destination.add(copy(o));
+        }
+        return destination;
+    }
+
+    private Object copyArray(Object source, Class<?> componentType) throws IOException, ClassNotFoundException {
+        int length = Array.getLength(source);
+        if (componentType.isPrimitive()) {
+            Object destination = Array.newInstance(componentType, length);
+            System.arraycopy(source, 0, destination, 0, length);
+            copied.put(source, destination);
+            return destination;
+        } else {
+            Object[] sourceArray = (Object[]) source;
+            Object[] destination = (Object[]) Array.newInstance(componentType, length);
+            copied.put(source, destination);
+            for (int i = 0; i < length; i++) {
+                destination[i] = copy(sourceArray[i]);
+            }
+            return destination;
+        }
+    }
+
+    static boolean isImmutable(Object value) {
+        return value instanceof String
+                        || value instanceof Boolean
+                        || value instanceof Integer
+                        || value instanceof Long
+                        || value instanceof Double
+                        || value instanceof Float
+                        || value instanceof Short
+                        || value instanceof Byte
+                        || value instanceof Character
+                        || value instanceof Enum
+                        || value instanceof InetAddress
+                        || value instanceof InetSocketAddress
+                        || value instanceof UUID
+                        || value instanceof URI
+                        || value.getClass() == BigInteger.class
+                        || value.getClass() == BigDecimal.class
+                        // All the concrete temporal types from java.time are immutable
+                        || (value instanceof TemporalAccessor && value.getClass().getName().startsWith("java.time."));
+    }
+
+    private static Object serialize(Object value) throws IOException, ClassNotFoundException {
+        if (! (value instanceof Serializable)) {
+            throw new NotSerializableException(value.getClass().getName());
+        }
+        try (ByteArrayOutputStream bos = new ByteArrayOutputStream(); ObjectOutputStream oos = new ObjectOutputStream(bos)) {
+            oos.writeObject(value);
+            oos.flush();
+            try (ByteArrayInputStream bais = new ByteArrayInputStream(bos.toByteArray()); ObjectInputStream ois = new ObjectInputStream(bais)) {
+                return ois.readObject();
+            }
+        }
+    }
+
+}
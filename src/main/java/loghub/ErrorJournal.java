@@ -0,0 +1,90 @@
+package loghub;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded and lock-free journal of the last messages, used to keep errors.
+ * <p>It's a ring, writers never wait, a new message overwrites the oldest one. When sampling is
+ * set to n, only about one message out of n is kept, and the writers don't even touch the ring for the others.
+ * The messages that were not kept or were overwritten are counted as dropped.</p>
+ * <p>A snapshot might see an inconsistent ordering if written concurrently, it's only
+ * a debugging helper.</p>
+ *
+ * @param <T> the type of the journaled messages
+ */
+public class ErrorJournal<T> {
+
+    private final AtomicReferenceArray<T> ring;
+    private final AtomicLong written = new AtomicLong();
+    private final LongAdder offered = new LongAdder();
+    private volatile int sampling = 1;
+
+    public ErrorJournal(int capacity) {
+        ring = new AtomicReferenceArray<>(capacity);
+    }
+
+    /**
+     * Add a new message to the journal
+     * @param message
+     */
+    public void add(T message) {
+        offered.increment();
+        if (sampling > 1 && ThreadLocalRandom.current().nextInt(sampling) != 0) {
+            return;
+        }
+        long position = written.getAndIncrement();
+        ring.lazySet((int) (position % ring.length()), message);
+    }
+
+    /**
+     * @return the messages still in the journal, the oldest first
+     */
+    public List<T> snapshot() {
+        long end = written.get();
+        long start = Math.max(0, end - ring.length());
+        List<T> messages = new ArrayList<>((int) (end - start));
+        for (long i = start; i < end; i++) {
+            T message = ring.get((int) (i % ring.length()));
+            if (message != null) {
+                messages.add(message);
+            }
+        }
+        return messages;
+    }
+
+    /**
+     * @return the number of messages given to this journal but not available any more
+     */
+    public long getDropped() {
+        return Math.max(0, offered.sum() - Math.min(written.get(), ring.length()));
+    }
+
+    /**
+     * Only keep about one message out of <code>sampling</code>
+     * @param sampling the sampling rate, 1 to keep all messages
+     */
+    public void setSampling(int sampling) {
+        this.sampling = Math.max(1, sampling);
+    }
+
+    public int getSampling() {
+        return sampling;
+    }
+
+    /**
+     * Empty the journal. It should not be used concurrently with writers.
+     */
+    public void clear() {
+        written.set(0);
+        offered.reset();
+        for (int i = 0; i < ring.length(); i++) {
+            ring.set(i, null);
+        }
+    }
+
+}
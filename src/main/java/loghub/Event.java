@@ -3,6 +3,7 @@ package loghub;
 import java.io.Serializable;
 import java.time.Instant;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
@@ -163,6 +164,31 @@ public abstract class Event extends HashMap<String, Object> implements Serializa
         return inject(pipeline, mainqueue, false);
     }
 
+    /**
+     * Inject many new events in a pipeline as top processing pipeline, without blocking.
+     * <p>If the queue is a {@link StripedBlockingQueue}, they are added in a single operation.</p>
+     * 
+     * @param events the events to inject
+     * @param pipeline the pipeline with the processes to inject
+     * @param mainqueue the waiting queue
+     * @return the number of events injected, the first ones of the collection
+     */
+    public static int inject(Collection<Event> events, Pipeline pipeline, BlockingQueue<Event> mainqueue) {
+        events.forEach(e -> e.refill(pipeline));
+        if (mainqueue instanceof StripedBlockingQueue) {
+            return ((StripedBlockingQueue<Event>) mainqueue).offerAll(events);
+        } else {
+            int injected = 0;
+            for (Event e: events) {
+                if (! mainqueue.offer(e)) {
+                    break;
+                }
+                injected++;
+            }
+            return injected;
+        }
+    }
+
     /**
      * Refill this event with the content of this pipeline. Used when forwarding an event 
      * to a another pipeline
@@ -177,6 +203,14 @@ public abstract class Event extends HashMap<String, Object> implements Serializa
 
     public abstract Event duplicate();
 
+    /**
+     * Return a lightweight copy of the event. The nested maps and lists are shared by the two events,
+     * each level is copied when one of them modify it.
+     * 
+     * @return a copy of this event, sharing the unmodified values
+     */
+    public abstract Event duplicateShared();
+
     public abstract Processor next();
 
     public abstract void insertProcessor(Processor p);
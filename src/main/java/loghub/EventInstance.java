@@ -10,12 +10,11 @@ import java.time.Duration;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.ListIterator;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Optional;
@@ -46,6 +45,7 @@ class EventInstance extends Event {
     private static final class ExecutionStackElement {
         private static final Logger logger = LogManager.getLogger();
         private final String name;
+        private final Stats.PipelineMetrics metrics;
 
         private long duration = 0;
         private long startTime = Long.MIN_VALUE;
@@ -53,6 +53,7 @@ class EventInstance extends Event {
 
         private ExecutionStackElement(String name) {
             this.name = name;
+            this.metrics = Properties.metrics.pipeline(name);
             restart();
         }
 
@@ -61,7 +62,7 @@ class EventInstance extends Event {
                 long elapsed = System.nanoTime() - startTime;
                 duration += elapsed;
             }
-            Properties.metrics.timer("Pipeline." + name + ".timer").update(duration, TimeUnit.NANOSECONDS);
+            metrics.timer.update(duration, TimeUnit.NANOSECONDS);
             duration = 0;
             running = false;
             startTime = Long.MIN_VALUE;
@@ -69,7 +70,7 @@ class EventInstance extends Event {
 
         private void pause() {
             running = false;
-            Stats.pipelineHanding(name, PipelineStat.INFLIGHTDOWN);
+            Stats.pipelineHanding(metrics, PipelineStat.INFLIGHTDOWN);
             long elapsed = System.nanoTime() - startTime;
             duration += elapsed;
         }
@@ -77,7 +78,7 @@ class EventInstance extends Event {
         private void restart() {
             startTime = System.nanoTime();
             running = true;
-            Stats.pipelineHanding(name, PipelineStat.INFLIGHTUP);
+            Stats.pipelineHanding(metrics, PipelineStat.INFLIGHTUP);
         }
 
         @Override
@@ -164,7 +165,12 @@ class EventInstance extends Event {
     private static final Logger logger = LogManager.getLogger();
 
     private transient EventWrapper wevent;
-    private transient LinkedList<Processor> processors;
+    // The processors still to run, a stack of cursors in the programs of the pipelines.
+    // A frame with a null program is a single inserted processor.
+    private transient Processor[][] programs;
+    private transient Processor[] singles;
+    private transient int[] counters;
+    private transient int depth;
 
     private String currentPipeline;
     private String nextPipeline;
@@ -190,6 +196,19 @@ class EventInstance extends Event {
         readResolve();
     }
 
+    /**
+     * Read an event written with an {@link ObjectOutputStream}, and restore its transient fields.
+     * @param ois the stream to read from
+     * @return the event
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    static Event readEvent(ObjectInputStream ois) throws IOException, ClassNotFoundException {
+        EventInstance event = (EventInstance) ois.readObject();
+        event.readResolve();
+        return event;
+    }
+
     /**
      * Finish the cloning of the copy
      * Ensure than transient fields store the good values
@@ -197,12 +216,15 @@ class EventInstance extends Event {
      */
     private void readResolve() {
         if (!test) {
-            timer = Properties.metrics.timer("Allevents.timer").time();
-            Properties.metrics.counter("Allevents.inflight").inc();
+            timer = Properties.metrics.allEventsTimer().time();
+            Properties.metrics.allEventsInflight().inc();
         } else {
             timer = null;
         }
-        processors = new LinkedList<>();
+        programs = new Processor[4][];
+        singles = new Processor[4];
+        counters = new int[4];
+        depth = 0;
         wevent = null;
         executionStack = Collections.asLifoQueue(new ArrayDeque<>());
     }
@@ -213,8 +235,8 @@ class EventInstance extends Event {
         if (! test) {
             timer.close();
             executionStack.forEach(ExecutionStackElement::close);
-            Properties.metrics.counter("Allevents.inflight").dec();
-            Properties.metrics.histogram("Steps").update(stepsCount);
+            Properties.metrics.allEventsInflight().dec();
+            Properties.metrics.steps().update(stepsCount);
         } else {
             synchronized(this) {
                 notify();
@@ -234,14 +256,80 @@ class EventInstance extends Event {
     /**
      * Return a deep copy of the event.
      * <p>
-     * It work by doing serialize/deserialize of the event. So a event must
+     * The values are copied structurally by {@link DeepCopier}, immutable values are shared.
+     * The values of unknown types are copied using serialization, so a event must
      * only contains serializable object to make it works.
      * <p>
-     * It will not duplicate a test event
-     * <p>
      * @return a copy of this event, with a different key
      */
     public Event duplicate() {
+        return copy(false);
+    }
+
+    /**
+     * Return a copy of the event that share the nested maps with this event.
+     * <p>
+     * The maps and lists of both events are replaced by copy on write containers, that share the same
+     * content. Each level is copied only when an event write it, or read a value that can be modified
+     * in place. So both events can still be modified as usual. Other values are copied as in {@link #duplicate()}.
+     * <p>
+     * @return a copy of this event, with a different key
+     */
+    public Event duplicateShared() {
+        return copy(true);
+    }
+
+    private Event copy(boolean shared) {
+        try {
+            // Everything is copied before the new event is created, so a failed copy doesn't leave an event in flight
+            DeepCopier copier = new DeepCopier();
+            ConnectionContext<?> newctx = copier.copyContext(ctx);
+            Date newtimestamp = copier.copy(timestamp);
+            Map<String, Object> newmetas = new HashMap<>(metas.size() * 4 / 3 + 1);
+            for (Map.Entry<String, Object> e: metas.entrySet()) {
+                newmetas.put(e.getKey(), copier.copy(e.getValue()));
+            }
+            Object[] values = new Object[size()];
+            int i = 0;
+            for (Map.Entry<String, Object> e: entrySet()) {
+                Object value = e.getValue();
+                if (shared && SharedMap.isShareable(value)) {
+                    Object frozen = SharedMap.freeze(value);
+                    e.setValue(SharedMap.share(frozen));
+                    values[i++] = SharedMap.share(frozen);
+                } else {
+                    values[i++] = copier.copy(value);
+                }
+            }
+            EventInstance forked = new EventInstance(newctx, test);
+            forked.currentPipeline = currentPipeline;
+            forked.nextPipeline = nextPipeline;
+            forked.timestamp = newtimestamp;
+            forked.stepsCount = stepsCount;
+            forked.metas.putAll(newmetas);
+            i = 0;
+            // setValue doesn't change the iteration order
+            for (String key: keySet()) {
+                forked.put(key, values[i++]);
+            }
+            return forked;
+        } catch (NotSerializableException ex) {
+            logger.info("Event copy failed: {}", Helpers.resolveThrowableException(ex));
+            logger.catching(Level.DEBUG, ex);
+            return null;
+        } catch (ClassNotFoundException | IOException | SecurityException | IllegalArgumentException ex) {
+            logger.fatal("Event copy failed: {}", Helpers.resolveThrowableException(ex), ex);
+            return null;
+        }
+    }
+
+    /**
+     * The old serialization based copy, kept to compare with {@link #duplicate()}.
+     * @return a copy of this event
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    Event serializedDuplicate() throws IOException, ClassNotFoundException {
         try (ByteArrayOutputStream bos = new ByteArrayOutputStream(); ObjectOutputStream oos = new ObjectOutputStream(bos);) {
             oos.writeObject(this);
             oos.flush();
@@ -252,13 +340,6 @@ class EventInstance extends Event {
                 forked.readResolve();
                 return forked;
             }
-        } catch (NotSerializableException ex) {
-            logger.info("Event copy failed: {}", Helpers.resolveThrowableException(ex));
-            logger.catching(Level.DEBUG, ex);
-            return null;
-        } catch (ClassNotFoundException | IOException | SecurityException | IllegalArgumentException ex) {
-            logger.fatal("Event copy failed: {}", Helpers.resolveThrowableException(ex), ex);
-            return null;
         }
     }
 
@@ -269,66 +350,102 @@ class EventInstance extends Event {
 
     public Processor next() {
         stepsCount++;
-        logger.debug("waiting processors {}", processors);
-        try {
-            return processors.pop();
-        } catch (NoSuchElementException e) {
-            wevent = null;
-            return null;
+        logger.debug("waiting processors {}", this::describeProcessors);
+        while (depth > 0) {
+            int top = depth - 1;
+            Processor p;
+            if (programs[top] == null) {
+                p = singles[top];
+                removeTop();
+            } else if (counters[top] < programs[top].length) {
+                p = programs[top][counters[top]++];
+            } else {
+                removeTop();
+                continue;
+            }
+            if (p instanceof SubPipeline) {
+                addFrame(depth, ((SubPipeline) p).getPipeline().program, null, 0);
+            } else {
+                return p;
+            }
         }
+        wevent = null;
+        return null;
     }
 
     public void insertProcessor(Processor p) {
-        addProcessor(p, false);
+        logger.trace("inject processor {} at start", p);
+        addFrame(depth, null, p, 0);
     }
 
     public void appendProcessor(Processor p) {
-        addProcessor(p, true);
+        logger.trace("inject processor {} at end", p);
+        addFrame(0, null, p, 0);
     }
 
     public void insertProcessors(List<Processor> p) {
-        addProcessors(p, false);
+        addFrame(depth, p.toArray(new Processor[p.size()]), null, 0);
     }
 
     public void appendProcessors(List<Processor> p) {
-        addProcessors(p, true);
+        addFrame(0, p.toArray(new Processor[p.size()]), null, 0);
     }
 
-    private void addProcessors(List<Processor> newProcessors, boolean append) {
-        ListIterator<Processor> i = newProcessors.listIterator(append ? 0 : newProcessors.size());
-        while(append ? i.hasNext() : i.hasPrevious()) {
-            Processor p = append ? i.next() : i.previous();
-            addProcessor(p, append);
+    /**
+     * Build the program for a pipeline, the sub-pipelines are expanded when reached.
+     * @param name the pipeline name, can be null
+     * @param processors the processors of the pipeline
+     * @return the processors to run, including the pipeline timing processors
+     */
+    static Processor[] compile(String name, List<Processor> processors) {
+        List<Processor> program = new ArrayList<>(processors.size() + 2);
+        Optional<String> pipeName = Optional.ofNullable(name);
+        pipeName.map(EventInstance::getPre).ifPresent(program::add);
+        program.addAll(processors);
+        pipeName.map(EventInstance::getPost).ifPresent(program::add);
+        return program.toArray(new Processor[program.size()]);
+    }
+
+    private void addFrame(int position, Processor[] program, Processor single, int counter) {
+        if (depth == counters.length) {
+            programs = Arrays.copyOf(programs, depth * 2);
+            singles = Arrays.copyOf(singles, depth * 2);
+            counters = Arrays.copyOf(counters, depth * 2);
         }
+        if (position < depth) {
+            System.arraycopy(programs, position, programs, position + 1, depth - position);
+            System.arraycopy(singles, position, singles, position + 1, depth - position);
+            System.arraycopy(counters, position, counters, position + 1, depth - position);
+        }
+        programs[position] = program;
+        singles[position] = single;
+        counters[position] = counter;
+        depth++;
     }
 
-    private void addProcessor(Processor p, boolean append) {
-        logger.trace("inject processor {} at {}", () -> p, () -> append ? "end" : "start" );
-        if (p instanceof SubPipeline) {
-            SubPipeline sp = (SubPipeline) p;
-            List<Processor> newProcessors = new ArrayList<>(sp.getPipeline().processors.size() + 2);
-            Optional<String> pipeName = Optional.ofNullable(sp.getPipeline().getName());
-            pipeName.map(EventInstance::getPre).ifPresent(newProcessors::add);
-            newProcessors.addAll(sp.getPipeline().processors);
-            pipeName.map(EventInstance::getPost).ifPresent(newProcessors::add);
-            addProcessors(newProcessors, append);
-        } else {
-            if (append) {
-                processors.addLast(p);
+    private void removeTop() {
+        depth--;
+        programs[depth] = null;
+        singles[depth] = null;
+    }
+
+    private List<Processor> describeProcessors() {
+        List<Processor> waiting = new ArrayList<>();
+        for (int i = depth - 1; i >= 0; i--) {
+            if (programs[i] == null) {
+                waiting.add(singles[i]);
             } else {
-                processors.addFirst(p);
+                waiting.addAll(Arrays.asList(programs[i]).subList(counters[i], programs[i].length));
             }
         }
+        return waiting;
     }
 
     @Override
     public void refill(Pipeline pipeline) {
-        Optional<String> pipeName = Optional.ofNullable(pipeline.getName());
-        pipeName.map(EventInstance::getPre).ifPresent(this::appendProcessor);
-        pipeName.ifPresent(s -> currentPipeline = s);
+        Optional.ofNullable(pipeline.getName()).ifPresent(s -> currentPipeline = s);
         nextPipeline = pipeline.nextPipeline;
-        appendProcessors(pipeline.processors);
-        pipeName.map(EventInstance::getPost).ifPresent(this::appendProcessor);
+        addFrame(0, pipeline.program, null, 0);
     }
 
     /* (non-Javadoc)
@@ -336,11 +453,8 @@ class EventInstance extends Event {
      */
     public boolean inject(Pipeline pipeline, BlockingQueue<Event> mainqueue, boolean blocking) {
         nextPipeline = pipeline.nextPipeline;
-        Optional<String>pipeName = Optional.ofNullable(pipeline.getName());
-        pipeName.map(EventInstance::getPre).ifPresent(this::appendProcessor);
-        pipeName.ifPresent(s -> currentPipeline = s);
-        appendProcessors(pipeline.processors);
-        pipeName.map(EventInstance::getPost).ifPresent(this::appendProcessor);
+        Optional.ofNullable(pipeline.getName()).ifPresent(s -> currentPipeline = s);
+        addFrame(0, pipeline.program, null, 0);
         if (blocking) {
             try {
                 mainqueue.put(this);
@@ -361,14 +475,19 @@ class EventInstance extends Event {
         EventInstance master = ev.getRealEvent();
         currentPipeline = master.currentPipeline;
         nextPipeline = master.nextPipeline;
-        appendProcessors(master.processors);
+        // The programs are immutable, only the cursors are copied
+        for (int i = master.depth - 1; i >= 0; i--) {
+            addFrame(0, master.programs[i], master.singles[i], master.counters[i]);
+        }
         return mainqueue.offer(this);
     }
 
     public void finishPipeline() {
         executionStack.forEach(ExecutionStackElement::close);
         executionStack.clear();
-        processors.clear();
+        while (depth > 0) {
+            removeTop();
+        }
     }
 
     public String getCurrentPipeline() {
@@ -415,7 +534,11 @@ class EventInstance extends Event {
 
     @Override
     public int processingLeft() {
-        return processors.size();
+        int left = 0;
+        for (int i = 0; i < depth; i++) {
+            left += programs[i] == null ? 1 : programs[i].length - counters[i];
+        }
+        return left;
     }
 
     @Override
@@ -426,8 +549,12 @@ class EventInstance extends Event {
     @Override
     public void doMetric(PipelineStat status, Throwable ex) {
         if (! test) {
-            String name = Optional.ofNullable(executionStack.peek()).map(c -> c.name).orElse(currentPipeline);
-            Stats.pipelineHanding(name, status, ex);
+            ExecutionStackElement current = executionStack.peek();
+            if (current != null) {
+                Stats.pipelineHanding(current.metrics, status, ex);
+            } else {
+                Stats.pipelineHanding(currentPipeline, status, ex);
+            }
         }
     }
 
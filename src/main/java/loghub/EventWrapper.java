@@ -173,6 +173,11 @@ class EventWrapper extends Event {
         return event.duplicate();
     }
 
+    @Override
+    public Event duplicateShared() {
+        return event.duplicateShared();
+    }
+
     @Override
     public Processor next() {
         return event.next();
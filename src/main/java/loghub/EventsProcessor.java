@@ -1,5 +1,7 @@
 package loghub;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.TimeUnit;
@@ -9,6 +11,10 @@ import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Timer;
+
 import io.netty.util.concurrent.Future;
 import loghub.PausedEvent.Builder;
 import loghub.Stats.PipelineStat;
@@ -38,105 +44,134 @@ public class EventsProcessor extends Thread {
     private final Map<String,Pipeline> namedPipelines;
     private final int maxSteps;
     private final EventsRepository<Future<?>> evrepo;
+    private final int batchSize;
+    private final Meter dequeued;
+    private final Histogram batchesSize;
+    private final Timer waiting;
 
     public EventsProcessor(BlockingQueue<Event> inQueue, Map<String, BlockingQueue<Event>> outQueues, Map<String,Pipeline> namedPipelines, int maxSteps, EventsRepository<Future<?>> evrepo) {
+        this(inQueue, outQueues, namedPipelines, maxSteps, evrepo, 1);
+    }
+
+    /**
+     * @param batchSize the maximum number of events taken at once from the main queue
+     */
+    public EventsProcessor(BlockingQueue<Event> inQueue, Map<String, BlockingQueue<Event>> outQueues, Map<String,Pipeline> namedPipelines, int maxSteps, EventsRepository<Future<?>> evrepo, int batchSize) {
         this.inQueue = inQueue;
         this.outQueues = outQueues;
         this.namedPipelines = namedPipelines;
         this.maxSteps = maxSteps;
         this.evrepo = evrepo;
+        this.batchSize = Math.max(1, batchSize);
+        // The metrics are named after the queue type, to compare them
+        String queueType = inQueue.getClass().getSimpleName();
+        dequeued = Properties.metrics.meter("Queue." + queueType + ".dequeued");
+        batchesSize = Properties.metrics.histogram("Queue." + queueType + ".batchSize");
+        waiting = Properties.metrics.timer("Queue." + queueType + ".wait");
         setName("EventsProcessor/" + id.getAndIncrement());
         setDaemon(false);
     }
 
     @Override
     public void run() {
+        List<Event> batch = new ArrayList<>(batchSize);
         while (! isInterrupted()) {
-            Event event = null;
-            try {
-                event = inQueue.take();
+            try (Timer.Context tctx = waiting.time()) {
+                batch.add(inQueue.take());
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
                 break;
             }
-            { // Needed because eventtemp must be final
-                final Event eventtemp  = event;
-                logger.trace("received {} in {}", () -> eventtemp, () -> eventtemp.getCurrentPipeline());
+            if (batchSize > 1) {
+                inQueue.drainTo(batch, batchSize - 1);
             }
-            Processor processor = event.next();
-            while (processor != null) {
-                logger.trace("processing with {}", processor);
-                if (processor instanceof WrapEvent) {
-                    event = new EventWrapper(event, processor.getPathArray());
-                } else if (processor instanceof UnwrapEvent) {
-                    event = event.unwrap();
-                } else {
-                    ProcessingStatus processingstatus = process(event, processor);
-                    if (processingstatus != ProcessingStatus.CONTINUE) {
-                        // Processing status was non null, so the event will not be processed any more
-                        // But it's needed to check why.
-                        switch (processingstatus) {
-                        case DROPED: {
-                            //It was a drop action
-                            logger.debug("Dropped event {}", event);
-                            event.doMetric(PipelineStat.INFLIGHTDOWN);
-                            event.drop();
-                            break;
-                        }
-                        case FAILED: {
-                            //Processing failed critically (with an exception) and no recovery was attempted
-                            logger.debug("Failed event {}", event);
-                            event.doMetric(PipelineStat.INFLIGHTDOWN);
-                            event.end();
-                            break;
-                        }
-                        default:
-                            // Non fatal processing interruption
-                            break;
-                        }
-                        event = null;
+            dequeued.mark(batch.size());
+            batchesSize.update(batch.size());
+            for (Event event: batch) {
+                processEvent(event);
+            }
+            batch.clear();
+        }
+    }
+
+    private void processEvent(Event event) {
+        { // Needed because eventtemp must be final
+            final Event eventtemp  = event;
+            logger.trace("received {} in {}", () -> eventtemp, () -> eventtemp.getCurrentPipeline());
+        }
+        Processor processor = event.next();
+        while (processor != null) {
+            logger.trace("processing with {}", processor);
+            if (processor instanceof WrapEvent) {
+                event = new EventWrapper(event, processor.getPathArray());
+            } else if (processor instanceof UnwrapEvent) {
+                event = event.unwrap();
+            } else {
+                ProcessingStatus processingstatus = process(event, processor);
+                if (processingstatus != ProcessingStatus.CONTINUE) {
+                    // Processing status was non null, so the event will not be processed any more
+                    // But it's needed to check why.
+                    switch (processingstatus) {
+                    case DROPED: {
+                        //It was a drop action
+                        logger.debug("Dropped event {}", event);
+                        event.doMetric(PipelineStat.INFLIGHTDOWN);
+                        event.drop();
                         break;
                     }
+                    case FAILED: {
+                        //Processing failed critically (with an exception) and no recovery was attempted
+                        logger.debug("Failed event {}", event);
+                        event.doMetric(PipelineStat.INFLIGHTDOWN);
+                        event.end();
+                        break;
+                    }
+                    default:
+                        // Non fatal processing interruption
+                        break;
+                    }
+                    event = null;
+                    break;
                 }
+            }
+            processor = event.next();
+            // If next processor is null, refill the event
+            while (processor == null && event.getNextPipeline() != null) {
+                logger.trace("next processor is {}", processor);
+                // Send to another pipeline, loop in the main processing queue
+                Pipeline next = namedPipelines.get(event.getNextPipeline());
+                event.refill(next);
                 processor = event.next();
-                // If next processor is null, refill the event
-                while (processor == null && event.getNextPipeline() != null) {
-                    logger.trace("next processor is {}", processor);
-                    // Send to another pipeline, loop in the main processing queue
-                    Pipeline next = namedPipelines.get(event.getNextPipeline());
-                    event.refill(next);
-                    processor = event.next();
-                }
             }
-            logger.trace("event is now {}", event);
-            // Processing of the event is finished, what to do next with it ?
-            // Detect if will send to another pipeline, or just wait for a sender to take it
-            if (event != null) {
-                if (event.isTest()) {
-                    // A test event, it will not be send an output queue
-                    // Checked after pipeline forwarding, but before output sending
-                    TestEventProcessing.log(event);
-                    event.end();
-                } else if (event.getCurrentPipeline() != null && outQueues.containsKey(event.getCurrentPipeline())){
-                    // Put in the output queue, where the wanting output will come to take it
-                    try {
-                        outQueues.get(event.getCurrentPipeline()).put(event);
-                    } catch (InterruptedException e) {
-                        event.doMetric(PipelineStat.BLOCKOUT);
-                        event.end();
-                        Thread.currentThread().interrupt();
-                    }
-                } else if (event.getCurrentPipeline() != null && ! outQueues.containsKey(event.getCurrentPipeline())){
-                    Stats.newUnhandledException(new IllegalArgumentException("No sender consumming pipeline " + event.getCurrentPipeline()));
-                    logger.debug("No sender using pipeline {} for event {}", event.getCurrentPipeline(), event);
-                    Properties.metrics.meter("Allevents.failed").mark();
-                    event.end();
-                } else {
-                    Stats.newUnhandledException(new IllegalStateException("Invalid end state for event, no pipeline"));
-                    logger.debug("Invalid end state for event {}", event);
-                    Properties.metrics.meter("Allevents.failed").mark();
+        }
+        logger.trace("event is now {}", event);
+        // Processing of the event is finished, what to do next with it ?
+        // Detect if will send to another pipeline, or just wait for a sender to take it
+        if (event != null) {
+            if (event.isTest()) {
+                // A test event, it will not be send an output queue
+                // Checked after pipeline forwarding, but before output sending
+                TestEventProcessing.log(event);
+                event.end();
+            } else if (event.getCurrentPipeline() != null && outQueues.containsKey(event.getCurrentPipeline())){
+                // Put in the output queue, where the wanting output will come to take it
+                try {
+                    outQueues.get(event.getCurrentPipeline()).put(event);
+                } catch (InterruptedException e) {
+                    event.doMetric(PipelineStat.BLOCKOUT);
                     event.end();
+                    Thread.currentThread().interrupt();
                 }
+            } else if (event.getCurrentPipeline() != null && ! outQueues.containsKey(event.getCurrentPipeline())){
+                Stats.newUnhandledException(new IllegalArgumentException("No sender consumming pipeline " + event.getCurrentPipeline()));
+                logger.debug("No sender using pipeline {} for event {}", event.getCurrentPipeline(), event);
+                Properties.metrics.allEventsFailed().mark();
+                event.end();
+            } else {
+                Stats.newUnhandledException(new IllegalStateException("Invalid end state for event, no pipeline"));
+                logger.debug("Invalid end state for event {}", event);
+                Properties.metrics.allEventsFailed().mark();
+                event.end();
             }
         }
     }
@@ -10,6 +10,7 @@ import org.codehaus.groovy.control.CompilationFailedException;
 import groovy.lang.Binding;
 import groovy.lang.GroovyClassLoader;
 import groovy.lang.Script;
+import loghub.configuration.Properties;
 
 public class Expression {
 
@@ -25,18 +26,63 @@ public class Expression {
         }
     }
 
+    /**
+     * A expression compiled to native Java code, used instead of a Groovy script.
+     */
+    @FunctionalInterface
+    public interface Lambda {
+        Object apply(Event event) throws ProcessorException;
+    }
+
     private static final Logger logger = LogManager.getLogger();
 
     private static final Binding EMPTYBIDDING = new Binding();
 
+    /**
+     * The per-thread evaluation state: a script instance and the binding it's attached to.
+     * The binding is reused between evaluations, only the event is changed.
+     */
+    private static final class ScriptContext {
+        private final Script script;
+        private final Binding binding;
+        private ScriptContext(Script script, Map<String, VarFormatter> formatters) {
+            this.script = script;
+            this.binding = new Binding();
+            binding.setVariable("formatters", formatters);
+            script.setBinding(EMPTYBIDDING);
+        }
+    }
+
     private final String expression;
-    private Map<String, VarFormatter> formatters;
-    private final ThreadLocal<Script> groovyScript;
+    private final Map<String, VarFormatter> formatters;
+    private final ThreadLocal<ScriptContext> groovyScript;
+    private final Lambda lambda;
+
+    /**
+     * Build an expression using the compiled version found in the properties if
+     * available, or else a Groovy script.
+     * @param expression the Groovy source of the expression
+     * @param properties the current properties
+     * @throws ExpressionException
+     */
+    public Expression(String expression, Properties properties) throws ExpressionException {
+        this(expression, properties.groovyClassLoader, properties.formatters, properties.compiledExpressions.get(expression));
+    }
 
-    @SuppressWarnings("unchecked")
     public Expression(String expression, GroovyClassLoader loader, Map<String, VarFormatter> formatters) throws ExpressionException {
+        this(expression, loader, formatters, null);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Expression(String expression, GroovyClassLoader loader, Map<String, VarFormatter> formatters, Lambda lambda) throws ExpressionException {
         logger.trace("adding expression {}", expression);
         this.expression = expression;
+        this.formatters = formatters;
+        this.lambda = lambda;
+        if (lambda != null) {
+            groovyScript = null;
+            return;
+        }
         Class<Script> groovyClass;
         try {
             groovyClass = loader.parseClass(expression);
@@ -45,7 +91,7 @@ public class Expression {
         }
         groovyScript = ThreadLocal.withInitial(() -> {
             try {
-                return groovyClass.newInstance();
+                return new ScriptContext(groovyClass.newInstance(), this.formatters);
             } catch (IllegalAccessException | InstantiationException e) {
                 throw new UnsupportedOperationException(e);
             }
@@ -60,27 +106,46 @@ public class Expression {
         } catch (UnsupportedOperationException e) {
             throw new ExpressionException(e);
         }
-        this.formatters = formatters;
     }
 
-    public synchronized Object eval(Event event) throws ProcessorException {
+    /**
+     * Evaluate the expression for the given event. It's not synchronized, each thread
+     * uses it's own script instance and binding, so it can be called concurrently.
+     * @param event the event to evaluate
+     * @return the result of the expression
+     * @throws ProcessorException if the evaluation failed
+     */
+    public Object eval(Event event) throws ProcessorException {
+        if (lambda != null) {
+            logger.trace("Evaluating compiled expression {}", expression);
+            try {
+                return lambda.apply(event);
+            } catch (Exception e) {
+                throw event.buildException(String.format("failed expression '%s': %s", expression, Helpers.resolveThrowableException(e)));
+            }
+        }
         logger.trace("Evaluating script {} with formatters {}", expression, formatters);
-        Binding groovyBinding = new Binding();
-        groovyBinding.setVariable("event", event);
-        groovyBinding.setVariable("formatters", formatters);
-        Script localscript;
+        ScriptContext ctx;
         try {
-            localscript = groovyScript.get();
+            ctx = groovyScript.get();
         } catch (UnsupportedOperationException e) {
             throw event.buildException(String.format("script compilation failed '%s': %s", expression, e.getCause().getMessage()));
         }
-        localscript.setBinding(groovyBinding);
+        ctx.binding.setVariable("event", event);
+        ctx.script.setBinding(ctx.binding);
         try {
-            return localscript.run();
+            return ctx.script.run();
         } catch (Exception e) {
             throw event.buildException(String.format("failed expression '%s': %s", expression, Helpers.resolveThrowableException(e)));
         } finally {
-            localscript.setBinding(EMPTYBIDDING);
+            ctx.script.setBinding(EMPTYBIDDING);
+            // Don't keep a reference to the event, and drop any variable created by the script
+            Map<?, ?> variables = ctx.binding.getVariables();
+            if (variables.size() > 2) {
+                variables.clear();
+                ctx.binding.setVariable("formatters", formatters);
+            }
+            ctx.binding.setVariable("event", null);
         }
     }
 
@@ -91,6 +156,13 @@ public class Expression {
         return expression;
     }
 
+    /**
+     * @return true if the expression is evaluated without Groovy
+     */
+    public boolean isCompiled() {
+        return lambda != null;
+    }
+
     public static void logError(ExpressionException e, String source, Logger logger) {
         Throwable cause = e.getCause();
         if (cause instanceof CompilationFailedException) {
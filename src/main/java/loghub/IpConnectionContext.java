@@ -10,7 +10,8 @@ public class IpConnectionContext extends ConnectionContext<InetSocketAddress> {
 
     private final InetSocketAddress remoteaddr;
     private final InetSocketAddress localaddr;
-    private final SSLSession session;
+    // Not serializable, a spooled event loses it
+    private final transient SSLSession session;
 
     public IpConnectionContext(Socket s) {
         localaddr = (InetSocketAddress) s.getLocalSocketAddress();
@@ -12,11 +12,14 @@ public class Pipeline {
 
     public final List<Processor> processors;
     public final String nextPipeline;
+    // The processors run for this pipeline, with the timing steps
+    final Processor[] program;
 
     public Pipeline(List<Processor> steps, String name, String nextPipeline) {
         processors = Collections.unmodifiableList(new ArrayList<>(steps));
         this.name = name;
         this.nextPipeline = nextPipeline;
+        this.program = EventInstance.compile(name, processors);
     }
 
     public boolean configure(Properties properties) {
@@ -36,7 +36,7 @@ public abstract class Processor {
         logger.debug("configuring {}", this);
         if(ifsource != null) {
             try {
-                ifexpression = new Expression(ifsource, properties.groovyClassLoader, properties.formatters);
+                ifexpression = new Expression(ifsource, properties);
             } catch (ExpressionException e) {
                 Expression.logError(e, ifsource, logger);
                 return false;
@@ -0,0 +1,333 @@
+package loghub;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * A bounded blocking queue split in shards, an element is always added to the shard given by its key.
+ * <p>Each shard is intended to be consumed by a single worker, using the view returned by {@link #consumer(int)}.
+ * So the elements with the same key are processed in order by the same worker. The elements without a key are
+ * spread over the shards in turn.</p>
+ * <p>When stealing is enabled, an idle consumer takes elements from the other shards. It keeps all the
+ * workers busy, but two elements with the same key might then be processed concurrently.</p>
+ * <p>The queue itself can also be consumed, it then reads from all the shards.</p>
+ *
+ * @param <E> the type of elements held in this queue
+ */
+public class ShardedBlockingQueue<E> extends AbstractQueue<E> implements BlockingQueue<E> {
+
+    // How long an idle consumer wait on its own shard before trying to steal
+    private static final long STEALWAIT = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * The view of a shard, as used by a consumer. It adds elements using the sharding, but takes them
+     * from its own shard, or from the others when stealing.
+     */
+    private final class ShardConsumer extends AbstractQueue<E> implements BlockingQueue<E> {
+        private final int shard;
+
+        private ShardConsumer(int shard) {
+            this.shard = shard;
+        }
+
+        @Override
+        public E take() throws InterruptedException {
+            return ShardedBlockingQueue.this.take(shard);
+        }
+
+        @Override
+        public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+            return ShardedBlockingQueue.this.poll(shard, unit.toNanos(timeout));
+        }
+
+        @Override
+        public E poll() {
+            E e = shards[shard].poll();
+            return e != null ? e : steal(shard);
+        }
+
+        @Override
+        public int drainTo(Collection<? super E> c, int maxElements) {
+            return shards[shard].drainTo(c, maxElements);
+        }
+
+        @Override
+        public int drainTo(Collection<? super E> c) {
+            return shards[shard].drainTo(c);
+        }
+
+        @Override
+        public E peek() {
+            return shards[shard].peek();
+        }
+
+        @Override
+        public boolean offer(E e) {
+            return ShardedBlockingQueue.this.offer(e);
+        }
+
+        @Override
+        public void put(E e) throws InterruptedException {
+            ShardedBlockingQueue.this.put(e);
+        }
+
+        @Override
+        public boolean offer(E e, long timeout, TimeUnit unit) throws InterruptedException {
+            return ShardedBlockingQueue.this.offer(e, timeout, unit);
+        }
+
+        @Override
+        public int remainingCapacity() {
+            return ShardedBlockingQueue.this.remainingCapacity();
+        }
+
+        @Override
+        public int size() {
+            return ShardedBlockingQueue.this.size();
+        }
+
+        @Override
+        public Iterator<E> iterator() {
+            return ShardedBlockingQueue.this.iterator();
+        }
+    }
+
+    private final ArrayBlockingQueue<E>[] shards;
+    private final boolean stealing;
+    private final AtomicInteger next = new AtomicInteger();
+    private volatile Function<? super E, ?> key = e -> null;
+
+    /**
+     * @param capacity the total capacity, shared between the shards
+     * @param shardsCount the number of shards, usually the number of workers
+     * @param stealing true if a idle consumer takes elements from the other shards
+     */
+    @SuppressWarnings("unchecked")
+    public ShardedBlockingQueue(int capacity, int shardsCount, boolean stealing) {
+        if (shardsCount < 1 || capacity < shardsCount) {
+            throw new IllegalArgumentException("Invalid sharding: " + shardsCount + " shards for " + capacity + " elements");
+        }
+        shards = new ArrayBlockingQueue[shardsCount];
+        // The remainder is spread over the first shards, so the total is exactly the capacity
+        int shardCapacity = capacity / shardsCount;
+        int remainder = capacity % shardsCount;
+        for (int i = 0; i < shardsCount; i++) {
+            shards[i] = new ArrayBlockingQueue<>(shardCapacity + (i < remainder ? 1 : 0));
+        }
+        this.stealing = stealing;
+    }
+
+    /**
+     * Set the function that return the key of an element. Elements with the same key
+     * are stored in the same shard, a null key means that the element can go in any shard.
+     * @param key the key function
+     */
+    public void setKey(Function<? super E, ?> key) {
+        this.key = key;
+    }
+
+    public int getShardsCount() {
+        return shards.length;
+    }
+
+    /**
+     * @param shard the shard number
+     * @return a view of the queue to be used by the consumer of this shard
+     */
+    public BlockingQueue<E> consumer(int shard) {
+        return new ShardConsumer(shard % shards.length);
+    }
+
+    private ArrayBlockingQueue<E> shardFor(E e) {
+        Object k = key.apply(e);
+        int h;
+        if (k == null) {
+            // No affinity, don't pile all those elements in a single shard
+            h = next.getAndIncrement();
+        } else {
+            h = k.hashCode();
+            // Spread the high bits, the hash codes are often poorly distributed
+            h ^= (h >>> 16);
+        }
+        return shards[Math.floorMod(h, shards.length)];
+    }
+
+    private E steal(int shard) {
+        if (! stealing) {
+            return null;
+        }
+        for (int i = 1; i < shards.length; i++) {
+            E e = shards[(shard + i) % shards.length].poll();
+            if (e != null) {
+                return e;
+            }
+        }
+        return null;
+    }
+
+    private E take(int shard) throws InterruptedException {
+        if (! stealing) {
+            return shards[shard].take();
+        }
+        while (true) {
+            E e = shards[shard].poll(STEALWAIT, TimeUnit.NANOSECONDS);
+            if (e == null) {
+                e = steal(shard);
+            }
+            if (e != null) {
+                return e;
+            }
+        }
+    }
+
+    private E poll(int shard, long timeout) throws InterruptedException {
+        if (! stealing) {
+            return shards[shard].poll(timeout, TimeUnit.NANOSECONDS);
+        }
+        long deadline = System.nanoTime() + timeout;
+        while (true) {
+            long wait = Math.min(STEALWAIT, deadline - System.nanoTime());
+            E e = shards[shard].poll(Math.max(0, wait), TimeUnit.NANOSECONDS);
+            if (e == null) {
+                e = steal(shard);
+            }
+            if (e != null || deadline - System.nanoTime() <= 0) {
+                return e;
+            }
+        }
+    }
+
+    @Override
+    public boolean offer(E e) {
+        return shardFor(e).offer(e);
+    }
+
+    @Override
+    public void put(E e) throws InterruptedException {
+        shardFor(e).put(e);
+    }
+
+    @Override
+    public boolean offer(E e, long timeout, TimeUnit unit) throws InterruptedException {
+        return shardFor(e).offer(e, timeout, unit);
+    }
+
+    @Override
+    public E take() throws InterruptedException {
+        while (true) {
+            for (ArrayBlockingQueue<E> shard: shards) {
+                E e = shard.poll(STEALWAIT, TimeUnit.NANOSECONDS);
+                if (e != null) {
+                    return e;
+                }
+            }
+        }
+    }
+
+    @Override
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        do {
+            for (ArrayBlockingQueue<E> shard: shards) {
+                E e = shard.poll(STEALWAIT, TimeUnit.NANOSECONDS);
+                if (e != null) {
+                    return e;
+                }
+            }
+        } while (deadline - System.nanoTime() > 0);
+        return null;
+    }
+
+    @Override
+    public E poll() {
+        for (ArrayBlockingQueue<E> shard: shards) {
+            E e = shard.poll();
+            if (e != null) {
+                return e;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public E peek() {
+        for (ArrayBlockingQueue<E> shard: shards) {
+            E e = shard.peek();
+            if (e != null) {
+                return e;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c, int maxElements) {
+        int drained = 0;
+        for (int i = 0; i < shards.length && drained < maxElements; i++) {
+            drained += shards[i].drainTo(c, maxElements - drained);
+        }
+        return drained;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        for (ArrayBlockingQueue<E> shard: shards) {
+            if (shard.remove(o)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void clear() {
+        for (ArrayBlockingQueue<E> shard: shards) {
+            shard.clear();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        int remaining = 0;
+        for (ArrayBlockingQueue<E> shard: shards) {
+            remaining += shard.remainingCapacity();
+        }
+        return remaining;
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (ArrayBlockingQueue<E> shard: shards) {
+            size += shard.size();
+        }
+        return size;
+    }
+
+    /**
+     * A weakly consistent iterator, it doesn't support removal.
+     */
+    @Override
+    public Iterator<E> iterator() {
+        List<E> content = new ArrayList<>(size());
+        for (ArrayBlockingQueue<E> shard: shards) {
+            content.addAll(shard);
+        }
+        return Collections.unmodifiableList(content).iterator();
+    }
+
+}
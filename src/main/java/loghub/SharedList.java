@@ -0,0 +1,101 @@
+package loghub;
+
+import java.io.NotSerializableException;
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A copy on write list, shared between an event and its forks. It works like a {@link SharedMap}
+ * and thaw into an {@link ArrayList}.
+ */
+final class SharedList extends AbstractList<Object> implements Serializable {
+
+    private List<Object> shared;
+    private List<Object> own = null;
+
+    SharedList(List<Object> shared) {
+        this.shared = shared;
+    }
+
+    /**
+     * @return the frozen content of this list
+     * @throws NotSerializableException if a value can't be copied
+     * @see SharedMap#freeze(Object)
+     */
+    List<Object> freeze() throws NotSerializableException {
+        if (own != null) {
+            SharedMap.freezeList(own);
+            shared = own;
+            own = null;
+        }
+        return shared;
+    }
+
+    private List<Object> content() {
+        return own != null ? own : shared;
+    }
+
+    private List<Object> thaw() {
+        if (own == null) {
+            DeepCopier copier = new DeepCopier();
+            List<Object> copy = new ArrayList<>(shared.size());
+            for (Object o: shared) {
+                copy.add(SharedMap.thaw(o, copier));
+            }
+            own = copy;
+            shared = null;
+        }
+        return own;
+    }
+
+    @Override
+    public Object get(int index) {
+        if (own != null) {
+            return own.get(index);
+        } else {
+            Object value = shared.get(index);
+            return SharedMap.isReadOnly(value) ? value : thaw().get(index);
+        }
+    }
+
+    @Override
+    public int size() {
+        return content().size();
+    }
+
+    @Override
+    public Object set(int index, Object element) {
+        return thaw().set(index, element);
+    }
+
+    @Override
+    public void add(int index, Object element) {
+        thaw().add(index, element);
+        modCount++;
+    }
+
+    @Override
+    public Object remove(int index) {
+        Object old = thaw().remove(index);
+        modCount++;
+        return old;
+    }
+
+    @Override
+    public void clear() {
+        thaw().clear();
+        modCount++;
+    }
+
+    @Override
+    public String toString() {
+        return content().toString();
+    }
+
+    private Object writeReplace() {
+        return new ArrayList<>(content());
+    }
+
+}
@@ -0,0 +1,223 @@
+package loghub;
+
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A copy on write map, shared between an event and its forks.
+ * <p>The shared content is never modified. The first write, or the first read of a value that can be
+ * modified in place, replace it with a private {@link LinkedHashMap} copy of this level only. The nested
+ * maps and lists are wrapped in new shared containers and the other mutable values are copied with a
+ * {@link DeepCopier}. So the untouched subtrees stay shared and each event only copies what it uses.</p>
+ * <p>Like any other value of an event, a shared map belongs to a single event and it's not thread safe.</p>
+ */
+final class SharedMap extends AbstractMap<String, Object> implements Serializable {
+
+    private Map<String, Object> shared;
+    private Map<String, Object> own = null;
+
+    private SharedMap(Map<String, Object> shared) {
+        this.shared = shared;
+    }
+
+    /**
+     * @param value the value to check
+     * @return true if the value is a map or a list that can be shared using {@link #freeze(Object)}
+     */
+    static boolean isShareable(Object value) {
+        if (value == null) {
+            return false;
+        } else {
+            Class<?> valueClass = value.getClass();
+            return valueClass == SharedMap.class || valueClass == SharedList.class
+                   || valueClass == HashMap.class || valueClass == LinkedHashMap.class
+                   || valueClass == ArrayList.class;
+        }
+    }
+
+    /**
+     * Freeze a value, so it can be shared. The private copies of the shared containers become
+     * plain frozen content, and everything is checked to be copyable.
+     * @param value the value to freeze
+     * @return the frozen content, to be given to {@link #share(Object)} for each event
+     * @throws NotSerializableException if a value can't be copied
+     */
+    @SuppressWarnings("unchecked")
+    static Object freeze(Object value) throws NotSerializableException {
+        if (value instanceof SharedMap) {
+            SharedMap sm = (SharedMap) value;
+            if (sm.own != null) {
+                freezeMap(sm.own);
+                sm.shared = sm.own;
+                sm.own = null;
+            }
+            return sm.shared;
+        } else if (value instanceof SharedList) {
+            return ((SharedList) value).freeze();
+        } else if (value instanceof Map && isShareable(value)) {
+            freezeMap((Map<String, Object>) value);
+            return value;
+        } else if (value instanceof List && isShareable(value)) {
+            freezeList((List<Object>) value);
+            return value;
+        } else if (value == null || value instanceof Serializable) {
+            return value;
+        } else {
+            throw new NotSerializableException(value.getClass().getName());
+        }
+    }
+
+    private static void freezeMap(Map<String, Object> content) throws NotSerializableException {
+        for (Map.Entry<String, Object> e: content.entrySet()) {
+            Object frozen = freeze(e.getValue());
+            if (frozen != e.getValue()) {
+                e.setValue(frozen);
+            }
+        }
+    }
+
+    static void freezeList(List<Object> content) throws NotSerializableException {
+        for (ListIterator<Object> i = content.listIterator(); i.hasNext();) {
+            Object value = i.next();
+            Object frozen = freeze(value);
+            if (frozen != value) {
+                i.set(frozen);
+            }
+        }
+    }
+
+    /**
+     * @param frozen a value returned by {@link #freeze(Object)}
+     * @return a new container that share the frozen content, or the value itself if it's not a container
+     */
+    @SuppressWarnings("unchecked")
+    static Object share(Object frozen) {
+        if (frozen instanceof Map) {
+            return new SharedMap((Map<String, Object>) frozen);
+        } else if (frozen instanceof List) {
+            return new SharedList((List<Object>) frozen);
+        } else {
+            return frozen;
+        }
+    }
+
+    /**
+     * Make a private copy of a value from a shared content.
+     * @param value the shared value
+     * @param copier used to copy the mutable values that are not containers
+     * @return the private value
+     */
+    static Object thaw(Object value, DeepCopier copier) {
+        if (isShareable(value)) {
+            return share(value);
+        } else {
+            try {
+                return copier.copy(value);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            } catch (ClassNotFoundException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+    }
+
+    /**
+     * @param value a value from a shared content
+     * @return true if it can be read without a private copy
+     */
+    static boolean isReadOnly(Object value) {
+        return value == null || DeepCopier.isImmutable(value);
+    }
+
+    private Map<String, Object> content() {
+        return own != null ? own : shared;
+    }
+
+    private Map<String, Object> thaw() {
+        if (own == null) {
+            DeepCopier copier = new DeepCopier();
+            Map<String, Object> copy = new LinkedHashMap<>(shared.size() * 4 / 3 + 1);
+            for (Map.Entry<String, Object> e: shared.entrySet()) {
+                copy.put(e.getKey(), thaw(e.getValue(), copier));
+            }
+            own = copy;
+            shared = null;
+        }
+        return own;
+    }
+
+    @Override
+    public Object get(Object key) {
+        if (own != null) {
+            return own.get(key);
+        } else {
+            Object value = shared.get(key);
+            return isReadOnly(value) ? value : thaw().get(key);
+        }
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return content().containsKey(key);
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        return content().containsValue(value);
+    }
+
+    @Override
+    public int size() {
+        return content().size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return content().isEmpty();
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        return thaw().put(key, value);
+    }
+
+    @Override
+    public Object remove(Object key) {
+        return thaw().remove(key);
+    }
+
+    @Override
+    public void putAll(Map<? extends String, ? extends Object> m) {
+        thaw().putAll(m);
+    }
+
+    @Override
+    public void clear() {
+        thaw().clear();
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        return thaw().entrySet();
+    }
+
+    @Override
+    public String toString() {
+        return content().toString();
+    }
+
+    private Object writeReplace() {
+        return new LinkedHashMap<>(content());
+    }
+
+}
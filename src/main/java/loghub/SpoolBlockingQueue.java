@@ -0,0 +1,639 @@
+package loghub;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.codahale.metrics.Meter;
+
+import loghub.configuration.Properties;
+
+/**
+ * An output queue that spill events to disk when its memory part is full.
+ * <p>The events are kept in memory until the memory part is full, then they are serialized and
+ * appended to segment files, until the disk usage reach a maximum size, only then writers are blocked.
+ * As long as some events are on disk, new events are written to disk too, so the events are
+ * delivered in order. An event written to disk is ended, the copy read back is a new event.</p>
+ * <p>Each record is stored with its size and a CRC, so a partially written segment is truncated
+ * at the last valid record when the spool is opened again. The segments found when opening the spool are replayed first.
+ * When closed, the events still in memory are written to disk, ahead of the ones already there, and the reading position is saved.
+ * Without a clean close, some events might be read again.</p>
+ */
+public class SpoolBlockingQueue extends AbstractQueue<Event> implements BlockingQueue<Event>, Closeable {
+
+    public enum FsyncPolicy {
+        /**
+         * Let the operating system flush the segments
+         */
+        NEVER,
+        /**
+         * Sync a segment when it's full
+         */
+        SEGMENT,
+        /**
+         * Sync each record
+         */
+        ALWAYS,
+    }
+
+    private static final Logger logger = LogManager.getLogger();
+
+    // A segment written at close for the events still in memory is numbered before the first one, so it can be negative
+    private static final Pattern SEGMENTNAME = Pattern.compile("segment-(-?\\d+)\\.spool");
+    private static final String OFFSETFILE = "reader.offset";
+    // Record size and CRC
+    private static final int HEADERSIZE = 8;
+
+    private final String name;
+    private final Path directory;
+    private final long maxBytes;
+    private final long segmentSize;
+    private final FsyncPolicy fsync;
+    private final Meter spilled;
+    private final Meter replayed;
+
+    private final int memoryCapacity;
+    private final Deque<Event> memory;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+
+    // The segments still on disk, the first one is read, the last one is written
+    private final Deque<Long> segments = new ArrayDeque<>();
+    private long diskBytes = 0;
+    private long diskCount = 0;
+    private FileChannel writer = null;
+    private long writerSize = 0;
+    private FileChannel reader = null;
+    private long readerPosition = 0;
+    // The reading position of the segments that are behind a segment written at close
+    private final Map<Long, Long> resumeOffsets = new HashMap<>();
+    private boolean closed = false;
+
+    /**
+     * Open a spool, the events found in the directory will be returned first
+     * @param name the name of the queue, used for the metrics
+     * @param memoryCapacity the number of events kept in memory
+     * @param directory the directory that will hold the segments
+     * @param maxBytes the maximum disk usage, only an empty spool accepts a bigger record
+     * @param segmentSize the size of a segment, the disk space is released by segments
+     * @param fsync when to sync the segments
+     * @throws IOException if the spool can't be read
+     */
+    public SpoolBlockingQueue(String name, int memoryCapacity, Path directory, long maxBytes, long segmentSize, FsyncPolicy fsync) throws IOException {
+        this.name = name;
+        this.memoryCapacity = memoryCapacity;
+        this.memory = new ArrayDeque<>(memoryCapacity);
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.segmentSize = Math.min(segmentSize, maxBytes);
+        this.fsync = fsync;
+        this.spilled = Properties.metrics.meter("spool." + name + ".spilled");
+        this.replayed = Properties.metrics.meter("spool." + name + ".replayed");
+        Files.createDirectories(directory);
+        replay();
+    }
+
+    /**
+     * Find the segments already on disk, check them and count the waiting records
+     * @throws IOException
+     */
+    private void replay() throws IOException {
+        List<Long> found = new ArrayList<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(directory, "segment-*.spool")) {
+            for (Path p: ds) {
+                Matcher m = SEGMENTNAME.matcher(p.getFileName().toString());
+                if (m.matches()) {
+                    found.add(Long.parseLong(m.group(1)));
+                }
+            }
+        }
+        Collections.sort(found);
+        // The saved reading positions, one per line
+        Path offsetFile = directory.resolve(OFFSETFILE);
+        if (Files.exists(offsetFile)) {
+            for (String line: Files.readAllLines(offsetFile, StandardCharsets.US_ASCII)) {
+                String[] offset = line.trim().split(":");
+                if (offset.length == 2) {
+                    resumeOffsets.put(Long.parseLong(offset[0]), Long.parseLong(offset[1]));
+                }
+            }
+            Files.delete(offsetFile);
+        }
+        resumeOffsets.keySet().retainAll(found);
+        for (long segment: found) {
+            long records = checkSegment(segmentPath(segment), resumeOffsets.getOrDefault(segment, 0L));
+            segments.add(segment);
+            diskBytes += Files.size(segmentPath(segment));
+            diskCount += records;
+        }
+        if (! segments.isEmpty()) {
+            readerPosition = resumeOffsets.getOrDefault(segments.getFirst(), 0L);
+        }
+        if (diskCount > 0) {
+            logger.info("Replaying {} events from {}", diskCount, directory);
+        }
+    }
+
+    /**
+     * Count the valid records in a segment, and truncate it after the last valid one
+     */
+    private long checkSegment(Path segment, long start) throws IOException {
+        long records = 0;
+        try (FileChannel fc = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long position = start;
+            ByteBuffer header = ByteBuffer.allocate(HEADERSIZE);
+            while (position < fc.size()) {
+                header.clear();
+                if (fc.read(header, position) < HEADERSIZE) {
+                    break;
+                }
+                header.flip();
+                int size = header.getInt();
+                int crc = header.getInt();
+                if (size <= 0 || position + HEADERSIZE + size > fc.size()) {
+                    break;
+                }
+                ByteBuffer content = ByteBuffer.allocate(size);
+                fc.read(content, position + HEADERSIZE);
+                if (crc(content.array()) != crc) {
+                    break;
+                }
+                position += HEADERSIZE + size;
+                records++;
+            }
+            if (position < fc.size()) {
+                logger.warn("Truncating damaged spool segment {} at {}", segment, position);
+                fc.truncate(position);
+            }
+        }
+        return records;
+    }
+
+    private Path segmentPath(long segment) {
+        return directory.resolve(String.format("segment-%020d.spool", segment));
+    }
+
+    private static int crc(byte[] content) {
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Write an event in the current segment, the lock must be held
+     * @return false if the disk usage is at the maximum
+     */
+    private boolean spill(Event event) {
+        byte[] content = serialize(event);
+        if (content == null) {
+            return true;
+        }
+        long recordSize = HEADERSIZE + content.length;
+        try {
+            if (diskCount == 0 && diskBytes > 0) {
+                recycle();
+            }
+        } catch (IOException ex) {
+            failed(event, "Unable to spool event: " + Helpers.resolveThrowableException(ex), ex);
+            return true;
+        }
+        // An empty spool always accept a record, even a big one
+        if (diskBytes + recordSize > maxBytes && diskBytes > 0) {
+            return false;
+        }
+        try {
+            if (writer == null || (writerSize > 0 && writerSize + recordSize > segmentSize)) {
+                rollSegment();
+            }
+            writeRecord(writer, content);
+        } catch (IOException ex) {
+            failed(event, "Unable to spool event: " + Helpers.resolveThrowableException(ex), ex);
+            return true;
+        }
+        writerSize += recordSize;
+        stored(event, recordSize);
+        return true;
+    }
+
+    /**
+     * @return the serialized event, or null if it failed
+     */
+    private byte[] serialize(Event event) {
+        try (ByteArrayOutputStream bos = new ByteArrayOutputStream(); ObjectOutputStream oos = new ObjectOutputStream(bos)) {
+            oos.writeObject(event.getRealEvent());
+            oos.flush();
+            return bos.toByteArray();
+        } catch (IOException ex) {
+            failed(event, "Unable to spool event: " + Helpers.resolveThrowableException(ex), ex);
+            return null;
+        }
+    }
+
+    private void writeRecord(FileChannel channel, byte[] content) throws IOException {
+        ByteBuffer record = ByteBuffer.allocate(HEADERSIZE + content.length);
+        record.putInt(content.length);
+        record.putInt(crc(content));
+        record.put(content);
+        record.flip();
+        while (record.hasRemaining()) {
+            channel.write(record);
+        }
+        if (fsync == FsyncPolicy.ALWAYS) {
+            channel.force(false);
+        }
+    }
+
+    private void stored(Event event, long recordSize) {
+        diskBytes += recordSize;
+        diskCount++;
+        spilled.mark();
+        // It's now safe on disk
+        event.end();
+    }
+
+    private void failed(Event event, String message, Exception ex) {
+        logger.error(message);
+        logger.catching(Level.DEBUG, ex);
+        Stats.newUnhandledException(ex);
+        Properties.metrics.allEventsFailed().mark();
+        event.end();
+    }
+
+    /**
+     * All the records on disk were read, but their segments still use the disk space, remove them
+     */
+    private void recycle() throws IOException {
+        if (reader != null) {
+            reader.close();
+            reader = null;
+        }
+        if (writer != null) {
+            writer.close();
+            writer = null;
+        }
+        while (! segments.isEmpty()) {
+            Files.deleteIfExists(segmentPath(segments.getFirst()));
+            segments.removeFirst();
+        }
+        resumeOffsets.clear();
+        readerPosition = 0;
+        writerSize = 0;
+        diskBytes = 0;
+    }
+
+    private void rollSegment() throws IOException {
+        if (writer != null) {
+            if (fsync != FsyncPolicy.NEVER) {
+                writer.force(false);
+            }
+            writer.close();
+        }
+        // A new segment is always used, the replayed ones are not appended
+        long next = segments.isEmpty() ? 0 : segments.getLast() + 1;
+        segments.add(next);
+        writer = FileChannel.open(segmentPath(next), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        writerSize = 0;
+    }
+
+    /**
+     * Read the next event from disk, the lock must be held and diskCount must be positive
+     */
+    private Event unspill() throws IOException, ClassNotFoundException {
+        ByteBuffer header = ByteBuffer.allocate(HEADERSIZE);
+        while (true) {
+            long current = segments.getFirst();
+            if (reader == null) {
+                reader = FileChannel.open(segmentPath(current), StandardOpenOption.READ);
+            }
+            header.clear();
+            if (reader.read(header, readerPosition) == HEADERSIZE) {
+                header.flip();
+                int size = header.getInt();
+                header.getInt();
+                ByteBuffer content = ByteBuffer.allocate(size);
+                while (content.hasRemaining()) {
+                    if (reader.read(content, readerPosition + HEADERSIZE + content.position()) < 0) {
+                        throw new IOException("Truncated spool segment " + segmentPath(current));
+                    }
+                }
+                readerPosition += HEADERSIZE + size;
+                diskCount--;
+                try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(content.array()))) {
+                    return EventInstance.readEvent(ois);
+                }
+            } else if (segments.size() == 1) {
+                // Some events were expected in the last segment
+                throw new IOException("Inconsistent spool in " + directory);
+            } else {
+                // End of this segment, remove it
+                reader.close();
+                reader = null;
+                diskBytes -= Files.size(segmentPath(current));
+                Files.delete(segmentPath(current));
+                segments.removeFirst();
+                resumeOffsets.remove(current);
+                readerPosition = resumeOffsets.getOrDefault(segments.getFirst(), 0L);
+            }
+        }
+    }
+
+    private Event pollLocked() {
+        Event e = memory.poll();
+        while (e == null && diskCount > 0) {
+            try {
+                e = unspill();
+                replayed.mark();
+            } catch (IOException | ClassNotFoundException ex) {
+                logger.error("Unable to read spooled event: {}", Helpers.resolveThrowableException(ex));
+                logger.catching(Level.DEBUG, ex);
+                Stats.newUnhandledException(ex);
+                if (ex instanceof IOException) {
+                    // Can't go further in this spool
+                    diskCount = 0;
+                }
+            }
+        }
+        if (e != null) {
+            notFull.signal();
+        }
+        return e;
+    }
+
+    private boolean offerLocked(Event e) {
+        if (closed) {
+            return false;
+        } else if (diskCount == 0 && memory.size() < memoryCapacity) {
+            memory.add(e);
+            notEmpty.signal();
+            return true;
+        } else if (spill(e)) {
+            notEmpty.signal();
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    @Override
+    public boolean offer(Event e) {
+        lock.lock();
+        try {
+            return offerLocked(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(Event e) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (! offerLocked(e)) {
+                notFull.await();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean offer(Event e, long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (! offerLocked(e)) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = notFull.awaitNanos(nanos);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Event take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            Event e;
+            while ((e = pollLocked()) == null) {
+                notEmpty.await();
+            }
+            return e;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Event poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            Event e;
+            while ((e = pollLocked()) == null) {
+                if (nanos <= 0) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return e;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Event poll() {
+        lock.lock();
+        try {
+            return pollLocked();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Only look in the memory part
+     */
+    @Override
+    public Event peek() {
+        lock.lock();
+        try {
+            return memory.peek();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int drainTo(Collection<? super Event> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super Event> c, int maxElements) {
+        lock.lock();
+        try {
+            int drained = 0;
+            Event e;
+            while (drained < maxElements && (e = pollLocked()) != null) {
+                c.add(e);
+                drained++;
+            }
+            return drained;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Only the memory part is counted, the disk can hold more
+     */
+    @Override
+    public int remainingCapacity() {
+        lock.lock();
+        try {
+            return memoryCapacity - memory.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return (int) Math.min(Integer.MAX_VALUE, memory.size() + diskCount);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Only iterate over the memory part, it doesn't support removal.
+     */
+    @Override
+    public Iterator<Event> iterator() {
+        lock.lock();
+        try {
+            return Collections.unmodifiableList(new ArrayList<>(memory)).iterator();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The events in memory are older than the ones on disk, so they are written in a new segment
+     * before the first one, that will be replayed first.
+     */
+    private void spillHead() throws IOException {
+        long head = segments.getFirst() - 1;
+        try (FileChannel fc = FileChannel.open(segmentPath(head), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            Event e;
+            while ((e = memory.poll()) != null) {
+                byte[] content = serialize(e);
+                if (content == null) {
+                    continue;
+                }
+                long recordSize = HEADERSIZE + content.length;
+                if (diskBytes + recordSize > maxBytes) {
+                    lost(e);
+                    continue;
+                }
+                try {
+                    writeRecord(fc, content);
+                } catch (IOException ex) {
+                    failed(e, "Unable to spool event: " + Helpers.resolveThrowableException(ex), ex);
+                    continue;
+                }
+                stored(e, recordSize);
+            }
+            if (fsync != FsyncPolicy.NEVER) {
+                fc.force(false);
+            }
+        }
+    }
+
+    private void lost(Event e) {
+        logger.error("Spool {} is full, event lost", directory);
+        failed(e, "Spool full", new IOException("Spool " + directory + " is full"));
+    }
+
+    /**
+     * Write the events still in memory to disk and save the reading position.
+     */
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (diskCount > 0 && ! memory.isEmpty()) {
+                spillHead();
+            }
+            Event e;
+            while ((e = memory.poll()) != null) {
+                if (! spill(e)) {
+                    lost(e);
+                }
+            }
+            if (writer != null) {
+                if (fsync != FsyncPolicy.NEVER) {
+                    writer.force(false);
+                }
+                writer.close();
+                writer = null;
+            }
+            if (reader != null) {
+                reader.close();
+                reader = null;
+            }
+            if (! segments.isEmpty()) {
+                resumeOffsets.put(segments.getFirst(), readerPosition);
+                List<String> offsets = new ArrayList<>(resumeOffsets.size());
+                resumeOffsets.forEach((k, v) -> offsets.add(k + ":" + v));
+                Files.write(directory.resolve(OFFSETFILE), offsets, StandardCharsets.US_ASCII);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+}
@@ -9,6 +9,7 @@ import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.logging.log4j.LogManager;
@@ -220,7 +221,9 @@ public class Start {
 
         Set<EventsProcessor> allep = new HashSet<>(props.numWorkers);
         for (int i = 0; i < props.numWorkers; i++) {
-            EventsProcessor t = new EventsProcessor(props.mainQueue, props.outputQueues, props.namedPipeLine, props.maxSteps, props.repository);
+            // With a sharded queue, each worker consumes its own shard
+            BlockingQueue<Event> inQueue = props.mainQueue instanceof ShardedBlockingQueue ? ((ShardedBlockingQueue<Event>) props.mainQueue).consumer(i) : props.mainQueue;
+            EventsProcessor t = new EventsProcessor(inQueue, props.outputQueues, props.namedPipeLine, props.maxSteps, props.repository, props.workerBatchSize);
             t.start();
             allep.add(t);
         }
@@ -243,6 +246,14 @@ public class Start {
             props.receivers.forEach( i -> i.stopReceiving());
             allep.forEach(i -> i.stopProcessing());
             props.senders.forEach( i -> i.stopSending());
+            // Keep the events still waiting in the spools
+            props.outputQueues.values().stream().filter(SpoolBlockingQueue.class::isInstance).forEach(i -> {
+                try {
+                    ((SpoolBlockingQueue) i).close();
+                } catch (IOException e) {
+                    logger.error("Failed to close spool: {}", Helpers.resolveThrowableException(e));
+                }
+            });
             JmxService.stop();
         };
         shutdownAction = ThreadBuilder.get()
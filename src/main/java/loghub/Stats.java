@@ -1,105 +1,66 @@
 package loghub;
 
 import java.util.Collection;
-import java.util.Queue;
-import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.atomic.AtomicLong;
-import java.util.stream.Collectors;
 
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
 
 import loghub.configuration.Properties;
 
 public final class Stats {
 
     static public enum PIPELINECOUNTERS {
-        BLOCKEDOUT {
-            @Override
-            public void instanciate(MetricRegistry metrics, String name) {
-                metrics.meter("Pipeline." + name + "." + prettyName());
-            }
-            @Override
-            public String prettyName() {
-                return "blocked.out";
-            }
-        },
-        BLOCKEDIN {
-            @Override
-            public void instanciate(MetricRegistry metrics, String name) {
-                metrics.meter("Pipeline." + name + "." + prettyName());
-            }
-            @Override
-            public String prettyName() {
-                return "blocked.in";
-            }
-        },
-        LOOPOVERFLOW {
-            @Override
-            public void instanciate(MetricRegistry metrics, String name) {
-                metrics.counter("Pipeline." + name + "." + prettyName());
-            }
-            @Override
-            public String prettyName() {
-                return "loopOverflow";
-            }
-        },
-        EXCEPTION {
-            @Override
-            public void instanciate(MetricRegistry metrics, String name) {
-                metrics.meter("Pipeline." + name + "." + prettyName());
-            }
-            @Override
-            public String prettyName() {
-                return "exception";
-            }
-        },
-        DROPPED {
-            @Override
-            public void instanciate(MetricRegistry metrics, String name) {
-                metrics.meter("Pipeline." + name + "." + prettyName());
-            }
-            @Override
-            public String prettyName() {
-                return "dropped";
-            }
-        },
-        FAILED {
-            @Override
-            public void instanciate(MetricRegistry metrics, String name) {
-                metrics.meter("Pipeline." + name + "." + prettyName());
-            }
-            @Override
-            public String prettyName() {
-                return "failed";
-            }
-        },
-        INFLIGHT {
-            @Override
-            public void instanciate(MetricRegistry metrics, String name) {
-                metrics.counter("Pipeline." + name + "." + prettyName());
-            }
-            @Override
-            public String prettyName() {
-                return "inflight";
-            }
-        },
-        TIMER {
-            @Override
-            public void instanciate(MetricRegistry metrics, String name) {
-                metrics.timer("Pipeline." + name + "." + prettyName());
-            }
-            @Override
-            public String prettyName() {
-                return "timer";
-            }
-        };
-        public abstract void instanciate(MetricRegistry metrics, String name);
-        public abstract String prettyName();
+        BLOCKEDOUT("blocked.out"),
+        BLOCKEDIN("blocked.in"),
+        LOOPOVERFLOW("loopOverflow"),
+        EXCEPTION("exception"),
+        DROPPED("dropped"),
+        FAILED("failed"),
+        INFLIGHT("inflight"),
+        TIMER("timer");
+        private final String prettyName;
+        PIPELINECOUNTERS(String prettyName) {
+            this.prettyName = prettyName;
+        }
+        public String prettyName() {
+            return prettyName;
+        }
         public String metricName(String name) {
             return "Pipeline." + name + "." + prettyName();
         }
     }
 
+    /**
+     * The metrics of a pipeline, resolved once from the registry, so they can be used for
+     * each event without a lookup. The counters are already LongAdder based, so they don't
+     * suffer from contention.
+     */
+    public static final class PipelineMetrics {
+        public final String name;
+        public final Meter blockedOut;
+        public final Meter blockedIn;
+        public final Counter loopOverflow;
+        public final Meter exception;
+        public final Meter dropped;
+        public final Meter failed;
+        public final Counter inflight;
+        public final Timer timer;
+        public PipelineMetrics(MetricRegistry metrics, String name) {
+            this.name = name;
+            blockedOut = metrics.meter(PIPELINECOUNTERS.BLOCKEDOUT.metricName(name));
+            blockedIn = metrics.meter(PIPELINECOUNTERS.BLOCKEDIN.metricName(name));
+            loopOverflow = metrics.counter(PIPELINECOUNTERS.LOOPOVERFLOW.metricName(name));
+            exception = metrics.meter(PIPELINECOUNTERS.EXCEPTION.metricName(name));
+            dropped = metrics.meter(PIPELINECOUNTERS.DROPPED.metricName(name));
+            failed = metrics.meter(PIPELINECOUNTERS.FAILED.metricName(name));
+            inflight = metrics.counter(PIPELINECOUNTERS.INFLIGHT.metricName(name));
+            timer = metrics.timer(PIPELINECOUNTERS.TIMER.metricName(name));
+        }
+    }
+
     public final static AtomicLong received = new AtomicLong();
     public final static AtomicLong dropped = new AtomicLong();
     public final static AtomicLong sent = new AtomicLong();
@@ -111,12 +72,12 @@ public final class Stats {
     public final static AtomicLong failedReceived = new AtomicLong();
     public final static AtomicLong loopOverflow = new AtomicLong();
 
-    private final static Queue<ProcessingException> processorExceptions = new ArrayBlockingQueue<>(100);
-    private final static Queue<Throwable> exceptions = new ArrayBlockingQueue<>(100);
-    private final static Queue<String> decodeMessage = new ArrayBlockingQueue<>(100);
-    private final static Queue<String> blockedMessage = new ArrayBlockingQueue<>(100);
-    private final static Queue<String> senderMessages = new ArrayBlockingQueue<>(100);
-    private final static Queue<String> receiverMessages = new ArrayBlockingQueue<>(100);
+    private final static ErrorJournal<ProcessingException> processorExceptions = new ErrorJournal<>(100);
+    private final static ErrorJournal<Throwable> exceptions = new ErrorJournal<>(100);
+    private final static ErrorJournal<String> decodeMessage = new ErrorJournal<>(100);
+    private final static ErrorJournal<String> blockedMessage = new ErrorJournal<>(100);
+    private final static ErrorJournal<String> senderMessages = new ErrorJournal<>(100);
+    private final static ErrorJournal<String> receiverMessages = new ErrorJournal<>(100);
 
     public enum PipelineStat {
         FAILURE,
@@ -149,78 +110,102 @@ public final class Stats {
 
         blockedMessage.clear();
         senderMessages.clear();
+        receiverMessages.clear();
+    }
+
+    /**
+     * Only keep about one error message out of <code>sampling</code> in the journals.
+     * @param sampling the sampling rate, 1 to keep all of them
+     */
+    public static void setErrorsSampling(int sampling) {
+        processorExceptions.setSampling(sampling);
+        exceptions.setSampling(sampling);
+        decodeMessage.setSampling(sampling);
+        blockedMessage.setSampling(sampling);
+        senderMessages.setSampling(sampling);
+        receiverMessages.setSampling(sampling);
+    }
+
+    public static int getErrorsSampling() {
+        return processorExceptions.getSampling();
     }
 
-    public static synchronized void newDecodError(String msg) {
+    public static void newDecodError(String msg) {
         decoderFailures.incrementAndGet();
-        if (! decodeMessage.offer(msg)) {
-            decodeMessage.remove();
-            decodeMessage.offer(msg);
-        }
+        decodeMessage.add(msg);
     }
 
-    public static synchronized void newProcessorError(ProcessingException e) {
+    public static void newProcessorError(ProcessingException e) {
         processorFailures.incrementAndGet();
-        if (! processorExceptions.offer(e)) {
-            processorExceptions.remove();
-            processorExceptions.offer(e);
-        }
+        processorExceptions.add(e);
     }
 
-    public static synchronized void newUnhandledException(Throwable e) {
+    public static void newUnhandledException(Throwable e) {
         thrown.incrementAndGet();
-        if (! exceptions.offer(e)) {
-            exceptions.remove();
-            exceptions.offer(e);
-        }
+        exceptions.add(e);
     }
 
-    public static synchronized void newBlockedError(String msg) {
+    public static void newBlockedError(String msg) {
         blocked.incrementAndGet();
-        if (! blockedMessage.offer(msg)) {
-            blockedMessage.remove();
-            blockedMessage.offer(msg);
-        }
+        blockedMessage.add(msg);
     }
 
-    public static synchronized void newSenderError(String msg) {
+    public static void newSenderError(String msg) {
         failedSend.incrementAndGet();
-        if (! senderMessages.offer(msg)) {
-            senderMessages.remove();
-            senderMessages.offer(msg);
-        }
+        senderMessages.add(msg);
     }
 
-    public static synchronized void newReceivedError(String msg) {
+    public static void newReceivedError(String msg) {
         failedReceived.incrementAndGet();
-        if (! receiverMessages.offer(msg)) {
-            receiverMessages.remove();
-            receiverMessages.offer(msg);
-        }
+        receiverMessages.add(msg);
     }
 
-    public static synchronized Collection<ProcessingException> getErrors() {
-        return processorExceptions.stream().collect(Collectors.toList());
+    public static Collection<ProcessingException> getErrors() {
+        return processorExceptions.snapshot();
     }
 
-    public static synchronized Collection<String> getDecodeErrors() {
-        return decodeMessage.stream().collect(Collectors.toList());
+    public static Collection<String> getDecodeErrors() {
+        return decodeMessage.snapshot();
     }
 
     public static Collection<Throwable> getExceptions() {
-        return exceptions.stream().collect(Collectors.toList());
+        return exceptions.snapshot();
     }
 
     public static Collection<String> getBlockedError() {
-        return blockedMessage.stream().collect(Collectors.toList());
+        return blockedMessage.snapshot();
     }
 
     public static Collection<String> getSenderError() {
-        return senderMessages.stream().collect(Collectors.toList());
+        return senderMessages.snapshot();
     }
 
     public static Collection<String> getReceiverError() {
-        return receiverMessages.stream().collect(Collectors.toList());
+        return receiverMessages.snapshot();
+    }
+
+    public static long getDroppedErrors() {
+        return processorExceptions.getDropped();
+    }
+
+    public static long getDroppedDecodeErrors() {
+        return decodeMessage.getDropped();
+    }
+
+    public static long getDroppedExceptions() {
+        return exceptions.getDropped();
+    }
+
+    public static long getDroppedBlockedError() {
+        return blockedMessage.getDropped();
+    }
+
+    public static long getDroppedSenderError() {
+        return senderMessages.getDropped();
+    }
+
+    public static long getDroppedReceiverError() {
+        return receiverMessages.getDropped();
     }
 
     public static void pipelineHanding(String name, PipelineStat status) {
@@ -228,35 +213,43 @@ public final class Stats {
     }
 
     public static void pipelineHanding(String name, PipelineStat status, Throwable ex) {
+        pipelineHanding(Properties.metrics.pipeline(name), status, ex);
+    }
+
+    public static void pipelineHanding(PipelineMetrics metrics, PipelineStat status) {
+        pipelineHanding(metrics, status, null);
+    }
+
+    public static void pipelineHanding(PipelineMetrics metrics, PipelineStat status, Throwable ex) {
         switch(status) {
         case FAILURE:
             Stats.newProcessorError((ProcessingException) ex);
-            Properties.metrics.meter(PIPELINECOUNTERS.FAILED.metricName(name)).mark();
+            metrics.failed.mark();
             break;
         case DROP:
             Stats.dropped.incrementAndGet();
-            Properties.metrics.meter(PIPELINECOUNTERS.DROPPED.metricName(name)).mark();
+            metrics.dropped.mark();
             break;
         case EXCEPTION:
             Stats.newUnhandledException(ex);
-            Properties.metrics.counter(PIPELINECOUNTERS.EXCEPTION.metricName(name)).inc();
+            metrics.exception.mark();
             break;
         case LOOPOVERFLOW:
             Stats.loopOverflow.incrementAndGet();
-            Properties.metrics.counter(PIPELINECOUNTERS.LOOPOVERFLOW.metricName(name)).inc();
+            metrics.loopOverflow.inc();
             break;
         case INFLIGHTUP:
-            Properties.metrics.counter(PIPELINECOUNTERS.INFLIGHT.metricName(name)).inc();
+            metrics.inflight.inc();
             break;
         case INFLIGHTDOWN:
-            Properties.metrics.counter(PIPELINECOUNTERS.INFLIGHT.metricName(name)).dec();
+            metrics.inflight.dec();
             break;
         case BLOCKOUT:
             Stats.blocked.incrementAndGet();
-            Properties.metrics.meter(PIPELINECOUNTERS.BLOCKEDOUT.metricName(name)).mark();
+            metrics.blockedOut.mark();
             break;
         case BLOCKIN:
-            Properties.metrics.meter(PIPELINECOUNTERS.BLOCKEDIN.metricName(name)).mark();
+            metrics.blockedIn.mark();
             break;
         }
     }
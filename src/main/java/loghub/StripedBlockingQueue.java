@@ -0,0 +1,244 @@
+package loghub;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A bounded blocking queue split in many stripes, to reduce the contention between producers and consumers.
+ * <p>Each stripe is an {@link ArrayBlockingQueue}, a producer or a consumer start with a random
+ * stripe and steal from the others if needed. A semaphore count the available elements, so consumers
+ * can wait for any stripe, but only the semaphore is shared by all threads, not the locks.</p>
+ * <p>There is no global ordering, only the elements in a stripe are ordered. A single thread will
+ * usually use the same stripe for a bulk insertion.</p>
+ *
+ * @param <E> the type of elements held in this queue
+ */
+public class StripedBlockingQueue<E> extends AbstractQueue<E> implements BlockingQueue<E> {
+
+    // How long a blocked producer wait on a stripe before trying the others again
+    private static final long SPACEWAIT = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final ArrayBlockingQueue<E>[] stripes;
+    private final Semaphore available = new Semaphore(0);
+
+    /**
+     * @param capacity the total capacity, shared between the stripes
+     * @param stripesCount the number of stripes
+     */
+    @SuppressWarnings("unchecked")
+    public StripedBlockingQueue(int capacity, int stripesCount) {
+        if (stripesCount < 1 || capacity < stripesCount) {
+            throw new IllegalArgumentException("Invalid striping: " + stripesCount + " stripes for " + capacity + " elements");
+        }
+        stripes = new ArrayBlockingQueue[stripesCount];
+        // The remainder is spread over the first stripes, so the total is exactly the capacity
+        int stripeCapacity = capacity / stripesCount;
+        int remainder = capacity % stripesCount;
+        for (int i = 0; i < stripesCount; i++) {
+            stripes[i] = new ArrayBlockingQueue<>(stripeCapacity + (i < remainder ? 1 : 0));
+        }
+    }
+
+    private int firstStripe() {
+        return stripes.length == 1 ? 0 : ThreadLocalRandom.current().nextInt(stripes.length);
+    }
+
+    @Override
+    public boolean offer(E e) {
+        int first = firstStripe();
+        for (int i = 0; i < stripes.length; i++) {
+            if (stripes[(first + i) % stripes.length].offer(e)) {
+                available.release();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Offer many elements, with a single notification of the consumers.
+     * @param elements the elements to add
+     * @return the number of elements added, the first ones of the collection
+     */
+    public int offerAll(Collection<? extends E> elements) {
+        int first = firstStripe();
+        int added = 0;
+        int stripe = 0;
+        for (E e: elements) {
+            while (stripe < stripes.length && ! stripes[(first + stripe) % stripes.length].offer(e)) {
+                stripe++;
+            }
+            if (stripe == stripes.length) {
+                break;
+            }
+            added++;
+        }
+        if (added > 0) {
+            available.release(added);
+        }
+        return added;
+    }
+
+    @Override
+    public void put(E e) throws InterruptedException {
+        while (! offer(e)) {
+            // Wait a little on a stripe, the space might come back in any of them
+            if (stripes[firstStripe()].offer(e, SPACEWAIT, TimeUnit.NANOSECONDS)) {
+                available.release();
+                return;
+            }
+        }
+    }
+
+    @Override
+    public boolean offer(E e, long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (! offer(e)) {
+            long wait = Math.min(SPACEWAIT, deadline - System.nanoTime());
+            if (wait <= 0) {
+                return false;
+            } else if (stripes[firstStripe()].offer(e, wait, TimeUnit.NANOSECONDS)) {
+                available.release();
+                return true;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Remove an element, a permit must have been acquired before, so it's sure to find one.
+     * @return an element
+     */
+    private E reserved() {
+        int first = firstStripe();
+        while (true) {
+            for (int i = 0; i < stripes.length; i++) {
+                E e = stripes[(first + i) % stripes.length].poll();
+                if (e != null) {
+                    return e;
+                }
+            }
+            // The element is not yet visible in its stripe
+            Thread.yield();
+        }
+    }
+
+    @Override
+    public E take() throws InterruptedException {
+        available.acquire();
+        return reserved();
+    }
+
+    @Override
+    public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+        if (available.tryAcquire(timeout, unit)) {
+            return reserved();
+        } else {
+            return null;
+        }
+    }
+
+    @Override
+    public E poll() {
+        if (available.tryAcquire()) {
+            return reserved();
+        } else {
+            return null;
+        }
+    }
+
+    @Override
+    public E peek() {
+        int first = firstStripe();
+        for (int i = 0; i < stripes.length; i++) {
+            E e = stripes[(first + i) % stripes.length].peek();
+            if (e != null) {
+                return e;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c) {
+        return drainTo(c, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super E> c, int maxElements) {
+        int reserved = 0;
+        while (reserved < maxElements && available.tryAcquire()) {
+            reserved++;
+        }
+        int first = firstStripe();
+        int drained = 0;
+        while (drained < reserved) {
+            for (int i = 0; i < stripes.length && drained < reserved; i++) {
+                drained += stripes[(first + i) % stripes.length].drainTo(c, reserved - drained);
+            }
+            if (drained < reserved) {
+                Thread.yield();
+            }
+        }
+        return drained;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        if (! available.tryAcquire()) {
+            return false;
+        }
+        for (ArrayBlockingQueue<E> stripe: stripes) {
+            if (stripe.remove(o)) {
+                return true;
+            }
+        }
+        available.release();
+        return false;
+    }
+
+    @Override
+    public void clear() {
+        drainTo(new ArrayList<>());
+    }
+
+    @Override
+    public int remainingCapacity() {
+        int remaining = 0;
+        for (ArrayBlockingQueue<E> stripe: stripes) {
+            remaining += stripe.remainingCapacity();
+        }
+        return remaining;
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (ArrayBlockingQueue<E> stripe: stripes) {
+            size += stripe.size();
+        }
+        return size;
+    }
+
+    /**
+     * A weakly consistent iterator, it doesn't support removal.
+     */
+    @Override
+    public Iterator<E> iterator() {
+        List<E> content = new ArrayList<>(size());
+        for (ArrayBlockingQueue<E> stripe: stripes) {
+            content.addAll(stripe);
+        }
+        return Collections.unmodifiableList(content).iterator();
+    }
+
+}
@@ -412,7 +412,11 @@ public class VarFormatter {
     private static final Logger logger = LogManager.getLogger();
 
     private final Map<Object, Integer> mapper = new LinkedHashMap<>();
-    private final MessageFormat mf;
+    private final String pattern;
+    private final Locale patternLocale;
+    // MessageFormat and the formats it uses are not thread safe, each thread builds it's own instances
+    private final List<Supplier<Format>> formatsFactories;
+    private final ThreadLocal<MessageFormat> localMf = ThreadLocal.withInitial(this::buildFormat);
 
     private ZoneId tz = ZoneId.systemDefault();
     private Locale locale;
@@ -433,15 +437,20 @@ public class VarFormatter {
         locale = l;
         List<String> formats = new ArrayList<>();
         // Convert the pattern to a MessageFormat which is compiled and be reused
-        String pattern = findVariables(new StringBuilder(), format, 0, formats).toString();
+        pattern = findVariables(new StringBuilder(), format, 0, formats).toString();
+        patternLocale = l;
+        MessageFormat mf;
         try {
             mf = new MessageFormat(pattern, l);
         } catch (IllegalArgumentException ex) {
             throw new IllegalArgumentException(String.format("Can'f format %s, locale %s: %s", format, l, ex.getMessage()), ex);
         }
+        formatsFactories = new ArrayList<>(mf.getFormats().length);
         for(int i = 0; i < mf.getFormats().length; i++) {
-            mf.setFormat(i, resolveFormat(formats.get(i)));
+            formatsFactories.add(resolveFormat(formats.get(i)));
         }
+        // Fails early on invalid formats
+        localMf.set(buildFormat());
         if (mapper.size() != 0) {
             mapper.keySet().stream().reduce((i,j) ->  {
                 if (i.getClass() != j.getClass()) {
@@ -504,7 +513,19 @@ public class VarFormatter {
                 }
             }
         }
-        return mf.format(resolved, new StringBuffer(), new FieldPosition(0)).toString();
+        return localMf.get().format(resolved, new StringBuffer(), new FieldPosition(0)).toString();
+    }
+
+    /**
+     * MessageFormat.clone() only make shallow copies of custom formats, so the
+     * formats are built again instead.
+     */
+    private MessageFormat buildFormat() {
+        MessageFormat mf = new MessageFormat(pattern, patternLocale);
+        for(int i = 0; i < formatsFactories.size(); i++) {
+            mf.setFormat(i, formatsFactories.get(i).get());
+        }
+        return mf;
     }
 
     private Object checkIsArray(Object arg) {
@@ -580,7 +601,7 @@ public class VarFormatter {
         return buffer;
     }
 
-    private Format resolveFormat(String format) {
+    private Supplier<Format> resolveFormat(String format) {
         Matcher m = formatSpecifier.matcher(format);
         if(m.matches()) {
             String localeStr = m.group("locale");
@@ -620,22 +641,24 @@ public class VarFormatter {
             boolean isUpper = conversionStr.toUpperCase(locale).equals(conversionStr);
             char conversion = conversionStr.toLowerCase(locale).charAt(0);
 
+            // The resolution might change the locale for the next formats
+            final Locale l = locale;
             final Function<String, String> cut = i -> precision < 0 ? i : i.substring(0, precision);
             switch(conversion) {
-            case 'b': return new NonParsingFormat(Locale.getDefault(), isUpper, i -> cut.apply(i == null ? "false" : (i instanceof Boolean) ? i.toString() : "true"));
-            case 's': return new NonParsingFormat(Locale.getDefault(), isUpper, i -> cut.apply(i.toString()) );
-            case 'h': return new NonParsingFormat(Locale.getDefault(), isUpper, i -> cut.apply(i == null ? "null" : Integer.toHexString(i.hashCode())));
-            case 'c': return new NonParsingFormat(Locale.getDefault(), isUpper, i -> (i instanceof Character) ? i.toString() : "null");
-            case 'd': {Format f = numberFormat(locale, conversion, flags, true, length, precision, isUpper); return new NonParsingFormat(locale, false, i -> f.format(i));}
-            case 'o': return new NonDecimalFormat(locale, 8, isUpper, flags, precision);
-            case 'x': return new NonDecimalFormat(locale, 16, isUpper, flags, precision);
-            case 'e': {Format f = numberFormat(locale, conversion, flags, false, length, precision, isUpper); return new NonParsingFormat(locale, false, i -> f.format(i));}
-            case 'f': {Format f = numberFormat(locale, conversion, flags, false, length, precision, isUpper); return new NonParsingFormat(locale, false, i -> f.format(i));}
-            case 'g': {Format f = numberFormat(locale, conversion, flags, false, length, precision, isUpper); return new NonParsingFormat(locale, false, i -> f.format(i));}
-            case 'a': {Format f = numberFormat(locale, conversion, flags, false, length, precision, isUpper); return new NonParsingFormat(locale, false, i -> f.format(i));}
-            case 't': return new ExtendedDateFormat(locale, timeFormat, tz, isUpper);
-            case '%': return new NonParsingFormat(Locale.getDefault(), false, i -> "%");
-            case 'n': return new NonParsingFormat(Locale.getDefault(), false, i -> lineseparator);
+            case 'b': return () -> new NonParsingFormat(Locale.getDefault(), isUpper, i -> cut.apply(i == null ? "false" : (i instanceof Boolean) ? i.toString() : "true"));
+            case 's': return () -> new NonParsingFormat(Locale.getDefault(), isUpper, i -> cut.apply(i.toString()) );
+            case 'h': return () -> new NonParsingFormat(Locale.getDefault(), isUpper, i -> cut.apply(i == null ? "null" : Integer.toHexString(i.hashCode())));
+            case 'c': return () -> new NonParsingFormat(Locale.getDefault(), isUpper, i -> (i instanceof Character) ? i.toString() : "null");
+            case 'd': return () -> {Format f = numberFormat(l, conversion, flags, true, length, precision, isUpper); return new NonParsingFormat(l, false, i -> f.format(i));};
+            case 'o': return () -> new NonDecimalFormat(l, 8, isUpper, flags, precision);
+            case 'x': return () -> new NonDecimalFormat(l, 16, isUpper, flags, precision);
+            case 'e': return () -> {Format f = numberFormat(l, conversion, flags, false, length, precision, isUpper); return new NonParsingFormat(l, false, i -> f.format(i));};
+            case 'f': return () -> {Format f = numberFormat(l, conversion, flags, false, length, precision, isUpper); return new NonParsingFormat(l, false, i -> f.format(i));};
+            case 'g': return () -> {Format f = numberFormat(l, conversion, flags, false, length, precision, isUpper); return new NonParsingFormat(l, false, i -> f.format(i));};
+            case 'a': return () -> {Format f = numberFormat(l, conversion, flags, false, length, precision, isUpper); return new NonParsingFormat(l, false, i -> f.format(i));};
+            case 't': return () -> new ExtendedDateFormat(l, timeFormat, tz, isUpper);
+            case '%': return () -> new NonParsingFormat(Locale.getDefault(), false, i -> "%");
+            case 'n': return () -> new NonParsingFormat(Locale.getDefault(), false, i -> lineseparator);
             default: throw new IllegalArgumentException("Invalid format specifier: " + format);
             }
         } else {
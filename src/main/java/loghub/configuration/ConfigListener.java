@@ -19,12 +19,14 @@ import org.antlr.v4.runtime.Parser;
 import org.antlr.v4.runtime.ParserRuleContext;
 import org.antlr.v4.runtime.RecognitionException;
 import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.tree.ParseTreeProperty;
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import loghub.AbstractBuilder;
 import loghub.Event;
+import loghub.Expression;
 import loghub.Helpers;
 import loghub.Pipeline;
 import loghub.Processor;
@@ -192,11 +194,14 @@ class ConfigListener extends RouteBaseListener {
     final List<Output> outputs = new ArrayList<>();
     final Map<String, Object> properties = new HashMap<>();
     final Map<String, VarFormatter> formatters = new HashMap<>();
+    final Map<String, Expression.Lambda> compiledExpressions = new HashMap<>();
     final Map<String, SourceProvider> sources = new HashMap<>();
     final Set<String> outputPipelines = new HashSet<>();
 
     private String currentPipeLineName = null;
     private int expressionDepth = 0;
+    // The native version of each expression node, null if Groovy is needed
+    private final ParseTreeProperty<Expression.Lambda> lambdas = new ParseTreeProperty<>();
 
     private Set<String> lockedProperties = new HashSet<>();
 
@@ -830,6 +835,7 @@ class ConfigListener extends RouteBaseListener {
     @Override
     public void exitExpression(ExpressionContext ctx) {
         String expression = null;
+        Expression.Lambda lambda = null;
         if(ctx.sl != null) {
             String format = ctx.sl.getText();
             String key = "h_" + Integer.toHexString(format.hashCode());
@@ -843,18 +849,24 @@ class ConfigListener extends RouteBaseListener {
             if (ctx.expressionsList() != null) {
                 subexpression = (String) stack.pop();
                 expression = String.format("formatters.%s.format(%s)", key, subexpression);
+                lambda = ExpressionLambdas.format(formatters.get(key), ctx.expressionsList().expression().stream().map(lambdas::get).collect(Collectors.toList()));
             } else {
                 expression = String.format("formatters.%s.format(event)", key);
+                lambda = ExpressionLambdas.format(formatters.get(key));
             }
         } else if (ctx.l != null) {
             expression = ctx.l.getText();
+            lambda = ExpressionLambdas.literal(expression);
         } else if (ctx.ev != null && ctx.ev.MetaName() != null) {
-            expression = "event.getMeta(\"" + ctx.ev.MetaName().getText().substring(1) + "\")";
+            String metaName = ctx.ev.MetaName().getText().substring(1);
+            expression = "event.getMeta(\"" + metaName + "\")";
+            lambda = ExpressionLambdas.meta(metaName);
         } else if (ctx.ev != null) {
             StringBuilder buffer = new StringBuilder("event");
             String[] path = convertEventVariable(ctx.ev);
             if (Event.TIMESTAMPKEY.equals(path[0])) {
                 buffer.append(".getTimestamp()");
+                lambda = ExpressionLambdas.timestamp();
             } else if (Event.CONTEXTKEY.equals(path[0])) {
                 buffer.append(".getConnectionContext()");
                 Arrays.stream(path, 1, path.length).forEach( i-> {
@@ -867,6 +879,7 @@ class ConfigListener extends RouteBaseListener {
                               .collect(Collectors.joining(","))
                                 );
                 buffer.append(")");
+                lambda = ExpressionLambdas.path(path);
             }
             expression = buffer.toString();
         } else if (ctx.qi != null) {
@@ -875,41 +888,75 @@ class ConfigListener extends RouteBaseListener {
             String opu = ctx.opu.getText();
             opu = ".~".equals(opu) ? "~" : opu;
             expression = opu + " " + stack.pop();
+            lambda = ctx.e2.opb != null ? null : ExpressionLambdas.unary(opu, lambdas.get(ctx.e2));
         } else if (ctx.opm != null) {
             Object pre = stack.pop();
             expression = pre + " " + ctx.opm.getText() + " " + ctx.patternLiteral().getText();
+            // Groovy gives a higher precedence to the match than to the binary operators
+            lambda = ctx.e1.opb != null ? null : ExpressionLambdas.match(ctx.opm.getText(), lambdas.get(ctx.e1), ctx.patternLiteral().getText());
             if ("=~".equals(ctx.opm.getText())) {
                 expression = String.format("(((%s)?:[])[0]?:[])", expression);
             }
         } else if (ctx.opb != null) {
-            String opb = ctx.opb.getText();
-            // because of use of | as a pipe symbol, it can't be used for the binary 'or'
-            // So for users simplicity and consistency, all binary operators are prefixed by a '.'
-            // but then it must be removed for groovy
-            if(opb.length() == 2 && opb.startsWith(".")) {
-                opb = opb.substring(1);
-            }
+            String opb = groovyOperator(ctx);
             Object post = stack.pop();
             Object pre = stack.pop();
             expression = pre + " " + opb + " " + post;
+            // The parser gives the same precedence to all the binary operators, but Groovy will parse the
+            // flattened text with its own precedences, so the native version is built from the whole chain
+            List<Expression.Lambda> operands = new ArrayList<>();
+            List<String> operators = new ArrayList<>();
+            flattenBinary(ctx, operands, operators);
+            lambda = ExpressionLambdas.binary(operands, operators);
         } else if (ctx.e3 != null) {
             Object subexpression = stack.pop();
             expression = "(" + subexpression + ")";
+            lambda = lambdas.get(ctx.e3);
         } else if (ctx.newclass != null) {
             Object subexpression = stack.pop();
             expression = String.format("new %s(%s)", ctx.newclass.getText(), subexpression);
         } else if (ctx.arrayIndex != null) {
             Object subexpression = stack.pop();
             expression = String.format("%s[%s]", subexpression, ctx.arrayIndex.getText());
+            lambda = ctx.expression(0).opb != null ? null : ExpressionLambdas.index(lambdas.get(ctx.expression(0)), ctx.arrayIndex.getText());
         }
+        lambdas.put(ctx, lambda);
         expressionDepth--;
         if(expressionDepth == 0) {
+            if (lambda != null) {
+                compiledExpressions.put(expression, lambda);
+            }
             stack.push( new ObjectWrapped<String>(expression));
         } else {
             stack.push(expression);
         }
     }
 
+    private String groovyOperator(ExpressionContext ctx) {
+        String opb = ctx.opb.getText();
+        // because of use of | as a pipe symbol, it can't be used for the binary 'or'
+        // So for users simplicity and consistency, all binary operators are prefixed by a '.'
+        // but then it must be removed for groovy
+        if(opb.length() == 2 && opb.startsWith(".")) {
+            opb = opb.substring(1);
+        }
+        return opb;
+    }
+
+    /**
+     * Collect the operands and the operators of a chain of binary operators without parenthesis,
+     * in the order of the text given to Groovy.
+     */
+    private void flattenBinary(ExpressionContext ctx, List<Expression.Lambda> operands, List<String> operators) {
+        if (ctx.opb != null) {
+            flattenBinary(ctx.e1, operands, operators);
+            operators.add(groovyOperator(ctx));
+            flattenBinary(ctx.e2, operands, operators);
+        } else {
+            operands.add(lambdas.get(ctx));
+        }
+    }
+
     /**
      * @param topLevelConfigFile the topLevelConfigFile to set
      */
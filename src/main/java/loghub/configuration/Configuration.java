@@ -30,6 +30,7 @@ import java.util.Set;
 import java.util.TimeZone;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.stream.Collectors;
@@ -45,6 +46,7 @@ import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.core.LoggerContext;
 
 import loghub.Event;
+import loghub.Helpers;
 import loghub.Helpers.ThrowingConsumer;
 import loghub.Helpers.ThrowingPredicate;
 import loghub.Pipeline;
@@ -57,7 +59,10 @@ import loghub.RouteParser.LiteralContext;
 import loghub.RouteParser.PropertyContext;
 import loghub.RouteParser.SourcedefContext;
 import loghub.RouteParser.SourcesContext;
+import loghub.ShardedBlockingQueue;
+import loghub.SpoolBlockingQueue;
 import loghub.Source;
+import loghub.StripedBlockingQueue;
 import loghub.configuration.ConfigListener.Input;
 import loghub.configuration.ConfigListener.Output;
 import loghub.receivers.Receiver;
@@ -352,11 +357,17 @@ public class Configuration {
         final int queuesDepth = newProperties.containsKey("queueDepth") ? (Integer) newProperties.remove("queueDepth") : DEFAULTQUEUEDEPTH;
         newProperties.put(Properties.PROPSNAMES.QUEUESDEPTH.toString(), queuesDepth);
 
-        BlockingQueue<Event> mainQueue = new ArrayBlockingQueue<Event>(queuesDepth);
+        BlockingQueue<Event> mainQueue = buildMainQueue(newProperties, queuesDepth);
         Map<String, BlockingQueue<Event>> outputQueues = new HashMap<>(namedPipeLine.size());
-        conf.outputPipelines.forEach( i-> outputQueues.put(i, new ArrayBlockingQueue<Event>(queuesDepth)));
+        Map<String, Object> spoolProperties = new HashMap<>();
+        newProperties.keySet().stream().filter(i -> i.startsWith("spool.")).collect(Collectors.toList())
+                     .forEach(i -> spoolProperties.put(i.substring(6), newProperties.remove(i)));
+        for (String i: conf.outputPipelines) {
+            outputQueues.put(i, buildOutputQueue(i, queuesDepth, spoolProperties));
+        }
 
         newProperties.put(Properties.PROPSNAMES.FORMATTERS.toString(), conf.formatters);
+        newProperties.put(Properties.PROPSNAMES.EXPRESSIONS.toString(), conf.compiledExpressions);
         newProperties.put(Properties.PROPSNAMES.MAINQUEUE.toString(), mainQueue);
         newProperties.put(Properties.PROPSNAMES.OUTPUTQUEUE.toString(), outputQueues);
 
@@ -479,4 +490,76 @@ public class Configuration {
         }
     }
 
+    /**
+     * Build the main queue, using the type given by the property <code>queueType</code>
+     * <ul>
+     * <li><code>array</code>, the default, a single lock {@link ArrayBlockingQueue}</li>
+     * <li><code>linked</code>, a {@link LinkedBlockingQueue}, with separate locks for producers and consumers</li>
+     * <li><code>striped</code>, a {@link StripedBlockingQueue}, the number of stripes is given by <code>queueStripes</code></li>
+     * <li><code>sharded</code>, a {@link ShardedBlockingQueue}, with a shard for each worker. An idle worker will steal events
+     * from other shards if <code>queueStealing</code> is true. The key is given by <code>shardingKey</code>, see {@link Properties}</li>
+     * </ul>
+     * @param properties the properties
+     * @param queuesDepth the queue capacity
+     * @return the main queue
+     * @throws ConfigException if the queue type is unknown
+     */
+    private BlockingQueue<Event> buildMainQueue(Map<String, Object> properties, int queuesDepth) throws ConfigException {
+        String queueType = properties.containsKey("queueType") ? properties.remove("queueType").toString() : "array";
+        switch (queueType) {
+        case "array":
+            return new ArrayBlockingQueue<Event>(queuesDepth);
+        case "linked":
+            return new LinkedBlockingQueue<Event>(queuesDepth);
+        case "striped": {
+            int stripes = properties.containsKey("queueStripes") ? (Integer) properties.remove("queueStripes") : Runtime.getRuntime().availableProcessors();
+            return new StripedBlockingQueue<Event>(queuesDepth, Math.max(1, Math.min(stripes, queuesDepth)));
+        }
+        case "sharded": {
+            // Same default as in Properties
+            int shards = properties.containsKey("numWorkers") ? (Integer) properties.get("numWorkers") : Runtime.getRuntime().availableProcessors() * 2;
+            boolean stealing = Boolean.TRUE.equals(properties.remove("queueStealing"));
+            return new ShardedBlockingQueue<Event>(queuesDepth, Math.max(1, Math.min(shards, queuesDepth)), stealing);
+        }
+        default:
+            throw new ConfigException("Unknown main queue type: " + queueType);
+        }
+    }
+
+    /**
+     * Build an output queue. If the property <code>spool.directory</code> is set, it's a {@link SpoolBlockingQueue}
+     * in a sub-directory named after the pipeline, unless <code>spool.pipelines</code> is set and doesn't list this pipeline.
+     * The others properties are:
+     * <ul>
+     * <li><code>spool.maxBytes</code>, the maximum disk usage for each output, default to 1 GiB</li>
+     * <li><code>spool.segmentSize</code>, the size of each segment file, default to 64 MiB</li>
+     * <li><code>spool.fsync</code>, one of never, segment or always, default to segment</li>
+     * </ul>
+     * @param name the output pipeline
+     * @param queuesDepth the queue capacity, in memory
+     * @param spoolProperties the spool properties, without the prefix
+     * @return the output queue
+     * @throws ConfigException if the spool is not usable
+     */
+    private BlockingQueue<Event> buildOutputQueue(String name, int queuesDepth, Map<String, Object> spoolProperties) throws ConfigException {
+        Object directory = spoolProperties.get("directory");
+        Object pipelines = spoolProperties.get("pipelines");
+        if (directory == null || (pipelines != null && ! Arrays.asList(pipelines instanceof Object[] ? (Object[]) pipelines : new Object[] {pipelines}).contains(name))) {
+            return new ArrayBlockingQueue<Event>(queuesDepth);
+        }
+        long maxBytes = ((Number) spoolProperties.getOrDefault("maxBytes", 1L << 30)).longValue();
+        long segmentSize = ((Number) spoolProperties.getOrDefault("segmentSize", 64L << 20)).longValue();
+        SpoolBlockingQueue.FsyncPolicy fsync;
+        try {
+            fsync = SpoolBlockingQueue.FsyncPolicy.valueOf(spoolProperties.getOrDefault("fsync", "segment").toString().toUpperCase(Locale.ENGLISH));
+        } catch (IllegalArgumentException e) {
+            throw new ConfigException("Unknown fsync policy: " + spoolProperties.get("fsync"));
+        }
+        try {
+            return new SpoolBlockingQueue(name, queuesDepth, Paths.get(directory.toString(), name), maxBytes, segmentSize, fsync);
+        } catch (IOException e) {
+            throw new ConfigException("Unusable spool for output " + name + ": " + Helpers.resolveThrowableException(e), e);
+        }
+    }
+
 }
@@ -0,0 +1,253 @@
+package loghub.configuration;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.codehaus.groovy.runtime.DefaultGroovyMethods;
+import org.codehaus.groovy.runtime.InvokerHelper;
+import org.codehaus.groovy.runtime.ScriptBytecodeAdapter;
+import org.codehaus.groovy.runtime.StringGroovyMethods;
+import org.codehaus.groovy.runtime.dgmimpl.NumberNumberPlus;
+import org.codehaus.groovy.runtime.typehandling.DefaultTypeTransformation;
+
+import loghub.Event;
+import loghub.Expression.Lambda;
+import loghub.VarFormatter;
+
+/**
+ * Build the native nodes for the subset of the expressions that don't need Groovy.
+ * <p>Each method return null when the given arguments can't be compiled, then the
+ * Groovy script generated by {@link ConfigListener} is used instead. The values are
+ * compared and combined using the static helpers from the Groovy runtime, so the
+ * result is the same than the Groovy script, without the dynamic dispatch.</p>
+ *
+ */
+final class ExpressionLambdas {
+
+    private static final Pattern DECIMALINTEGER = Pattern.compile("0|[1-9][0-9]*");
+
+    private ExpressionLambdas() {
+    }
+
+    static Lambda literal(String text) {
+        if ("null".equals(text)) {
+            return e -> null;
+        } else if ("true".equals(text)) {
+            return e -> Boolean.TRUE;
+        } else if ("false".equals(text)) {
+            return e -> Boolean.FALSE;
+        } else if (DECIMALINTEGER.matcher(text).matches()) {
+            try {
+                Integer value = Integer.valueOf(text);
+                return e -> value;
+            } catch (NumberFormatException ex) {
+                // Too big for an Integer, Groovy will find the right type
+                return null;
+            }
+        } else {
+            return null;
+        }
+    }
+
+    static Lambda path(String[] path) {
+        return e -> e.getPath(path);
+    }
+
+    static Lambda timestamp() {
+        return Event::getTimestamp;
+    }
+
+    static Lambda meta(String name) {
+        return e -> e.getMeta(name);
+    }
+
+    static Lambda format(VarFormatter formatter) {
+        return formatter::format;
+    }
+
+    static Lambda format(VarFormatter formatter, List<Lambda> arguments) {
+        if (arguments.contains(null)) {
+            return null;
+        }
+        Lambda[] args = arguments.toArray(new Lambda[arguments.size()]);
+        return e -> {
+            List<Object> values = new ArrayList<>(args.length);
+            for (Lambda l: args) {
+                values.add(l.apply(e));
+            }
+            return formatter.format(values);
+        };
+    }
+
+    static Lambda unary(String op, Lambda arg) {
+        if (arg == null) {
+            return null;
+        } else if ("!".equals(op)) {
+            return e -> ! DefaultTypeTransformation.castToBoolean(arg.apply(e));
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Compile a chain of binary operators, using the Groovy precedences.
+     * @param operands the operands, one more than the operators
+     * @param operators the operators between the operands
+     * @return the compiled chain or null
+     */
+    static Lambda binary(List<Lambda> operands, List<String> operators) {
+        if (operands.contains(null)) {
+            return null;
+        }
+        Deque<Lambda> values = new ArrayDeque<>(operands.size());
+        Deque<String> pending = new ArrayDeque<>(operators.size());
+        values.push(operands.get(0));
+        for (int i = 0; i < operators.size(); i++) {
+            String op = operators.get(i);
+            int precedence = precedence(op);
+            if (precedence < 0) {
+                return null;
+            }
+            // All the compiled operators are left associative
+            while (! pending.isEmpty() && precedence(pending.peek()) >= precedence) {
+                reduce(values, pending);
+            }
+            pending.push(op);
+            values.push(operands.get(i + 1));
+        }
+        while (! pending.isEmpty()) {
+            reduce(values, pending);
+        }
+        return values.pop();
+    }
+
+    private static void reduce(Deque<Lambda> values, Deque<String> pending) {
+        Lambda post = values.pop();
+        Lambda pre = values.pop();
+        values.push(binary(pending.pop(), pre, post));
+    }
+
+    /**
+     * @return the Groovy precedence of a compiled operator, a bigger value binds tighter, or -1 if it's not compiled
+     */
+    private static int precedence(String op) {
+        switch (op) {
+        case "+":
+            return 5;
+        case "<":
+        case "<=":
+        case ">":
+        case ">=":
+            return 4;
+        case "==":
+        case "!=":
+            return 3;
+        case "&&":
+            return 2;
+        case "||":
+            return 1;
+        default:
+            return -1;
+        }
+    }
+
+    private static Lambda binary(String op, Lambda pre, Lambda post) {
+        if (pre == null || post == null) {
+            return null;
+        }
+        switch (op) {
+        case "==":
+            return e -> ScriptBytecodeAdapter.compareEqual(pre.apply(e), post.apply(e));
+        case "!=":
+            return e -> ScriptBytecodeAdapter.compareNotEqual(pre.apply(e), post.apply(e));
+        case "<":
+            return e -> ScriptBytecodeAdapter.compareLessThan(pre.apply(e), post.apply(e));
+        case "<=":
+            return e -> ScriptBytecodeAdapter.compareLessThanEqual(pre.apply(e), post.apply(e));
+        case ">":
+            return e -> ScriptBytecodeAdapter.compareGreaterThan(pre.apply(e), post.apply(e));
+        case ">=":
+            return e -> ScriptBytecodeAdapter.compareGreaterThanEqual(pre.apply(e), post.apply(e));
+        case "&&":
+            return e -> DefaultTypeTransformation.castToBoolean(pre.apply(e)) && DefaultTypeTransformation.castToBoolean(post.apply(e));
+        case "||":
+            return e -> DefaultTypeTransformation.castToBoolean(pre.apply(e)) || DefaultTypeTransformation.castToBoolean(post.apply(e));
+        case "+":
+            return e -> plus(pre.apply(e), post.apply(e));
+        default:
+            return null;
+        }
+    }
+
+    private static Object plus(Object left, Object right) {
+        if (left instanceof String) {
+            return StringGroovyMethods.plus((String) left, right);
+        } else if (left instanceof Number && right instanceof Number) {
+            return NumberNumberPlus.plus((Number) left, (Number) right);
+        } else {
+            return InvokerHelper.invokeMethod(left, "plus", right);
+        }
+    }
+
+    /**
+     * Compile a match operator, the pattern is the slashy string from the configuration
+     * @param op the operator, <code>=~</code> or <code>==~</code>
+     * @param arg the value to match
+     * @param patternLiteral the pattern, with the enclosing /
+     * @return the compiled match or null
+     */
+    static Lambda match(String op, Lambda arg, String patternLiteral) {
+        // A $ in a slashy string might be a Groovy interpolation
+        if (arg == null || patternLiteral.indexOf('$') >= 0) {
+            return null;
+        }
+        Pattern pattern;
+        try {
+            pattern = Pattern.compile(patternLiteral.substring(1, patternLiteral.length() - 1).replace("\\/", "/"));
+        } catch (PatternSyntaxException ex) {
+            // Let Groovy report the error
+            return null;
+        }
+        if ("==~".equals(op)) {
+            return e -> InvokerHelper.matchRegex(arg.apply(e), pattern);
+        } else if ("=~".equals(op)) {
+            // Same as (((value =~ pattern)?:[])[0]?:[]) in Groovy
+            return e -> {
+                Matcher m = InvokerHelper.findRegex(arg.apply(e), pattern);
+                if (! DefaultTypeTransformation.castToBoolean(m)) {
+                    return new ArrayList<Object>();
+                }
+                Object found = StringGroovyMethods.getAt(m, 0);
+                return DefaultTypeTransformation.castToBoolean(found) ? found : new ArrayList<Object>();
+            };
+        } else {
+            return null;
+        }
+    }
+
+    static Lambda index(Lambda arg, String indexLiteral) {
+        if (arg == null || ! DECIMALINTEGER.matcher(indexLiteral).matches()) {
+            return null;
+        }
+        int index;
+        try {
+            index = Integer.parseInt(indexLiteral);
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+        return e -> {
+            Object value = arg.apply(e);
+            if (value instanceof List) {
+                return DefaultGroovyMethods.getAt((List<?>) value, index);
+            } else {
+                return InvokerHelper.invokeMethod(value, "getAt", index);
+            }
+        };
+    }
+
+}
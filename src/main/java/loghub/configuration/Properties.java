@@ -3,7 +3,6 @@ package loghub.configuration;
 import java.nio.file.Paths;
 import java.security.NoSuchAlgorithmException;
 import java.security.URIParameter;
-import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -11,6 +10,7 @@ import java.util.Map;
 import java.util.Timer;
 import java.util.TimerTask;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingDeque;
 import java.util.function.BiFunction;
 import java.util.function.Function;
@@ -24,6 +24,7 @@ import javax.net.ssl.SSLContext;
 
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.core.LoggerContext;
 
 import com.codahale.metrics.Counter;
@@ -37,9 +38,13 @@ import io.netty.util.concurrent.Future;
 import loghub.DashboardHttpServer;
 import loghub.Event;
 import loghub.EventsRepository;
+import loghub.Expression;
+import loghub.Expression.ExpressionException;
 import loghub.Helpers;
 import loghub.Pipeline;
 import loghub.Processor;
+import loghub.ProcessorException;
+import loghub.ShardedBlockingQueue;
 import loghub.Source;
 import loghub.Stats;
 import loghub.ThreadBuilder;
@@ -56,7 +61,25 @@ import loghub.zmq.ZMQSocketFactory;
 public class Properties extends HashMap<String, Object> {
 
     public static final class MetricRegistryWrapper {
-        private MetricRegistry metrics = new MetricRegistry();
+        /**
+         * The metrics shared by all events, resolved once for each registry
+         */
+        private static final class EventsMetrics {
+            private final com.codahale.metrics.Timer timer;
+            private final Counter inflight;
+            private final Histogram steps;
+            private final Meter failed;
+            private EventsMetrics(MetricRegistry metrics) {
+                timer = metrics.timer("Allevents.timer");
+                inflight = metrics.counter("Allevents.inflight");
+                steps = metrics.histogram("Steps");
+                failed = metrics.meter("Allevents.failed");
+            }
+        }
+
+        private volatile MetricRegistry metrics = new MetricRegistry();
+        private volatile EventsMetrics eventsMetrics = new EventsMetrics(metrics);
+        private final Map<String, Stats.PipelineMetrics> pipelinesMetrics = new ConcurrentHashMap<>();
 
         public Counter counter(String name) {
             return metrics.counter(name);
@@ -74,18 +97,50 @@ public class Properties extends HashMap<String, Object> {
             return metrics.timer(name);
         }
 
+        /**
+         * Return the resolved metrics for a pipeline, they are created if needed.
+         * @param name the pipeline name
+         * @return the pipeline's metrics
+         */
+        public Stats.PipelineMetrics pipeline(String name) {
+            // A null name is possible for a event without any pipeline
+            return pipelinesMetrics.computeIfAbsent(String.valueOf(name), n -> new Stats.PipelineMetrics(metrics, n));
+        }
+
+        public com.codahale.metrics.Timer allEventsTimer() {
+            return eventsMetrics.timer;
+        }
+
+        public Counter allEventsInflight() {
+            return eventsMetrics.inflight;
+        }
+
+        public Histogram steps() {
+            return eventsMetrics.steps;
+        }
+
+        public Meter allEventsFailed() {
+            return eventsMetrics.failed;
+        }
+
         public void reset() {
-            metrics = new MetricRegistry();
+            MetricRegistry newMetrics = new MetricRegistry();
+            metrics = newMetrics;
+            eventsMetrics = new EventsMetrics(newMetrics);
+            pipelinesMetrics.clear();
             JmxService.stopMetrics();
         }
     };
 
     public static final MetricRegistryWrapper metrics = new MetricRegistryWrapper();
 
+    private static final Logger logger = LogManager.getLogger();
+
     enum PROPSNAMES {
         CLASSLOADERNAME,
         NAMEDPIPELINES,
         FORMATTERS,
+        EXPRESSIONS,
         MAINQUEUE,
         OUTPUTQUEUE,
         QUEUESDEPTH,
@@ -108,12 +163,15 @@ public class Properties extends HashMap<String, Object> {
     public final Map<String, Source> sources;
     public final GroovyClassLoader groovyClassLoader;
     public final Map<String, VarFormatter> formatters;
+    public final Map<String, Expression.Lambda> compiledExpressions;
     public final JmxService.Configuration jmxServiceConfiguration;
     public final int numWorkers;
+    public final int workerBatchSize;
     public final BlockingQueue<Event> mainQueue;
     public final Map<String, BlockingQueue<Event>> outputQueues;
     public final int queuesDepth;
     public final int maxSteps;
+    public final boolean forkCopyOnWrite;
     public final EventsRepository<Future<?>> repository;
     public final SSLContext ssl;
     public final javax.security.auth.login.Configuration jaasConfig;
@@ -170,13 +228,14 @@ public class Properties extends HashMap<String, Object> {
             formatters = Collections.emptyMap();
         }
 
+        if (properties.containsKey(PROPSNAMES.EXPRESSIONS.toString())) {
+            compiledExpressions = Collections.unmodifiableMap((Map<String, Expression.Lambda>) properties.remove(PROPSNAMES.EXPRESSIONS.toString()));
+        } else {
+            compiledExpressions = Collections.emptyMap();
+        }
+
         // Extracts all the named pipelines and generate metrics for them
-        namedPipeLine.keySet().stream().forEach( i -> {
-            Arrays.stream(Stats.PIPELINECOUNTERS.values()).forEach( j -> j.instanciate(metrics.metrics, i));
-        });
-        metrics.counter("Allevents.inflight");
-        metrics.timer("Allevents.timer");
-        metrics.histogram("Steps");
+        namedPipeLine.keySet().stream().forEach(metrics::pipeline);
         cacheManager = new CacheManager(this);
 
         if (properties.containsKey("numWorkers")) {
@@ -185,12 +244,24 @@ public class Properties extends HashMap<String, Object> {
             numWorkers = Runtime.getRuntime().availableProcessors() * 2;
         }
 
+        if (properties.containsKey("workerBatchSize")) {
+            workerBatchSize = (Integer) properties.remove("workerBatchSize");
+        } else {
+            workerBatchSize = 16;
+        }
+
+        if (properties.containsKey("errorsSampling")) {
+            Stats.setErrorsSampling((Integer) properties.remove("errorsSampling"));
+        }
+
         if (properties.containsKey("maxSteps")) {
             maxSteps = (Integer) properties.remove("maxSteps");
         } else {
             maxSteps = 128;
         }
 
+        forkCopyOnWrite = Boolean.TRUE.equals(properties.remove("forkCopyOnWrite"));
+
         ssl = ContextLoader.build(properties.entrySet().stream().filter(i -> i.getKey().startsWith("ssl.")).collect(Collectors.toMap( i -> i.getKey().substring(4), j -> j.getValue())));
 
         jwtHandler = buildJwtAlgorithm(filterPrefix(properties, "jwt"));
@@ -235,6 +306,10 @@ public class Properties extends HashMap<String, Object> {
         queuesDepth = properties.containsKey(PROPSNAMES.QUEUESDEPTH.toString()) ? (int) properties.remove(PROPSNAMES.QUEUESDEPTH.toString()) : 0;
         mainQueue = properties.containsKey(PROPSNAMES.MAINQUEUE.toString()) ? (BlockingQueue<Event>) properties.remove(PROPSNAMES.MAINQUEUE.toString()) :  new LinkedBlockingDeque<Event>();;
         outputQueues = properties.containsKey(PROPSNAMES.OUTPUTQUEUE.toString()) ? (Map<String, BlockingQueue<Event>>) properties.remove(PROPSNAMES.OUTPUTQUEUE.toString()) : null;
+        Object shardingKey = properties.remove("shardingKey");
+        if (mainQueue instanceof ShardedBlockingQueue) {
+            ((ShardedBlockingQueue<Event>) mainQueue).setKey(buildShardingKey(shardingKey));
+        }
 
         metrics.metrics.register(
                                  "EventWaiting.mainloop",
@@ -265,6 +340,43 @@ public class Properties extends HashMap<String, Object> {
         super.putAll(properties);
     }
 
+    /**
+     * Build the function used to shard the main queue
+     * <ul>
+     * <li><code>connection</code>, the default, the events from the same remote address are kept together</li>
+     * <li><code>pipeline</code>, the events from the same input pipeline, so from the same receivers, are kept together</li>
+     * <li>any other value is a Groovy expression, the events with the same value are kept together</li>
+     * </ul>
+     * <p>The events without a key, like those without a remote address, are spread over all the shards. A failed
+     * expression is counted in the <code>Sharding.failed</code> meter.</p>
+     * @param shardingKey the sharding key type
+     * @return the sharding function
+     */
+    private Function<Event, Object> buildShardingKey(Object shardingKey) {
+        String keyType = shardingKey == null ? "connection" : shardingKey.toString();
+        switch (keyType) {
+        case "connection":
+            return e -> e.getConnectionContext().getRemoteAddress();
+        case "pipeline":
+            return e -> e.getCurrentPipeline();
+        default:
+            try {
+                Expression expression = new Expression(keyType, this);
+                return e -> {
+                    try {
+                        return expression.eval(e);
+                    } catch (ProcessorException ex) {
+                        metrics.meter("Sharding.failed").mark();
+                        logger.debug("Sharding key failed: {}", () -> Helpers.resolveThrowableException(ex));
+                        return null;
+                    }
+                };
+            } catch (ExpressionException ex) {
+                throw new ConfigException("Invalid sharding key: " + keyType, ex);
+            }
+        }
+    }
+
     private JWTHandler buildJwtAlgorithm(Map<String, Object> properties) {
         Function<Object, String> stringOrNull = k -> (properties.get(k) != null ) ? properties.get(k) .toString() : null;
         return JWTHandler.getBuilder()
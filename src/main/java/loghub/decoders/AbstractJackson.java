@@ -34,9 +34,14 @@ public abstract class AbstractJackson extends Decoder {
 
     @Override
     public Object decodeObject(ConnectionContext<?> ctx, ByteBuf bbuf) throws DecodeException {
-        return runDecodeJackson(ctx, reader -> reader.readValue((InputStream)new ByteBufInputStream(bbuf)));
+        if (bbuf.hasArray()) {
+            return runDecodeJackson(ctx, reader -> reader.readValue(bbuf.array(), bbuf.arrayOffset() + bbuf.readerIndex(), bbuf.readableBytes()));
+        } else {
+            // Jackson can't parse direct memory, it's streamed through the parser's recycled buffers
+            return runDecodeJackson(ctx, reader -> reader.readValue((InputStream)new ByteBufInputStream(bbuf.duplicate())));
+        }
     }
-    
+
     protected final Object runDecodeJackson(ConnectionContext<?> ctx, ObjectResolver gen) throws DecodeException {
         try {
             return decodeJackson(ctx, gen);
@@ -1,11 +1,14 @@
 package loghub.decoders;
 
+import java.io.InputStream;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.Locale;
 import java.util.Map;
 import java.util.stream.Stream;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
 import loghub.ConnectionContext;
 import lombok.Setter;
 
@@ -17,20 +20,33 @@ public abstract class AbstractStringJackson extends AbstractJackson implements T
     };
 
     private final Charset charset;
+    // Jackson parse UTF-8 bytes directly, no need to build a String
+    private final boolean rawBytes;
 
     protected AbstractStringJackson(Builder<? extends AbstractStringJackson> builder) {
         super(builder);
         charset = Charset.forName(builder.charset);
+        rawBytes = StandardCharsets.UTF_8.equals(charset) || StandardCharsets.US_ASCII.equals(charset);
     }
 
     @Override
     public Object decodeObject(ConnectionContext<?> ctx, byte[] msg, int offset, int length) throws DecodeException {
-        return runDecodeJackson(ctx, reader -> reader.readValues(new String(msg, offset, length, charset)));
+        if (rawBytes) {
+            return runDecodeJackson(ctx, reader -> reader.readValues(msg, offset, length));
+        } else {
+            return runDecodeJackson(ctx, reader -> reader.readValues(new String(msg, offset, length, charset)));
+        }
     }
 
     @Override
     public Object decodeObject(ConnectionContext<?> ctx, ByteBuf bbuf) throws DecodeException {
-        return runDecodeJackson(ctx, reader -> reader.readValues(bbuf.toString(charset)));
+        if (rawBytes && bbuf.hasArray()) {
+            return runDecodeJackson(ctx, reader -> reader.readValues(bbuf.array(), bbuf.arrayOffset() + bbuf.readerIndex(), bbuf.readableBytes()));
+        } else if (rawBytes) {
+            return runDecodeJackson(ctx, reader -> reader.readValues((InputStream) new ByteBufInputStream(bbuf.duplicate())));
+        } else {
+            return runDecodeJackson(ctx, reader -> reader.readValues(bbuf.toString(charset)));
+        }
     }
 
     @Override
@@ -1,5 +1,6 @@
 package loghub.decoders;
 
+import java.nio.ByteBuffer;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -14,6 +15,8 @@ import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.util.StackLocator;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
 import loghub.AbstractBuilder;
 import loghub.ConnectionContext;
 import loghub.Event;
@@ -61,8 +64,17 @@ public abstract class Decoder {
         throw new UnsupportedOperationException();
     }
 
+    /**
+     * Decode the readable bytes of a buffer, the reader index is not changed.
+     * <p>The default implementation parse in place the backing array of heap buffers. For other buffers, the content
+     * is copied, so decoders that can read them directly should override it.</p>
+     */
     protected Object decodeObject(ConnectionContext<?> ctx, ByteBuf bbuf) throws DecodeException {
-        throw new UnsupportedOperationException();
+        if (bbuf.hasArray()) {
+            return decodeObject(ctx, bbuf.array(), bbuf.arrayOffset() + bbuf.readerIndex(), bbuf.readableBytes());
+        } else {
+            return decodeObject(ctx, ByteBufUtil.getBytes(bbuf, bbuf.readerIndex(), bbuf.readableBytes(), false));
+        }
     }
 
     protected Object decodeObject(ConnectionContext<?> ctx, byte[] msg) throws DecodeException {
@@ -125,6 +137,13 @@ public abstract class Decoder {
         return parseObjectStream(ctx, () -> decodeObject(ctx, bbuf));
     }
 
+    /**
+     * Decode the remaining bytes of a NIO buffer, it's wrapped, not copied.
+     */
+    public final Stream<Map<String, Object>> decode(ConnectionContext<?> ctx, ByteBuffer buffer) throws DecodeException {
+        return decode(ctx, Unpooled.wrappedBuffer(buffer));
+    }
+
     public final Stream<Map<String, Object>> decode(ConnectionContext<?> ctx, byte[] msg, int offset, int length) throws DecodeException {
         return parseObjectStream(ctx, () -> decodeObject(ctx, msg, offset, length));
     }
@@ -42,7 +42,7 @@ public class SerializedObject extends Decoder {
     public Object decodeObject(ConnectionContext<?> ctx, ByteBuf bbuf) throws DecodeException {
         return deserialize(() -> {
             try {
-                return new ObjectInputStream(new ByteBufInputStream(bbuf));
+                return new ObjectInputStream(new ByteBufInputStream(bbuf.duplicate()));
             } catch (IOException e) {
                 throw new UncheckedIOException(e);
             }
@@ -40,7 +40,12 @@ public class StringCodec extends Decoder {
     @Override
     protected Object decodeObject(ConnectionContext<?> ctx, ByteBuf bbuf)
                     throws DecodeException {
-        return bbuf.toString(charset);
+        if (bbuf.hasArray()) {
+            return decodeObject(ctx, bbuf.array(), bbuf.arrayOffset() + bbuf.readerIndex(), bbuf.readableBytes());
+        } else {
+            // Decoded from the direct memory, without an intermediate array
+            return bbuf.toString(charset);
+        }
     }
 
 }
@@ -60,6 +60,38 @@ public interface ExceptionsMBean {
                         ;
     }
 
+    default public long getProcessorsFailuresDropped() {
+        return loghub.Stats.getDroppedErrors();
+    }
+
+    default public long getDecodersFailuresDropped() {
+        return loghub.Stats.getDroppedDecodeErrors();
+    }
+
+    default public long getUnhandledExceptionsDropped() {
+        return loghub.Stats.getDroppedExceptions();
+    }
+
+    default public long getBlockingMessageDropped() {
+        return loghub.Stats.getDroppedBlockedError();
+    }
+
+    default public long getSendersFailuresDropped() {
+        return loghub.Stats.getDroppedSenderError();
+    }
+
+    default public long getReceiversFailuresDropped() {
+        return loghub.Stats.getDroppedReceiverError();
+    }
+
+    default public int getErrorsSampling() {
+        return loghub.Stats.getErrorsSampling();
+    }
+
+    default public void setErrorsSampling(int sampling) {
+        loghub.Stats.setErrorsSampling(sampling);
+    }
+
 
     public class Implementation extends StandardMBean implements ExceptionsMBean {
 
@@ -2,6 +2,7 @@ package loghub.netty;
 
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import org.apache.logging.log4j.Level;
@@ -30,11 +31,30 @@ public class BaseChannelConsumer<R extends NettyReceiver<?, ?, ?, ?, BS, BSC, ?,
 
     private static final Logger logger = LogManager.getLogger();
 
+    /**
+     * The events decoded from a single message, sent together.
+     */
+    private static class EventsBatch {
+        private final List<Event> events;
+        private EventsBatch(List<Event> events) {
+            this.events = events;
+        }
+    }
+
     @Sharable
-    private class EventSender extends SimpleChannelInboundHandler<Event> {
+    private class EventSender extends SimpleChannelInboundHandler<Object> {
         @Override
-        protected void channelRead0(ChannelHandlerContext ctx, Event ev) throws Exception {
-            r.nettySend(ev);
+        public boolean acceptInboundMessage(Object msg) {
+            return msg instanceof Event || msg instanceof EventsBatch;
+        }
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, Object msg) throws Exception {
+            if (msg instanceof EventsBatch) {
+                r.nettySendBatch(((EventsBatch) msg).events);
+            } else {
+                r.nettySend((Event) msg);
+            }
+            r.applyBackpressure(ctx.channel());
         }
     }
 
@@ -46,7 +66,12 @@ public class BaseChannelConsumer<R extends NettyReceiver<?, ?, ?, ?, BS, BSC, ?,
             if (es == null && closeOnError) {
                 ctx.close();
             } else if (es != null){
-                es.forEach(out::add);
+                List<Event> events = es.collect(Collectors.toList());
+                if (events.size() == 1) {
+                    out.add(events.get(0));
+                } else if (events.size() > 1) {
+                    out.add(new EventsBatch(events));
+                }
             }
         }
     }
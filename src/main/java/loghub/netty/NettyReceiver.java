@@ -1,6 +1,7 @@
 package loghub.netty;
 
 import java.net.SocketAddress;
+import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.stream.Stream;
@@ -109,6 +110,22 @@ public abstract class NettyReceiver<R extends NettyReceiver<R, S, B, CF, BS, BSC
         return send(e);
     }
 
+    public int nettySendBatch(List<Event> events) {
+        return sendBatch(events);
+    }
+
+    /**
+     * Stop reading from a channel while the main queue is overloaded, so a blocking receiver
+     * doesn't park the event loop shared with other channels. The reading resumes once the queue is drained.
+     */
+    public void applyBackpressure(Channel channel) {
+        if (channel.config().isAutoRead() && isQueueOverloaded()) {
+            logger.debug("Main queue overloaded, pausing {}", channel);
+            channel.config().setAutoRead(false);
+            whenDrained(() -> channel.config().setAutoRead(true));
+        }
+    }
+
     public final SA getListenAddress() {
         return server.getAddress();
     }
@@ -136,8 +153,10 @@ public abstract class NettyReceiver<R extends NettyReceiver<R, S, B, CF, BS, BSC
     }
 
     protected final Stream<Event> decodeStream(ConnectionContext<?> ctx, ByteBuf bbuf) {
+        // Checked before decoding, the decoder might consume the buffer
+        boolean readable = bbuf != null && bbuf.isReadable();
         try {
-            return decoder.decode(ctx, bbuf).map((m) -> mapToEvent(ctx, () -> bbuf != null && bbuf.isReadable(), () -> m)).filter(Objects::nonNull);
+            return decoder.decode(ctx, bbuf).map((m) -> mapToEvent(ctx, () -> readable, () -> m)).filter(Objects::nonNull);
         } catch (DecodeException ex) {
             manageDecodeException(ex);
             return Stream.empty();
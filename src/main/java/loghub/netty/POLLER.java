@@ -1,7 +1,23 @@
 package loghub.netty;
 
+import io.netty.channel.epoll.Epoll;
+
 public enum POLLER {
     NIO,
     EPOLL,
-    OIO
+    OIO,
+    // The native transport if available, NIO otherwise
+    AUTO;
+
+    /**
+     * @return the poller to use, AUTO is resolved to the best available transport
+     */
+    public POLLER resolve() {
+        if (this == AUTO) {
+            return Epoll.isAvailable() ? EPOLL : NIO;
+        } else {
+            return this;
+        }
+    }
+
 }
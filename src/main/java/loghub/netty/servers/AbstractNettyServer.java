@@ -115,7 +115,7 @@ public abstract class AbstractNettyServer<CF extends ComponentFactory<BS, BSC, S
         }
         logger = LogManager.getLogger(Helpers.getFirstInitClass());
         authHandler = builder.authHandler;
-        poller = builder.poller;
+        poller = builder.poller.resolve();
         address = resolveAddress(builder);
         if (address == null) {
             throw new RuntimeException("Can't get listening address");
@@ -24,11 +24,23 @@ public class AbstractUdpServer<S extends AbstractUdpServer<S, B>,
                                          B extends AbstractUdpServer.Builder<S, B>
                                         > extends NettyIpServer.Builder<S, B, Bootstrap, Channel> {
         int bufferSize;
+        int rcvBuf = -1;
+        int maxMessagesPerRead = -1;
         @SuppressWarnings("unchecked")
         public B setBufferSize(int bufferSize) {
             this.bufferSize = bufferSize;
             return (B) this;
         }
+        @SuppressWarnings("unchecked")
+        public B setRcvBuf(int rcvBuf) {
+            this.rcvBuf = rcvBuf;
+            return (B) this;
+        }
+        @SuppressWarnings("unchecked")
+        public B setMaxMessagesPerRead(int maxMessagesPerRead) {
+            this.maxMessagesPerRead = maxMessagesPerRead;
+            return (B) this;
+        }
     }
 
     public AbstractUdpServer(B builder) throws IllegalArgumentException, InterruptedException {
@@ -44,22 +56,34 @@ public class AbstractUdpServer<S extends AbstractUdpServer<S, B>,
 
     @Override
     public void configureBootStrap(Bootstrap bootstrap, B builder) {
-        if (builder.bufferSize > 0) {
-            bootstrap.option(ChannelOption.RCVBUF_ALLOCATOR, new FixedRecvByteBufAllocator(builder.bufferSize));
+        if (builder.bufferSize > 0 || builder.maxMessagesPerRead > 0) {
+            // 2048 is the default size used by Netty for datagrams
+            FixedRecvByteBufAllocator allocator = new FixedRecvByteBufAllocator(builder.bufferSize > 0 ? builder.bufferSize : 2048);
+            if (builder.maxMessagesPerRead > 0) {
+                // Drain more datagrams on each wake up of the event loop
+                allocator.maxMessagesPerRead(builder.maxMessagesPerRead);
+            }
+            bootstrap.option(ChannelOption.RCVBUF_ALLOCATOR, allocator);
+        }
+        if (builder.rcvBuf > 0) {
+            bootstrap.option(ChannelOption.SO_RCVBUF, builder.rcvBuf);
         }
         // Needed because Netty's UDP is not multi-thread, see http://marrachem.blogspot.fr/2014/09/multi-threaded-udp-server-with-netty-on.html
         if (poller == POLLER.EPOLL && builder.threadsCount > 1) {
             bootstrap.option(UnixChannelOption.SO_REUSEPORT, true);
         } else if (poller != POLLER.EPOLL && builder.threadsCount > 1){
-            logger.warn("Multiple worker, but not using EPOLL, it's useless");
+            logger.warn("Multiple worker, but not using EPOLL, only one socket will be used");
         }
         super.configureBootStrap(bootstrap, builder);
     }
 
     @Override
     protected void makeChannel(AbstractBootstrap<Bootstrap, Channel> bootstrap, InetSocketAddress address, B builder) throws IllegalStateException, InterruptedException {
-        channels = new HashSet<>(builder.threadsCount);
-        for (int i = 0 ; i < builder.threadsCount ; ++i) {  
+        // Without SO_REUSEPORT, only one socket can be bound to the port
+        int socketsCount = poller == POLLER.EPOLL ? Math.max(1, builder.threadsCount) : 1;
+        channels = new HashSet<>(socketsCount);
+        for (int i = 0 ; i < socketsCount ; ++i) {
+            // Each socket is registered on the next event loop, so the kernel spreads the datagrams on all the threads
             ChannelFuture future = bootstrap.bind(address);
             channels.add(future.channel());
             try {
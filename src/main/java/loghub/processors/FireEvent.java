@@ -27,7 +27,7 @@ public class FireEvent extends Processor {
         expressions = new HashMap<>(fields.size());
         for(Map.Entry<String[], String> i: fields.entrySet()) {
             try {
-                Expression ex = new Expression(i.getValue(), properties.groovyClassLoader, properties.formatters);
+                Expression ex = new Expression(i.getValue(), properties);
                 expressions.put(i.getKey(), ex);
             } catch (ExpressionException e) {
                 logger.error("invalid expression for field {}: {}", i.getKey(), i.getValue());
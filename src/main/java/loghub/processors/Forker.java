@@ -18,6 +18,7 @@ public class Forker extends Processor {
     private String destination;
     private Pipeline pipeDestination;
     private BlockingQueue<Event> mainQueue;
+    private boolean copyOnWrite = false;
 
     @Override
     public boolean process(Event event) {
@@ -25,7 +26,7 @@ public class Forker extends Processor {
     }
 
     public boolean fork(Event event) {
-        Event newEvent = event.duplicate();
+        Event newEvent = copyOnWrite ? event.duplicateShared() : event.duplicate();
         if(newEvent == null) {
             return false;
         }
@@ -48,6 +49,22 @@ public class Forker extends Processor {
         this.destination = destination;
     }
 
+    /**
+     * @return true if the forked event share the unmodified values with the original one
+     */
+    public boolean isCopyOnWrite() {
+        return copyOnWrite;
+    }
+
+    /**
+     * The maps and lists are then shared, each event copy a level when it's modified, even in place,
+     * or when a value that can be modified in place is read from it. So both events can be processed as usual.
+     * @param copyOnWrite true if the forked event share the unmodified values with the original one
+     */
+    public void setCopyOnWrite(boolean copyOnWrite) {
+        this.copyOnWrite = copyOnWrite;
+    }
+
     @Override
     public boolean configure(Properties properties) {
         if( ! properties.namedPipeLine.containsKey(destination)) {
@@ -56,6 +73,7 @@ public class Forker extends Processor {
         }
         pipeDestination = properties.namedPipeLine.get(destination);
         mainQueue = properties.mainQueue;
+        copyOnWrite = copyOnWrite || properties.forkCopyOnWrite;
         return super.configure(properties);
     }
 
@@ -342,7 +342,7 @@ public class Merge extends Processor {
             cumulators.put(i.getKey(), Cumulator.getCumulator(i.getValue()));
         }
         try {
-            index = new Expression(indexSource, properties.groovyClassLoader, properties.formatters);
+            index = new Expression(indexSource, properties);
         } catch (ExpressionException ex) {
             Expression.logError(ex, indexSource, logger);
             return false;
@@ -350,7 +350,7 @@ public class Merge extends Processor {
         // Prepare fire only if test and processor given for that
         if (fireSource != null && fireProcessor != null) {
             try {
-                fire = new Expression(fireSource, properties.groovyClassLoader, properties.formatters);
+                fire = new Expression(fireSource, properties);
             } catch (ExpressionException e) {
                 Expression.logError(e, fireSource, logger);
                 return false;
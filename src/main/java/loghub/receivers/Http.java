@@ -89,7 +89,8 @@ public class Http extends AbstractHttp {
                 if (p != null) {
                     cctx.setPrincipal(p);
                 }
-                mapsStream.filter(Objects::nonNull).map(m -> Http.this.mapToEvent(cctx, () -> ! m.isEmpty(), () -> m)).forEach(Http.this::send);
+                Http.this.sendBatch(mapsStream.filter(Objects::nonNull).map(m -> Http.this.mapToEvent(cctx, () -> ! m.isEmpty(), () -> m)).filter(Objects::nonNull).collect(Collectors.toList()));
+                Http.this.applyBackpressure(ctx.channel());
             } catch (DecodeException ex) {
                 Http.this.manageDecodeException(ex);
                 logger.error("Can't decode content", ex);
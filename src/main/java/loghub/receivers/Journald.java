@@ -313,7 +313,8 @@ public class Journald extends AbstractHttp {
             if (Boolean.FALSE.equals(ctx.channel().attr(VALIDJOURNALD).get())) {
                 throw new HttpRequestFailure(HttpResponseStatus.BAD_REQUEST, "Not a valid journald request");
             } else {
-                ctx.channel().attr(EVENTS).get().forEach(Journald.this::send);
+                sendBatch(ctx.channel().attr(EVENTS).get());
+                applyBackpressure(ctx.channel());
                 ByteBuf okbuf = OkResponse.get().readerIndex(0).retain();
                 writeResponse(ctx, request, HttpResponseStatus.ACCEPTED, okbuf, 4);
             }
@@ -1,10 +1,12 @@
 package loghub.receivers;
 
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Properties;
@@ -23,6 +25,7 @@ import org.apache.kafka.common.serialization.ByteArrayDeserializer;
 
 import loghub.BuilderClass;
 import loghub.ConnectionContext;
+import loghub.Event;
 import loghub.Helpers;
 import lombok.Getter;
 import lombok.Setter;
@@ -112,11 +115,18 @@ public class Kafka extends Receiver {
     public void run() {
         consumer.subscribe(Collections.singletonList(topic));
         boolean broke = false;
+        boolean paused = false;
         while (! isInterrupted()) {
+            if (paused && isQueueDrained()) {
+                consumer.resume(consumer.paused());
+                paused = false;
+            }
+            // A paused consumer still needs to poll, to stay in the group
             ConsumerRecords<Long, byte[]> consumerRecords = consumer.poll(100);
             if (consumerRecords.count()==0) {
                 continue;
             }
+            List<Event> events = new ArrayList<>(consumerRecords.count());
             for(ConsumerRecord<Long, byte[]> record: consumerRecords) {
                 KafkaContext ctxt = new KafkaContext(record.topic());
                 Optional<Date> timestamp = Optional.empty().map(ts ->  record.timestampType() ==  TimestampType.CREATE_TIME ? new Date(record.timestamp()) : null);
@@ -134,16 +144,22 @@ public class Kafka extends Receiver {
                 decodeStream(ctxt, content).forEach( e -> {
                     timestamp.ifPresent(e::setTimestamp);
                     headers.ifPresent( h -> e.put("headers", h));
-                    send(e);
+                    events.add(e);
                 });
                 if (isInterrupted()) {
+                    sendBatch(events);
                     consumer.commitSync(Collections.singletonMap(new TopicPartition(record.topic(), record.partition()), new OffsetAndMetadata(record.offset())));
                     broke = true;
                     break;
                 }
             }
             if (! broke) {
+                sendBatch(events);
                 consumer.commitAsync();
+                if (isQueueOverloaded()) {
+                    consumer.pause(consumer.assignment());
+                    paused = true;
+                }
             } else {
                 break;
             }
@@ -2,6 +2,7 @@ package loghub.receivers;
 
 import java.io.Closeable;
 import java.time.Instant;
+import java.util.Collection;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.Locale;
@@ -10,6 +11,8 @@ import java.util.NoSuchElementException;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
 import java.util.stream.Stream;
 
 import org.apache.logging.log4j.Level;
@@ -18,6 +21,9 @@ import org.apache.logging.log4j.Logger;
 
 import com.codahale.metrics.Meter;
 
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
 import loghub.AbstractBuilder;
 import loghub.ConnectionContext;
 import loghub.Event;
@@ -65,8 +71,16 @@ public abstract class Receiver extends Thread implements Iterator<Event>, Closea
         private String timeStampField = Event.TIMESTAMPKEY;
         @Setter
         private Filter filter;
+        @Setter
+        private int highWatermark = 90;
+        @Setter
+        private int lowWatermark = 50;
     };
 
+    // The interval between checks of the main queue, in milliseconds
+    private static final long DRAINCHECK = 10;
+    private static final HashedWheelTimer backpressureTimer = new HashedWheelTimer(new DefaultThreadFactory("backpressure", true), DRAINCHECK, TimeUnit.MILLISECONDS);
+
     protected final Logger logger;
 
     private AuthenticationHandler authHandler = null;
@@ -92,13 +106,19 @@ public abstract class Receiver extends Thread implements Iterator<Event>, Closea
     private BlockingQueue<Event> outQueue;
     private Pipeline pipeline;
     private final boolean blocking;
+    // Main queue filling, in percent, that stops and resumes blocking receivers
+    private final int highWatermark;
+    private final int lowWatermark;
     private Meter count;
+    private Stats.PipelineMetrics pipelineMetrics;
     protected final Decoder decoder;
 
     protected Receiver(Builder<?  extends Receiver> builder){
         setDaemon(true);
         logger = LogManager.getLogger(Helpers.getFirstInitClass());
         blocking = isBlocking();
+        highWatermark = builder.highWatermark;
+        lowWatermark = Math.min(builder.lowWatermark, builder.highWatermark);
         this.decoder = builder.decoder;
         this.withSSL = builder.withSSL;
         this.SSLClientAuthentication = ClientAuthentication.valueOf(builder.SSLClientAuthentication.toUpperCase(Locale.ENGLISH));
@@ -125,6 +145,9 @@ public abstract class Receiver extends Thread implements Iterator<Event>, Closea
     public boolean configure(Properties properties) {
         setName("receiver." + getReceiverName());
         count = Properties.metrics.meter("receiver." + getReceiverName());
+        if (pipeline != null) {
+            pipelineMetrics = Properties.metrics.pipeline(pipeline.getName());
+        }
         if (decoder != null) {
             return decoder.configure(properties, this);
         } else if (getClass().getAnnotation(SelfDecoder.class) == null) {
@@ -346,7 +369,7 @@ public abstract class Receiver extends Thread implements Iterator<Event>, Closea
         Stats.received.incrementAndGet();
         if(! event.inject(pipeline, outQueue, blocking)) {
             event.end();
-            Stats.pipelineHanding(pipeline.getName(), PipelineStat.BLOCKIN);
+            Stats.pipelineHanding(pipelineMetrics, PipelineStat.BLOCKIN);
             Stats.newBlockedError("Listener " + getName() + " sending to " + pipeline.getName());
             logger.debug("send failed from {}, pipeline destination {} blocked", () -> getName(), () -> pipeline.getName());
             return false;
@@ -355,6 +378,96 @@ public abstract class Receiver extends Thread implements Iterator<Event>, Closea
         }
     }
 
+    /**
+     * Send many events at once, for listeners that receive them in batches.
+     * <p>The metrics are updated once, and the events are added to the main queue in a single operation when
+     * it's possible. If the queue is full, a blocking receiver waits for the remaining events.</p>
+     * @param events the events to send
+     * @return the number of events sent
+     */
+    protected final int sendBatch(Collection<Event> events) {
+        if (events.isEmpty()) {
+            return 0;
+        }
+        count.mark(events.size());
+        logger.debug("new events batch: {}", events::size);
+        Stats.received.addAndGet(events.size());
+        int injected = Event.inject(events, pipeline, outQueue);
+        if (injected == events.size()) {
+            return injected;
+        }
+        Iterator<Event> remaining = events.iterator();
+        for (int i = 0; i < injected; i++) {
+            remaining.next();
+        }
+        while (remaining.hasNext()) {
+            // Already prepared for the pipeline, only the queuing is missing
+            Event event = remaining.next();
+            if (blocking) {
+                try {
+                    outQueue.put(event);
+                    injected++;
+                    continue;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            event.end();
+            Stats.pipelineHanding(pipelineMetrics, PipelineStat.BLOCKIN);
+            Stats.newBlockedError("Listener " + getName() + " sending to " + pipeline.getName());
+        }
+        if (injected < events.size()) {
+            int dropped = events.size() - injected;
+            logger.debug("send failed from {} for {} events, pipeline destination {} blocked", this::getName, () -> dropped, pipeline::getName);
+        }
+        return injected;
+    }
+
+    private int queueFilling() {
+        int size = outQueue.size();
+        // An unbounded queue reports a huge remaining capacity, so it's never filled
+        long capacity = (long) size + outQueue.remainingCapacity();
+        return capacity == 0 ? 100 : (int) (size * 100L / capacity);
+    }
+
+    /**
+     * Check if a blocking receiver should stop reading, instead of waiting for the main queue.
+     * @return true if the main queue is filled above the high watermark
+     */
+    protected final boolean isQueueOverloaded() {
+        return blocking && queueFilling() >= highWatermark;
+    }
+
+    /**
+     * @return true if the main queue is filled below the low watermark, so a stopped receiver can resume reading
+     */
+    protected final boolean isQueueDrained() {
+        return queueFilling() <= lowWatermark;
+    }
+
+    /**
+     * Run a task once the main queue is drained, without blocking the calling thread.
+     * @param resume the task that resumes the reading
+     */
+    protected final void whenDrained(Runnable resume) {
+        if (isQueueDrained()) {
+            resume.run();
+        } else {
+            backpressureTimer.newTimeout(t -> whenDrained(resume), DRAINCHECK, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Wait for the main queue to be drained.
+     * @param running the waiting stops early if it returns false
+     * @throws InterruptedException
+     */
+    protected final void awaitDrained(BooleanSupplier running) throws InterruptedException {
+        while (running.getAsBoolean() && ! isQueueDrained()) {
+            Thread.sleep(DRAINCHECK);
+        }
+    }
+
     public abstract String getReceiverName();
 
     protected boolean withJaas() {
@@ -367,6 +480,8 @@ public abstract class Receiver extends Thread implements Iterator<Event>, Closea
 
     public void setPipeline(Pipeline pipeline) {
         this.pipeline = pipeline;
+        // Receivers can be configured before their pipeline is set
+        pipelineMetrics = pipeline != null ? Properties.metrics.pipeline(pipeline.getName()) : null;
     }
 
 }
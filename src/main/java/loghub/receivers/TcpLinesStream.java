@@ -1,16 +1,29 @@
 package loghub.receivers;
 
 import java.nio.charset.Charset;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOption;
 import io.netty.channel.ChannelPipeline;
 import io.netty.channel.ServerChannel;
-import io.netty.handler.codec.LineBasedFrameDecoder;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.util.ByteProcessor;
 import io.netty.util.CharsetUtil;
 import loghub.BuilderClass;
+import loghub.ConnectionContext;
+import loghub.Event;
 import loghub.configuration.Properties;
-import loghub.decoders.StringCodec;
+import loghub.decoders.DecodeException;
 import loghub.netty.AbstractTcpReceiver;
 import loghub.netty.BaseChannelConsumer;
 import loghub.netty.ChannelConsumer;
@@ -19,6 +32,17 @@ import loghub.netty.servers.TcpServer;
 import lombok.Getter;
 import lombok.Setter;
 
+/**
+ * Receive a stream of text messages, each one is stored in a single field.
+ * <p>The messages are either separated by a new line, or use the octet counting framing from RFC 6587, where
+ * each message is preceded by its length and a space. With the AUTO framing, a message uses octet counting when
+ * it starts with a valid length prefix followed by a syslog priority, like <code>12 &lt;13&gt;...</code>, as
+ * described in RFC 6587. Any other message is a line.</p>
+ * <p>With the syslog setting, the RFC 5424 header is parsed when the message is read. The facility and severity
+ * are extracted from the priority of any message, but the content of the other messages is kept as is, their
+ * header is too loose to be parsed here and is left to the processors.</p>
+ */
+@SelfDecoder
 @BuilderClass(TcpLinesStream.Builder.class)
 public class TcpLinesStream extends AbstractTcpReceiver<TcpLinesStream, TcpServer, TcpServer.Builder, ByteBuf> implements ConsumerProvider<TcpLinesStream, ServerBootstrap, ServerChannel> {
 
@@ -29,12 +53,12 @@ public class TcpLinesStream extends AbstractTcpReceiver<TcpLinesStream, TcpServe
         private String charset= CharsetUtil.UTF_8.name();
         @Setter
         private String field = "message";
+        @Setter
+        private String framing = Framing.LINE.name();
+        @Setter
+        private boolean syslog = false;
         @Override
         public TcpLinesStream build() {
-            StringCodec.Builder sbuilder = new StringCodec.Builder();
-            sbuilder.setCharset(charset.toString());
-            sbuilder.setField(field);
-            this.setDecoder(sbuilder.build());
             return new TcpLinesStream(this);
         }
     };
@@ -42,18 +66,362 @@ public class TcpLinesStream extends AbstractTcpReceiver<TcpLinesStream, TcpServe
         return new Builder();
     }
 
+    public enum Framing {
+        LINE,
+        OCTETCOUNTING,
+        AUTO,
+    }
+
+    // The longest length prefix, the digits of Integer.MAX_VALUE and the space
+    private static final int MAXPREFIX = 11;
+    private static final int INVALID = -1;
+    private static final int INCOMPLETE = -2;
+
+    /**
+     * Split the stream and build the events directly from the cumulated buffer, without
+     * intermediate slices. The events of a read are sent as a single batch.
+     */
+    private class LinesFramer extends ByteToMessageDecoder {
+        // Bytes of a too long message still to be skipped, -1 if skipping until the end of line
+        private long discarding = 0;
+
+        @Override
+        protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) {
+            ConnectionContext<?> cctx = getConnectionContext(ctx);
+            List<Event> events = new ArrayList<>();
+            boolean complete = true;
+            while (complete && in.isReadable()) {
+                if (discarding != 0) {
+                    complete = discard(in);
+                } else if (framing == Framing.LINE) {
+                    complete = readLine(cctx, in, events);
+                } else {
+                    int space = findPrefix(in);
+                    if (space >= 0 && framing == Framing.AUTO) {
+                        space = checkPriority(in, space);
+                    }
+                    if (space == INCOMPLETE) {
+                        complete = false;
+                    } else if (space == INVALID && framing == Framing.AUTO) {
+                        complete = readLine(cctx, in, events);
+                    } else if (space == INVALID) {
+                        brokenFraming(ctx, in);
+                        complete = false;
+                    } else {
+                        complete = readCounted(cctx, in, space, events);
+                    }
+                }
+            }
+            if (! events.isEmpty()) {
+                sendBatch(events);
+                applyBackpressure(ctx.channel());
+            }
+        }
+
+        private boolean discard(ByteBuf in) {
+            if (discarding > 0) {
+                int skipped = (int) Math.min(discarding, in.readableBytes());
+                in.skipBytes(skipped);
+                discarding -= skipped;
+                return discarding == 0;
+            } else {
+                int eol = in.forEachByte(ByteProcessor.FIND_LF);
+                if (eol < 0) {
+                    in.skipBytes(in.readableBytes());
+                    return false;
+                } else {
+                    in.readerIndex(eol + 1);
+                    discarding = 0;
+                    return true;
+                }
+            }
+        }
+
+        private boolean readLine(ConnectionContext<?> cctx, ByteBuf in, List<Event> events) {
+            int start = in.readerIndex();
+            int eol = in.forEachByte(ByteProcessor.FIND_LF);
+            if (eol < 0) {
+                if (in.readableBytes() > maxLength) {
+                    tooLong(in.readableBytes());
+                    discarding = -1;
+                    in.skipBytes(in.readableBytes());
+                }
+                return false;
+            }
+            in.readerIndex(eol + 1);
+            int length = eol - start;
+            if (length > 0 && in.getByte(eol - 1) == '\r') {
+                length--;
+            }
+            if (length > maxLength) {
+                tooLong(length);
+            } else {
+                addEvent(cctx, in, start, length, events);
+            }
+            return true;
+        }
+
+        /**
+         * @return the index of the space after a valid length prefix, INVALID if there is no prefix, or INCOMPLETE
+         */
+        private int findPrefix(ByteBuf in) {
+            int start = in.readerIndex();
+            int end = start + Math.min(in.readableBytes(), MAXPREFIX);
+            for (int i = start; i < end; i++) {
+                byte b = in.getByte(i);
+                if (b == ' ' && i > start) {
+                    return i;
+                } else if (! isDigit(b)) {
+                    return INVALID;
+                }
+            }
+            return in.readableBytes() >= MAXPREFIX ? INVALID : INCOMPLETE;
+        }
+
+        /**
+         * A length prefix is only trusted when a syslog message follows, a line might start with a number too
+         * @return the index of the space, INVALID if it's not a syslog message, or INCOMPLETE
+         */
+        private int checkPriority(ByteBuf in, int space) {
+            if (in.writerIndex() <= space + 1) {
+                return INCOMPLETE;
+            } else {
+                return in.getByte(space + 1) == '<' ? space : INVALID;
+            }
+        }
+
+        private boolean readCounted(ConnectionContext<?> cctx, ByteBuf in, int space, List<Event> events) {
+            long length = 0;
+            for (int i = in.readerIndex(); i < space; i++) {
+                length = length * 10 + (in.getByte(i) - '0');
+            }
+            if (length > maxLength) {
+                tooLong(length);
+                in.readerIndex(space + 1);
+                discarding = length;
+                return true;
+            } else if (in.writerIndex() - (space + 1) < length) {
+                // Wait for the whole message, the prefix will be parsed again
+                return false;
+            }
+            int msgStart = space + 1;
+            int msgLength = (int) length;
+            in.readerIndex(msgStart + msgLength);
+            // Some senders count the trailing new line
+            if (msgLength > 0 && in.getByte(msgStart + msgLength - 1) == '\n') {
+                msgLength--;
+                if (msgLength > 0 && in.getByte(msgStart + msgLength - 1) == '\r') {
+                    msgLength--;
+                }
+            }
+            addEvent(cctx, in, msgStart, msgLength, events);
+            return true;
+        }
+
+        private void addEvent(ConnectionContext<?> cctx, ByteBuf in, int start, int length, List<Event> events) {
+            if (length == 0) {
+                manageDecodeException(new DecodeException("received null or empty event"));
+            } else {
+                Event event = Event.emptyEvent(cctx);
+                String message = in.toString(start, length, charset);
+                if (syslog) {
+                    parseSyslog(event, message);
+                } else {
+                    event.put(field, message);
+                }
+                events.add(event);
+            }
+        }
+
+        /**
+         * Parse a syslog message, the header fields are put directly in the event, that is
+         * big enough for them without resizing.
+         */
+        private void parseSyslog(Event event, String message) {
+            int end = message.indexOf('>');
+            int priority = end > 1 && end <= 4 && message.charAt(0) == '<' ? parseNumber(message, 1, end) : -1;
+            if (priority < 0 || priority > 191) {
+                event.put(field, message);
+                return;
+            }
+            event.put("facility", priority >> 3);
+            event.put("severity", priority & 7);
+            int pos = end + 1;
+            if (! message.startsWith("1 ", pos)) {
+                event.put(field, message.substring(pos));
+                return;
+            }
+            pos += 2;
+            // TIMESTAMP HOSTNAME APP-NAME PROCID MSGID
+            String[] header = new String[5];
+            for (int i = 0; i < header.length; i++) {
+                int space = message.indexOf(' ', pos);
+                if (space < 0) {
+                    manageDecodeException(new DecodeException("Truncated syslog header"));
+                    event.put(field, message.substring(end + 1));
+                    return;
+                }
+                header[i] = message.substring(pos, space);
+                pos = space + 1;
+            }
+            pos = parseStructuredData(event, message, pos);
+            if (pos < 0) {
+                manageDecodeException(new DecodeException("Invalid syslog structured data"));
+                event.put(field, message.substring(end + 1));
+                return;
+            }
+            if (! "-".equals(header[0])) {
+                try {
+                    event.setTimestamp(OffsetDateTime.parse(header[0]).toInstant());
+                } catch (DateTimeParseException e) {
+                    event.put("timestamp8601", header[0]);
+                }
+            }
+            putHeader(event, "logsource", header[1]);
+            putHeader(event, "program", header[2]);
+            putHeader(event, "pid", header[3]);
+            putHeader(event, "syslog5424_msgid", header[4]);
+            // Skip the space and the optional BOM
+            if (pos < message.length() && message.charAt(pos) == ' ') {
+                pos++;
+                if (pos < message.length() && message.charAt(pos) == '\uFEFF') {
+                    pos++;
+                }
+                if (pos < message.length()) {
+                    event.put(field, message.substring(pos));
+                }
+            }
+        }
+
+        private void putHeader(Event event, String name, String value) {
+            if (! "-".equals(value)) {
+                event.put(name, value);
+            }
+        }
+
+        /**
+         * Parse the structured data, each element is stored in a map sized for its parameters.
+         * @return the position after the structured data, or -1 if it's invalid
+         */
+        private int parseStructuredData(Event event, String message, int pos) {
+            if (message.startsWith("-", pos)) {
+                return pos + 1;
+            }
+            List<String> ids = new ArrayList<>(1);
+            List<Map<String, Object>> elements = new ArrayList<>(1);
+            List<String> params = new ArrayList<>();
+            StringBuilder value = new StringBuilder();
+            while (pos < message.length() && message.charAt(pos) == '[') {
+                int idEnd = indexOfAny(message, pos + 1, ' ', ']');
+                if (idEnd < 0) {
+                    return -1;
+                }
+                ids.add(message.substring(pos + 1, idEnd));
+                pos = idEnd;
+                params.clear();
+                while (message.charAt(pos) == ' ') {
+                    int equal = message.indexOf('=', pos + 1);
+                    if (equal < 0 || equal + 1 >= message.length() || message.charAt(equal + 1) != '"') {
+                        return -1;
+                    }
+                    params.add(message.substring(pos + 1, equal));
+                    value.setLength(0);
+                    pos = equal + 2;
+                    while (pos < message.length() && message.charAt(pos) != '"') {
+                        char c = message.charAt(pos);
+                        if (c == '\\' && pos + 1 < message.length()) {
+                            char escaped = message.charAt(pos + 1);
+                            if (escaped == '"' || escaped == '\\' || escaped == ']') {
+                                c = escaped;
+                                pos++;
+                            }
+                        }
+                        value.append(c);
+                        pos++;
+                    }
+                    if (pos + 1 >= message.length()) {
+                        return -1;
+                    }
+                    params.add(value.toString());
+                    pos++;
+                }
+                if (message.charAt(pos) != ']') {
+                    return -1;
+                }
+                pos++;
+                Map<String, Object> element = new HashMap<>(params.size() / 2 * 4 / 3 + 1);
+                for (int i = 0; i < params.size(); i += 2) {
+                    element.put(params.get(i), params.get(i + 1));
+                }
+                elements.add(element);
+            }
+            if (ids.isEmpty()) {
+                return -1;
+            }
+            Map<String, Object> sd = new HashMap<>(ids.size() * 4 / 3 + 1);
+            for (int i = 0; i < ids.size(); i++) {
+                sd.put(ids.get(i), elements.get(i));
+            }
+            event.put("syslog5424_sd", sd);
+            return pos;
+        }
+
+        private int indexOfAny(String message, int from, char c1, char c2) {
+            for (int i = from; i < message.length(); i++) {
+                char c = message.charAt(i);
+                if (c == c1 || c == c2) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private int parseNumber(String message, int start, int end) {
+            int value = 0;
+            for (int i = start; i < end; i++) {
+                char c = message.charAt(i);
+                if (c < '0' || c > '9') {
+                    return -1;
+                }
+                value = value * 10 + (c - '0');
+            }
+            return value;
+        }
+
+        private void tooLong(long length) {
+            manageDecodeException(new DecodeException("Message too long: " + length + " bytes"));
+        }
+
+        private void brokenFraming(ChannelHandlerContext ctx, ByteBuf in) {
+            // Lost synchronization in the stream, it can't be recovered
+            manageDecodeException(new DecodeException("Invalid octet counting frame"));
+            in.skipBytes(in.readableBytes());
+            ctx.close();
+        }
+
+        private boolean isDigit(byte b) {
+            return b >= '0' && b <= '9';
+        }
+    }
+
     @Getter
     private final int maxLength;
 
     private final Charset charset;
     @Getter
     private final String field;
+    @Getter
+    private final Framing framing;
+    @Getter
+    private final boolean syslog;
 
     protected TcpLinesStream(Builder builder) {
         super(builder);
         this.maxLength = builder.maxLength;
         this.charset = Charset.forName(builder.charset);
         this.field = builder.field;
+        this.framing = Framing.valueOf(builder.framing.toUpperCase(Locale.ENGLISH));
+        this.syslog = builder.syslog;
     }
 
     @Override
@@ -62,7 +430,14 @@ public class TcpLinesStream extends AbstractTcpReceiver<TcpLinesStream, TcpServe
             @Override
             public void addHandlers(ChannelPipeline pipe) {
                 super.addHandlers(pipe);
-                pipe.addBefore("MessageDecoder", "Splitter", new LineBasedFrameDecoder(maxLength));
+                pipe.addBefore("Sender", "Splitter", new LinesFramer());
+            }
+
+            @Override
+            public void addOptions(ServerBootstrap bootstrap) {
+                // The framing scans the cumulated buffers in place, they should be pooled direct buffers
+                bootstrap.childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT);
+                super.addOptions(bootstrap);
             }
         };
     }
@@ -37,6 +37,14 @@ public class Udp extends NettyIpReceiver<Udp,
     public static class Builder extends NettyIpReceiver.Builder<Udp> {
         @Setter
         private int bufferSize = -1;
+        @Setter
+        private int rcvBuf = -1;
+        @Setter
+        private int maxMessagesPerRead = -1;
+        public Builder() {
+            // Use epoll and many sockets when possible
+            setPoller("AUTO");
+        }
         @Override
         public Udp build() {
             return new Udp(this);
@@ -48,10 +56,14 @@ public class Udp extends NettyIpReceiver<Udp,
 
     @Getter
     private final  int bufferSize;
+    private final int rcvBuf;
+    private final int maxMessagesPerRead;
 
     protected Udp(Builder builder) {
         super(builder);
         this.bufferSize = builder.bufferSize;
+        this.rcvBuf = builder.rcvBuf;
+        this.maxMessagesPerRead = builder.maxMessagesPerRead;
     }
 
     @Override
@@ -62,6 +74,8 @@ public class Udp extends NettyIpReceiver<Udp,
     @Override
     public final boolean configure(Properties properties, UdpServer.Builder builder) {
         builder.setBufferSize(bufferSize)
+        .setRcvBuf(rcvBuf)
+        .setMaxMessagesPerRead(maxMessagesPerRead)
         .setThreadPrefix("UdpNettyReceiver");
         return super.configure(properties, builder);
     }
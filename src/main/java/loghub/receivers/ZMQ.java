@@ -3,6 +3,7 @@ package loghub.receivers;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.Locale;
+import java.util.stream.Collectors;
 
 import org.apache.logging.log4j.Level;
 import org.zeromq.SocketType;
@@ -87,9 +88,14 @@ public class ZMQ extends Receiver {
         try {
             handler.start();
             while (handler.isRunning()) {
+                if (isQueueOverloaded()) {
+                    // Stop polling, the messages are kept by ZMQ, up to the high water mark
+                    awaitDrained(handler::isRunning);
+                    continue;
+                }
                 byte[] message = handler.dispatch(null);
                 if (message != null) {
-                    decodeStream(ConnectionContext.EMPTY, message).forEach(this::send);
+                    sendBatch(decodeStream(ConnectionContext.EMPTY, message).collect(Collectors.toList()));
                 }
             }
         } catch (IllegalArgumentException ex) {
@@ -98,6 +104,8 @@ public class ZMQ extends Receiver {
         } catch (ZMQCheckedException ex) {
             logger.error("Failed ZMQ processing : {}", Helpers.resolveThrowableException(ex));
             logger.catching(Level.DEBUG, ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
         } catch (Throwable ex) {
             logger.error("Failed ZMQ processing : {}", Helpers.resolveThrowableException(ex));
             logger.catching(Level.DEBUG, ex);
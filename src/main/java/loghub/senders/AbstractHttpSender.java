@@ -6,13 +6,21 @@ import java.io.InputStreamReader;
 import java.io.Reader;
 import java.io.UncheckedIOException;
 import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.net.ConnectException;
 import java.net.SocketTimeoutException;
 import java.net.URL;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.security.GeneralSecurityException;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.TimerTask;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
 
 import javax.management.InstanceAlreadyExistsException;
 import javax.management.MBeanRegistrationException;
@@ -22,6 +30,7 @@ import javax.management.MalformedObjectNameException;
 import javax.management.NotCompliantMBeanException;
 import javax.management.ObjectName;
 import javax.management.StandardMBean;
+import javax.net.ssl.SSLContext;
 
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpHost;
@@ -31,7 +40,6 @@ import org.apache.http.auth.AuthScope;
 import org.apache.http.auth.UsernamePasswordCredentials;
 import org.apache.http.client.CredentialsProvider;
 import org.apache.http.client.config.RequestConfig;
-import org.apache.http.client.entity.EntityBuilder;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.protocol.HttpClientContext;
 import org.apache.http.config.ConnectionConfig;
@@ -55,6 +63,20 @@ import org.apache.http.pool.ConnPoolControl;
 import org.apache.http.util.VersionInfo;
 import org.apache.logging.log4j.Level;
 
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Timer;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpUtil;
 import loghub.Helpers;
 import loghub.configuration.Properties;
 import lombok.Setter;
@@ -76,6 +98,16 @@ public abstract class AbstractHttpSender extends Sender {
         private int port = -1;
         @Setter
         private String[] destinations;
+        @Setter
+        private String compression = null;
+        @Setter
+        private int compressionLevel = -1;
+        @Setter
+        private boolean nettyClient = false;
+        @Setter
+        private int connections = -1;
+        @Setter
+        private int pipelining = 1;
     };
 
     protected class HttpRequest {
@@ -84,6 +116,12 @@ public abstract class AbstractHttpSender extends Sender {
         private URL url = null;
         private final Map<String, String> headers = new HashMap<>();
         private HttpEntity content = null;
+        // The raw content, for the netty client
+        private byte[] body = null;
+        private int bodyOffset = 0;
+        private int bodyLength = 0;
+        // A copy of the raw content, shared by all the attempts of the request
+        private ByteBuf retainedBody = null;
         public String getVerb() {
             return verb;
         }
@@ -110,12 +148,56 @@ public abstract class AbstractHttpSender extends Sender {
         }
         public void setContent(byte[] content) {
             this.content = new ByteArrayEntity(content);
+            setBody(content, 0, content.length);
+        }
+        private void setBody(byte[] body, int offset, int length) {
+            release();
+            this.body = body;
+            this.bodyOffset = offset;
+            this.bodyLength = length;
+        }
+        /**
+         * Copy the content once, so the request can be sent again by {@link #doRequestAsync(HttpRequest)} after the
+         * buffers given to it were reused. The copy must be freed with {@link #release()} once the request is done.
+         */
+        public void retainContent() {
+            if (nettyClient != null && body != null && retainedBody == null) {
+                retainedBody = PooledByteBufAllocator.DEFAULT.buffer(bodyLength);
+                retainedBody.writeBytes(body, bodyOffset, bodyLength);
+            }
+        }
+        public void release() {
+            if (retainedBody != null) {
+                retainedBody.release();
+                retainedBody = null;
+            }
         }
         public void setTypeAndContent(String mimeType, Charset charset, byte[] content) throws IOException {
-            EntityBuilder builder = EntityBuilder.create()
-                            .setBinary(content)
-                            .setContentType(org.apache.http.entity.ContentType.create(mimeType, charset));
-            this.content = builder.build();
+            setTypeAndContent(mimeType, charset, content, 0, content.length);
+        }
+        /**
+         * Use a part of a byte array as the content, without copying it. The array must not be modified
+         * until the request is done.
+         * <p>If the sender uses compression, the content is compressed in a buffer owned by the current thread,
+         * that will be reused for its next request.</p>
+         */
+        public void setTypeAndContent(String mimeType, Charset charset, byte[] content, int offset, int length) throws IOException {
+            org.apache.http.entity.ContentType contentType = org.apache.http.entity.ContentType.create(mimeType, charset);
+            if (compressors != null && length > 0) {
+                HttpCompressor compressor = compressors.get();
+                long startCpu = cpuTime();
+                int compressedLength = compressor.compress(content, offset, length);
+                compressionTime.update(cpuTime() - startCpu, TimeUnit.NANOSECONDS);
+                // In percent of the original size
+                compressionRatio.update(compressedLength * 100L / length);
+                ByteArrayEntity entity = new ByteArrayEntity(compressor.getBuffer(), 0, compressedLength, contentType);
+                entity.setContentEncoding(compressor.getEncoding());
+                this.content = entity;
+                setBody(compressor.getBuffer(), 0, compressedLength);
+            } else {
+                this.content = new ByteArrayEntity(content, offset, length, contentType);
+                setBody(content, offset, length);
+            }
         }
     }
 
@@ -138,19 +220,44 @@ public abstract class AbstractHttpSender extends Sender {
 
     };
 
-    protected class HttpResponse implements Closeable {
-        private final HttpHost host;
-        private final CloseableHttpResponse response;
+    protected abstract class HttpResponse implements Closeable {
+        private final String host;
         private final IOException socketException;
         private final GeneralSecurityException sslexception;
 
-        private HttpResponse(HttpHost host, CloseableHttpResponse response, IOException socketException, GeneralSecurityException sslexception) {
+        private HttpResponse(String host, IOException socketException, GeneralSecurityException sslexception) {
             super();
             this.host = host;
-            this.response = response;
             this.socketException = socketException;
             this.sslexception = sslexception;
         }
+        public abstract String getMimeType();
+        public String getHost() {
+            return host;
+        }
+        public abstract void close();
+        public abstract Reader getContentReader() throws IOException;
+        public abstract int getStatus();
+        public abstract String getStatusMessage();
+        public boolean isConnexionFailed() {
+            return socketException != null || sslexception != null;
+        }
+        public IOException getSocketException() {
+            return socketException;
+        }
+        public GeneralSecurityException getSslexception() {
+            return sslexception;
+        }
+    }
+
+    private class ApacheHttpResponse extends HttpResponse {
+        private final CloseableHttpResponse response;
+
+        private ApacheHttpResponse(HttpHost host, CloseableHttpResponse response, IOException socketException, GeneralSecurityException sslexception) {
+            super(host.toURI(), socketException, sslexception);
+            this.response = response;
+        }
+        @Override
         public String getMimeType() {
             HttpEntity resultBody = response.getEntity();
             org.apache.http.entity.ContentType ct = org.apache.http.entity.ContentType.get(resultBody);
@@ -160,9 +267,7 @@ public abstract class AbstractHttpSender extends Sender {
                 return "";
             }
         }
-        public String getHost() {
-            return host.toURI();
-        }
+        @Override
         public void close() {
             try {
                 if (response != null) {
@@ -172,6 +277,7 @@ public abstract class AbstractHttpSender extends Sender {
                 throw new UncheckedIOException(e);
             }
         }
+        @Override
         public Reader getContentReader() throws IOException {
             HttpEntity resultBody = response.getEntity();
             org.apache.http.entity.ContentType ct = org.apache.http.entity.ContentType.get(resultBody);
@@ -181,20 +287,46 @@ public abstract class AbstractHttpSender extends Sender {
             }
             return new InputStreamReader(resultBody.getContent(), charset);
         }
+        @Override
         public int getStatus() {
             return response.getStatusLine().getStatusCode();
         }
+        @Override
         public String getStatusMessage() {
             return response.getStatusLine().getReasonPhrase();
         }
-        public boolean isConnexionFailed() {
-            return socketException != null || sslexception != null;
+    }
+
+    private class NettyHttpResponse extends HttpResponse {
+        private final FullHttpResponse response;
+
+        private NettyHttpResponse(URL host, FullHttpResponse response, IOException socketException, GeneralSecurityException sslexception) {
+            super(host.getProtocol() + "://" + host.getHost() + ":" + host.getPort(), socketException, sslexception);
+            this.response = response;
         }
-        public IOException getSocketException() {
-            return socketException;
+        @Override
+        public String getMimeType() {
+            CharSequence mimeType = HttpUtil.getMimeType(response);
+            return mimeType != null ? mimeType.toString() : "";
         }
-        public GeneralSecurityException getSslexception() {
-            return sslexception;
+        @Override
+        public void close() {
+            if (response != null && response.refCnt() > 0) {
+                response.release();
+            }
+        }
+        @Override
+        public Reader getContentReader() {
+            Charset charset = HttpUtil.getCharset(response, Charset.defaultCharset());
+            return new InputStreamReader(new ByteBufInputStream(response.content()), charset);
+        }
+        @Override
+        public int getStatus() {
+            return response.status().code();
+        }
+        @Override
+        public String getStatusMessage() {
+            return response.status().reasonPhrase();
         }
     }
 
@@ -234,24 +366,53 @@ public abstract class AbstractHttpSender extends Sender {
     // Beans
     private final int timeout;
     private CredentialsProvider credsProvider = null;
+    private UsernamePasswordCredentials credentials = null;
 
     private CloseableHttpClient client = null;
     protected final URL[] endPoints;
 
+    // The non blocking client settings
+    private final boolean withNetty;
+    private final int connections;
+    private final int pipelining;
+    private final String authorization;
+    private NettyHttpClient nettyClient = null;
+    private java.util.Timer timer = null;
+
+    // Compression settings, the compressors are used by a single thread
+    private final String compression;
+    private final int compressionLevel;
+    private ThreadLocal<HttpCompressor> compressors = null;
+    private final ThreadMXBean threadsBean = ManagementFactory.getThreadMXBean();
+    private Histogram compressionRatio;
+    private Timer compressionTime;
+
+    private long cpuTime() {
+        return threadsBean.isCurrentThreadCpuTimeSupported() ? threadsBean.getCurrentThreadCpuTime() : System.nanoTime();
+    }
+
     public AbstractHttpSender(Builder<? extends AbstractHttpSender> builder) {
         super(builder);
         timeout = builder.timeout;
+        compression = builder.compression;
+        compressionLevel = builder.compressionLevel;
         endPoints = Helpers.stringsToUrl(builder.destinations, builder.port, builder.protocol, logger);
         // Two names for login/user
         String user = builder.user != null ? builder.user : builder.login;
         if (user != null && builder.password != null) {
             credsProvider = new BasicCredentialsProvider();
+            credentials = new UsernamePasswordCredentials(user, builder.password);
             for(URL i: endPoints) {
-                credsProvider.setCredentials(
-                                             new AuthScope(i.getHost(), i.getPort()), 
-                                             new UsernamePasswordCredentials(user, builder.password));
+                addEndpointCredentials(i);
             }
+            // The netty client sends the credentials preemptively
+            authorization = "Basic " + Base64.getEncoder().encodeToString((user + ":" + builder.password).getBytes(StandardCharsets.UTF_8));
+        } else {
+            authorization = null;
         }
+        withNetty = builder.nettyClient;
+        connections = builder.connections;
+        pipelining = builder.pipelining;
 
     }
 
@@ -261,6 +422,29 @@ public abstract class AbstractHttpSender extends Sender {
             if(endPoints.length == 0) {
                 return false;
             }
+            timer = properties.timer;
+
+            if (compression != null && ! "none".equalsIgnoreCase(compression)) {
+                if (HttpCompressor.getCompressor(compression, compressionLevel) == null) {
+                    logger.error("Unknown compression: {}", compression);
+                    return false;
+                }
+                compressors = ThreadLocal.withInitial(() -> HttpCompressor.getCompressor(compression, compressionLevel));
+                compressionRatio = Properties.metrics.histogram("sender." + getName() + ".compressionRatio");
+                compressionTime = Properties.metrics.timer("sender." + getName() + ".compressionTime");
+            }
+
+            if (withNetty) {
+                try {
+                    SSLContext ssl = properties.ssl != null ? properties.ssl : SSLContext.getDefault();
+                    nettyClient = new NettyHttpClient(ssl, timeout, connections > 0 ? connections : getThreads() + 1, pipelining);
+                    return true;
+                } catch (NoSuchAlgorithmException e) {
+                    logger.error("Can't build SSL context: {}", Helpers.resolveThrowableException(e));
+                    logger.catching(Level.DEBUG, e);
+                    return false;
+                }
+            }
 
             // The HTTP connection management
             HttpClientBuilder clientBuilder = HttpClientBuilder.create();
@@ -273,8 +457,8 @@ public abstract class AbstractHttpSender extends Sender {
                             .register("https", new SSLConnectionSocketFactory(properties.ssl))
                             .build();
             PoolingHttpClientConnectionManager cm = new PoolingHttpClientConnectionManager(registry);
-            cm.setMaxTotal(getThreads() + 1);
-            cm.setDefaultMaxPerRoute(getThreads() + 1);
+            cm.setMaxTotal(connections > 0 ? connections * endPoints.length : getThreads() + 1);
+            cm.setDefaultMaxPerRoute(connections > 0 ? connections : getThreads() + 1);
             cm.setValidateAfterInactivity(timeout * 1000);
             clientBuilder.setConnectionManager(cm);
 
@@ -314,7 +498,109 @@ public abstract class AbstractHttpSender extends Sender {
         }
     }
 
+    /**
+     * @return true if the requests are sent without blocking, using {@link #doRequestAsync(HttpRequest)}
+     */
+    protected boolean isAsyncClient() {
+        return nettyClient != null;
+    }
+
+    /**
+     * Run a task after a delay, without using a sender thread.
+     */
+    protected void schedule(Runnable task, long delay, TimeUnit unit) {
+        if (nettyClient != null) {
+            nettyClient.schedule(task, delay, unit);
+        } else {
+            timer.schedule(new TimerTask() {
+                @Override
+                public void run() {
+                    // The task might send a blocking request, the shared timer must not wait for it
+                    CompletableFuture.runAsync(task);
+                }
+            }, unit.toMillis(delay));
+        }
+    }
+
+    /**
+     * Allow the credentials to be sent to an endpoint that was not in the destinations
+     */
+    protected void addEndpointCredentials(URL endpoint) {
+        if (credsProvider != null) {
+            credsProvider.setCredentials(new AuthScope(endpoint.getHost(), endpoint.getPort()), credentials);
+        }
+    }
+
+    @Override
+    protected void customStopSending() {
+        if (nettyClient != null) {
+            nettyClient.close();
+        }
+    }
+
+    /**
+     * Send a request without waiting for the response. With the blocking client, the request is sent by the current thread.
+     * <p>The content is copied before returning, so the buffers given to the request can be reused. A request
+     * sent many times should use {@link HttpRequest#retainContent()}, so it's copied only once.</p>
+     * @param therequest the request to send
+     * @return the response, never completed exceptionally
+     */
+    protected CompletableFuture<HttpResponse> doRequestAsync(HttpRequest therequest) {
+        if (nettyClient == null) {
+            return CompletableFuture.completedFuture(doRequest(therequest));
+        }
+        URL url = therequest.url;
+        ByteBuf content;
+        if (therequest.retainedBody != null) {
+            content = therequest.retainedBody.retainedDuplicate();
+        } else if (therequest.body != null) {
+            content = PooledByteBufAllocator.DEFAULT.buffer(therequest.bodyLength);
+            content.writeBytes(therequest.body, therequest.bodyOffset, therequest.bodyLength);
+        } else {
+            content = Unpooled.EMPTY_BUFFER;
+        }
+        FullHttpRequest request = new DefaultFullHttpRequest(io.netty.handler.codec.http.HttpVersion.valueOf(therequest.httpVersion.toString()),
+                                                             HttpMethod.valueOf(therequest.verb), url.getPath(), content);
+        HttpHeaders headers = request.headers();
+        headers.set(HttpHeaderNames.HOST, url.getHost() + (url.getPort() > 0 ? ":" + url.getPort() : ""));
+        headers.set(HttpHeaderNames.USER_AGENT, "LogHub-HttpClient");
+        headers.setInt(HttpHeaderNames.CONTENT_LENGTH, content.readableBytes());
+        if (therequest.content != null && therequest.content.getContentType() != null) {
+            headers.set(HttpHeaderNames.CONTENT_TYPE, therequest.content.getContentType().getValue());
+        }
+        if (therequest.content != null && therequest.content.getContentEncoding() != null) {
+            headers.set(HttpHeaderNames.CONTENT_ENCODING, therequest.content.getContentEncoding().getValue());
+        }
+        if (authorization != null) {
+            headers.set(HttpHeaderNames.AUTHORIZATION, authorization);
+        }
+        therequest.headers.forEach(headers::set);
+        return nettyClient.execute(url, request).handle((r, e) -> {
+            if (e == null) {
+                return new NettyHttpResponse(url, r, null, null);
+            }
+            Throwable failure = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            Throwable rootCause = failure;
+            while (rootCause.getCause() != null){
+                rootCause = rootCause.getCause();
+            };
+            if (rootCause instanceof GeneralSecurityException) {
+                logger.error("Secure comunication with {} failed: {}", url, Helpers.resolveThrowableException(rootCause));
+                logger.catching(Level.DEBUG, rootCause);
+                return new NettyHttpResponse(url, null, null, (GeneralSecurityException) rootCause);
+            } else {
+                logger.error("Comunication with {} failed: {}", url, Helpers.resolveThrowableException(failure));
+                logger.catching(Level.DEBUG, failure);
+                IOException ioex = failure instanceof IOException ? (IOException) failure : new IOException(failure);
+                return new NettyHttpResponse(url, null, ioex, null);
+            }
+        });
+    }
+
     protected HttpResponse doRequest(HttpRequest therequest) {
+        if (nettyClient != null) {
+            return doRequestAsync(therequest).join();
+        }
 
         HttpClientContext context = HttpClientContext.create();
         if (credsProvider != null) {
@@ -332,10 +618,10 @@ public abstract class AbstractHttpSender extends Sender {
                             therequest.url.getProtocol());
         try {
             CloseableHttpResponse response = client.execute(host, request, context);
-            return new HttpResponse(host, response, null, null);
+            return new ApacheHttpResponse(host, response, null, null);
         } catch (ConnectionPoolTimeoutException e) {
             logger.error("All connections slots to {} used.", host);
-            return new HttpResponse(host, null, e, null);
+            return new ApacheHttpResponse(host, null, e, null);
         } catch (HttpHostConnectException e) {
             String message = "";
             try {
@@ -350,7 +636,7 @@ public abstract class AbstractHttpSender extends Sender {
             }
             logger.error(message);
             logger.catching(Level.DEBUG, e.getCause());
-            return new HttpResponse(host, null, e, null);
+            return new ApacheHttpResponse(host, null, e, null);
         } catch (IOException e) {
             Throwable rootCause = e;
             while (rootCause.getCause() != null){
@@ -360,11 +646,11 @@ public abstract class AbstractHttpSender extends Sender {
             if (rootCause instanceof GeneralSecurityException) {
                 logger.error("Secure comunication with {} failed: {}", host, Helpers.resolveThrowableException(rootCause));
                 logger.catching(Level.DEBUG, rootCause);
-                return new HttpResponse(host, null, null, (GeneralSecurityException) rootCause);
+                return new ApacheHttpResponse(host, null, null, (GeneralSecurityException) rootCause);
             } else {
                 logger.error("Comunication with {} failed: {}", host, Helpers.resolveThrowableException(e));
                 logger.catching(Level.DEBUG, e);
-                return new HttpResponse(host, null, e, null);
+                return new ApacheHttpResponse(host, null, e, null);
             }
         }
     };
@@ -0,0 +1,85 @@
+package loghub.senders;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compute the size of the next batches from the result of the previous ones.
+ * <p>The batch grows by 10% when a request is faster than the target latency, it shrinks by 25% when
+ * it's slower and it's halved when the destination rejects it because it's overloaded. The size is also
+ * limited by a maximum number of bytes, using the mean size of the events already sent.</p>
+ */
+class AdaptiveBatchSize {
+
+    // Weight of the last batch in the mean event size
+    private static final double ALPHA = 0.2;
+
+    private final int minSize;
+    private final int maxSize;
+    private final long maxBytes;
+    private final long targetLatency;
+
+    private double size;
+    private double eventBytes = 0;
+    private volatile int limit;
+
+    /**
+     * @param initialSize the size of the first batch
+     * @param minSize the minimum number of events in a batch
+     * @param maxSize the maximum number of events in a batch
+     * @param maxBytes the maximum size of a batch in bytes
+     * @param targetLatency the wanted duration of a request, in milliseconds
+     */
+    AdaptiveBatchSize(int initialSize, int minSize, int maxSize, long maxBytes, long targetLatency) {
+        this.minSize = Math.max(1, minSize);
+        this.maxSize = Math.max(this.minSize, maxSize);
+        this.maxBytes = maxBytes;
+        this.targetLatency = TimeUnit.MILLISECONDS.toNanos(targetLatency);
+        this.size = Math.min(this.maxSize, Math.max(this.minSize, initialSize));
+        this.limit = (int) size;
+    }
+
+    /**
+     * @return the current maximum number of events in a batch
+     */
+    int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Called after a successful request.
+     * @param events the number of events sent
+     * @param bytes the size of the request
+     * @param latency the duration of the request, in nanoseconds
+     */
+    synchronized void success(int events, long bytes, long latency) {
+        if (events > 0) {
+            double lastEventBytes = (double) bytes / events;
+            eventBytes = eventBytes == 0 ? lastEventBytes : eventBytes * (1 - ALPHA) + lastEventBytes * ALPHA;
+        }
+        if (latency > targetLatency) {
+            resize(size * 0.75);
+        } else if (events >= limit) {
+            // Only grow if the batch was full, a partial batch tells nothing about a bigger one
+            resize(Math.max(size + 1, size * 1.1));
+        } else {
+            resize(size);
+        }
+    }
+
+    /**
+     * Called when a request was rejected because the destination is overloaded.
+     */
+    synchronized void rejected() {
+        resize(size * 0.5);
+    }
+
+    private void resize(double newSize) {
+        size = Math.min(maxSize, Math.max(minSize, newSize));
+        int newLimit = (int) size;
+        if (eventBytes > 0) {
+            newLimit = (int) Math.min(newLimit, maxBytes / eventBytes);
+        }
+        limit = Math.max(minSize, newLimit);
+    }
+
+}
@@ -1,5 +1,6 @@
 package loghub.senders;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.UncheckedIOException;
@@ -9,25 +10,37 @@ import java.nio.file.Paths;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.TimeZone;
+import java.util.TimerTask;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 import java.util.stream.Stream;
 
 import org.apache.logging.log4j.Level;
 
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+
 import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.json.JsonWriteFeature;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.JsonSerializer;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.module.SimpleModule;
 
 import io.netty.util.CharsetUtil;
 import loghub.BuilderClass;
@@ -62,6 +75,30 @@ public class ElasticSearch extends AbstractHttpSender {
         private String templatePath = null;
         @Setter
         private boolean withTemplate = true;
+        @Setter
+        private boolean adaptiveBatch = false;
+        @Setter
+        private int minBatchSize = 1;
+        @Setter
+        private int maxBatchSize = 5000;
+        @Setter
+        private int maxBulkBytes = 10 * 1024 * 1024;
+        @Setter
+        private int bulkLatency = 1000;
+        @Setter
+        private int maxInFlight = 2;
+        @Setter
+        private int maxRetries = 3;
+        @Setter
+        private int retryDelay = 100;
+        @Setter
+        private String deadLetter = null;
+        @Setter
+        private int failureThreshold = 3;
+        @Setter
+        private boolean discovery = false;
+        @Setter
+        private int discoveryInterval = 300;
         public Builder() {
             this.setPort(9200);
             this.setBatchSize(20);
@@ -87,6 +124,88 @@ public class ElasticSearch extends AbstractHttpSender {
 
     private static final ThreadLocal<DateFormat> ISO8601 = ThreadLocal.withInitial( () -> new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ"));
 
+    // Returned when the whole bulk was rejected
+    private static final Map<String, Object> REJECTEDBULK = Collections.singletonMap("rejected", Boolean.TRUE);
+
+    // The upper bound of the backoff, in milliseconds
+    private static final long MAXRETRYDELAY = 10000;
+
+    // Bigger bulk buffers are not reused
+    private static final int MAXKEPTBUFFER = 16 * 1024 * 1024;
+
+    /**
+     * A reusable buffer for the bulk body, the content is given to the HTTP request without a copy.
+     */
+    private static final class BulkBuffer extends ByteArrayOutputStream {
+        BulkBuffer() {
+            super(64 * 1024);
+        }
+        byte[] getBuffer() {
+            return buf;
+        }
+        void truncate(int size) {
+            count = size;
+        }
+    }
+
+    /**
+     * The result of a query to a node
+     */
+    private static final class NodeAnswer<T> {
+        private static final NodeAnswer<Object> BROKENNODE = new NodeAnswer<>(true, true, null);
+        private static final NodeAnswer<Object> NEXTNODE = new NodeAnswer<>(true, false, null);
+        // True if the next node must be tried
+        private final boolean next;
+        // True if the node itself failed
+        private final boolean broken;
+        private final T value;
+        private NodeAnswer(T value) {
+            this(false, false, value);
+        }
+        private NodeAnswer(boolean next, boolean broken, T value) {
+            this.next = next;
+            this.broken = broken;
+            this.value = value;
+        }
+        @SuppressWarnings("unchecked")
+        private static <T> NodeAnswer<T> nextNode() {
+            return (NodeAnswer<T>) NEXTNODE;
+        }
+        @SuppressWarnings("unchecked")
+        private static <T> NodeAnswer<T> brokenNode() {
+            return (NodeAnswer<T>) BROKENNODE;
+        }
+    }
+
+    /**
+     * Write the event's fields and its timestamp directly, instead of copying them in a map.
+     */
+    private static class EventSerializer extends JsonSerializer<Event> {
+        // The field used as the type, it's not sent
+        private final String typeField;
+        EventSerializer(String typeField) {
+            this.typeField = typeField;
+        }
+        @Override
+        public void serialize(Event value, JsonGenerator gen, SerializerProvider serializers) throws IOException {
+            gen.writeStartObject();
+            for (Map.Entry<String, Object> e: value.entrySet()) {
+                String key = e.getKey();
+                if ("@timestamp".equals(key) || key.equals(typeField)) {
+                    continue;
+                }
+                gen.writeFieldName(key);
+                serializers.defaultSerializeValue(e.getValue(), gen);
+            }
+            gen.writeStringField("@timestamp", ISO8601.get().format(value.getTimestamp()));
+            gen.writeEndObject();
+        }
+        @Override
+        public Class<Event> handledType() {
+            return Event.class;
+        }
+    }
+
     private final String type;
     private final String typeExpressionSrc;
     private Expression typeExpression;
@@ -97,7 +216,50 @@ public class ElasticSearch extends AbstractHttpSender {
     private final boolean withTemplate;
 
     private ThreadLocal<DateFormat> esIndexFormat;
-    private final ThreadLocal<URL[]> UrlArrayCopy;
+    private final ThreadLocal<ObjectMapper> bulkMapper;
+    private final ThreadLocal<BulkBuffer> bulkBuffer = ThreadLocal.withInitial(BulkBuffer::new);
+    // Null if the batch size is fixed
+    private final AdaptiveBatchSize batchSizer;
+    // The nodes, with their health and their bulk request slots
+    private final EndpointManager endpoints;
+    // The bulk requests slots for the whole cluster
+    private final Semaphore clusterSlots;
+    private final int discoveryInterval;
+    private TimerTask discoveryTask = null;
+    private final int maxRetries;
+    private final Function<JsonNode, Map<String, ? extends Object>> bulkReader = node -> {
+        try {
+            return json.get().readerFor(Map.class).readValue(node);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    };
+    // ES is overloaded, the batch will be smaller
+    private final Map<Integer, Function<JsonNode, Map<String, ? extends Object>>> bulkFailureHandlers = Collections.singletonMap(429, node -> {
+        logger.warn("Bulk request rejected, cluster overloaded");
+        bulkRejected();
+        return REJECTEDBULK;
+    });
+    private final long retryDelay;
+    private final String deadLetter;
+    private BlockingQueue<Event> deadLetterQueue = null;
+    // Metrics, resolved when configured
+    private Histogram bulkLimit;
+    private Meter bulkRejected;
+    private Meter bulkRetried;
+
+    /**
+     * A bulk request and the events it contains
+     */
+    private class BulkRequest {
+        private final HttpRequest request = new HttpRequest();
+        // The event futures that will be effectively sent to ES
+        private final List<EventFuture> tosend;
+        private int bytes;
+        private BulkRequest(int size) {
+            tosend = new ArrayList<>(size);
+        }
+    }
 
     public ElasticSearch(Builder builder) {
         super(builder);
@@ -119,7 +281,6 @@ public class ElasticSearch extends AbstractHttpSender {
         type = builder.type;
         typeExpressionSrc = builder.typeX;
         indexExpressionSrc = builder.indexX;
-        UrlArrayCopy = ThreadLocal.withInitial(() -> Arrays.copyOf(endPoints, endPoints.length));
         if (indexExpressionSrc == null) {
             esIndexFormat = ThreadLocal.withInitial( () -> {
                 DateFormat df = new SimpleDateFormat(builder.indexformat);
@@ -127,6 +288,30 @@ public class ElasticSearch extends AbstractHttpSender {
                 return df;
             });
         }
+        maxRetries = Math.max(0, builder.maxRetries);
+        retryDelay = Math.max(1, builder.retryDelay);
+        deadLetter = builder.deadLetter;
+        if (builder.adaptiveBatch) {
+            batchSizer = new AdaptiveBatchSize(getBatchSize(), builder.minBatchSize, builder.maxBatchSize, builder.maxBulkBytes, builder.bulkLatency);
+        } else {
+            batchSizer = null;
+        }
+        endpoints = new EndpointManager(endPoints, builder.maxInFlight, builder.failureThreshold);
+        if (builder.maxInFlight > 0) {
+            // Sized using the configured nodes, the discovered nodes don't change it
+            clusterSlots = new Semaphore(builder.maxInFlight * endPoints.length);
+        } else {
+            clusterSlots = null;
+        }
+        discoveryInterval = builder.discovery ? builder.discoveryInterval : -1;
+        // The type field is removed from the document only if it's used
+        SimpleModule bulkModule = new SimpleModule("ElasticSearch");
+        bulkModule.addSerializer(new EventSerializer(typeExpressionSrc == null ? type : null));
+        // Not using the shared factory, its codec is the last created mapper
+        bulkMapper = ThreadLocal.withInitial(() -> new ObjectMapper(new JsonFactory())
+                                             .configure(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS, false)
+                                             .configure(JsonWriteFeature.ESCAPE_NON_ASCII.mappedFeature(), true)
+                                             .registerModule(bulkModule));
     }
 
     @Override
@@ -137,21 +322,42 @@ public class ElasticSearch extends AbstractHttpSender {
             try {
                 if (typeExpressionSrc != null) {
                     processedSrc = typeExpressionSrc;
-                    typeExpression = new Expression(typeExpressionSrc, properties.groovyClassLoader, properties.formatters);
+                    typeExpression = new Expression(typeExpressionSrc, properties);
                 }
                 if (indexExpressionSrc != null) {
                     processedSrc = indexExpressionSrc;
-                    indexExpression = new Expression(indexExpressionSrc, properties.groovyClassLoader, properties.formatters);
+                    indexExpression = new Expression(indexExpressionSrc, properties);
                 }
             } catch (ExpressionException e) {
                 Expression.logError(e, processedSrc, logger);
                 return false;
             }
+            bulkLimit = Properties.metrics.histogram("sender." + getName() + ".bulkLimit");
+            bulkRejected = Properties.metrics.meter("sender." + getName() + ".bulkRejected");
+            bulkRetried = Properties.metrics.meter("sender." + getName() + ".bulkRetried");
+            if (deadLetter != null) {
+                deadLetterQueue = Optional.ofNullable(properties.outputQueues).map(i -> i.get(deadLetter)).orElse(null);
+                if (deadLetterQueue == null) {
+                    logger.error("Unknown dead letter output: {}", deadLetter);
+                    return false;
+                }
+            }
             // Check version
             int major = checkMajorVersion();
             if (major < 0) {
                 return false;
             }
+            if (discoveryInterval > 0) {
+                long period = TimeUnit.SECONDS.toMillis(discoveryInterval);
+                discoveryTask = new TimerTask() {
+                    @Override
+                    public void run() {
+                        // The query might be slow, the shared timer must not wait for it
+                        CompletableFuture.runAsync(ElasticSearch.this::discoverNodes);
+                    }
+                };
+                properties.timer.schedule(discoveryTask, period, period);
+            }
             if (withTemplate) {
                 return checkTemplate(major);
             } else {
@@ -162,6 +368,15 @@ public class ElasticSearch extends AbstractHttpSender {
         }
     }
 
+    @Override
+    protected boolean isBatchFull(Batch batch) {
+        if (batchSizer != null) {
+            return batch.getCount() >= batchSizer.getLimit() || isBatchTooBig(batch);
+        } else {
+            return super.isBatchFull(batch);
+        }
+    }
+
     @Override
     public boolean send(Event e) {
         throw new UnsupportedOperationException("Can't send single event");
@@ -169,115 +384,303 @@ public class ElasticSearch extends AbstractHttpSender {
 
     @Override
     protected void flush(Batch documents) throws SendException {
-        HttpRequest request = new HttpRequest();
-        // This list contains the event futures that will be effectively sent to ES
-        List<EventFuture> tosend = new ArrayList<EventFuture>(documents.size());
-        byte[] content = putContent(documents, tosend);
-        if (content.length == 0) {
+        List<EventFuture> pending = documents;
+        for (int attempt = 0; ; attempt++) {
+            List<EventFuture> retry = bulk(pending);
+            if (! needsRetry(retry, attempt)) {
+                break;
+            }
+            try {
+                Thread.sleep(retryDelay(attempt));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                retry.forEach(f -> f.complete(false));
+                break;
+            }
+            bulkRetried.mark(retry.size());
+            pending = retry;
+        }
+    }
+
+    @Override
+    protected CompletableFuture<?> flushAsync(Batch documents) throws SendException {
+        if (! isAsyncClient()) {
+            return super.flushAsync(documents);
+        }
+        // The cluster slot is kept during the retries, so the publisher is blocked when all nodes are busy
+        if (clusterSlots != null) {
+            try {
+                clusterSlots.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                documents.forEach(f -> f.complete(false));
+                return CompletableFuture.completedFuture(null);
+            }
+        }
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        bulkAsync(documents, 0, done);
+        return done.whenComplete((r, e) -> {
+            if (clusterSlots != null) {
+                clusterSlots.release();
+            }
+        });
+    }
+
+    /**
+     * Send a bulk request without waiting, the retries are scheduled on the HTTP client's event loop.
+     */
+    private void bulkAsync(List<EventFuture> events, int attempt, CompletableFuture<Void> done) {
+        BulkRequest bulk;
+        try {
+            bulk = prepareBulk(events);
+        } catch (SendException e) {
+            done.completeExceptionally(e);
             return;
         }
+        if (bulk == null) {
+            done.complete(null);
+            return;
+        }
+        // The bulk buffer will be reused by this thread before the failover to the next node
+        bulk.request.retainContent();
+        long start = System.nanoTime();
+        queryNodesAsync(bulk.request, "/_bulk", endpoints.select().iterator(), bulkReader, bulkFailureHandlers, null, clusterSlots != null)
+        .whenComplete((response, ex) -> {
+            bulk.request.release();
+            try {
+                if (ex != null) {
+                    done.completeExceptionally(ex);
+                    return;
+                }
+                List<EventFuture> retry = processBulk(response, bulk, System.nanoTime() - start);
+                if (needsRetry(retry, attempt)) {
+                    schedule(() -> {
+                        bulkRetried.mark(retry.size());
+                        bulkAsync(retry, attempt + 1, done);
+                    }, retryDelay(attempt), TimeUnit.MILLISECONDS);
+                } else {
+                    done.complete(null);
+                }
+            } catch (RuntimeException e) {
+                done.completeExceptionally(e);
+            }
+        });
+    }
+
+    /**
+     * Send a bulk request
+     * @param events the events to send
+     * @return the events rejected by ES that can be sent again
+     * @throws SendException
+     */
+    private List<EventFuture> bulk(List<EventFuture> events) throws SendException {
+        BulkRequest bulk = prepareBulk(events);
+        if (bulk == null) {
+            return Collections.emptyList();
+        }
+        long start = System.nanoTime();
+        Map<String, ? extends Object> response = doquery(bulk.request, "/_bulk", bulkReader, bulkFailureHandlers, null, true);
+        return processBulk(response, bulk, System.nanoTime() - start);
+    }
+
+    private boolean needsRetry(List<EventFuture> retry, int attempt) {
+        if (retry.isEmpty()) {
+            return false;
+        } else if (attempt >= maxRetries) {
+            retry.forEach(f -> failed(f, "Bulk retries exhausted"));
+            return false;
+        } else {
+            logger.debug("Retrying {} rejected documents", retry.size());
+            return true;
+        }
+    }
+
+    /**
+     * An exponential backoff with jitter, so the publishers don't retry all together
+     */
+    private long retryDelay(int attempt) {
+        long delay = Math.min(MAXRETRYDELAY, retryDelay << attempt);
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    /**
+     * Build a bulk request
+     * @param events the events to send
+     * @return the request, or null if no event can be sent
+     * @throws SendException
+     */
+    private BulkRequest prepareBulk(List<EventFuture> events) throws SendException {
+        BulkRequest bulk = new BulkRequest(events.size());
+        BulkBuffer buffer = bulkBuffer.get();
+        buffer.reset();
         try {
-            request.setTypeAndContent("application/json", CharsetUtil.UTF_8, content);
+            if (putContent(events, bulk.tosend, buffer) == 0) {
+                return null;
+            }
+            bulk.bytes = buffer.size();
+            bulk.request.setTypeAndContent("application/json", CharsetUtil.UTF_8, buffer.getBuffer(), 0, buffer.size());
         } catch (IOException e) {
             throw new SendException(e);
-        }
-        request.setVerb("POST");
-        Function<JsonNode, Map<String, ? extends Object>> reader;
-        reader = node -> {
-            try {
-                return json.get().readerFor(Map.class).readValue(node);
-            } catch (IOException e) {
-                throw new UncheckedIOException(e);
+        } finally {
+            // Don't keep a huge buffer because of a single huge batch
+            if (buffer.getBuffer().length > MAXKEPTBUFFER) {
+                bulkBuffer.remove();
             }
-        };
-        Map<String, ? extends Object> response = doquery(request, "/_bulk", reader, Collections.emptyMap(), null);
-        if (response != null && Boolean.TRUE.equals(response.get("errors"))) {
+        }
+        bulk.request.setVerb("POST");
+        return bulk;
+    }
+
+    /**
+     * Resolve the event futures from a bulk response
+     * @return the events rejected by ES that can be sent again
+     */
+    private List<EventFuture> processBulk(Map<String, ? extends Object> response, BulkRequest bulk, long latency) {
+        List<EventFuture> tosend = bulk.tosend;
+        List<EventFuture> retry = new ArrayList<>();
+        if (response == REJECTEDBULK) {
+            // Nothing was indexed, the whole bulk can be sent again
+            retry.addAll(tosend);
+        } else if (response != null && Boolean.TRUE.equals(response.get("errors"))) {
             @SuppressWarnings("unchecked")
             List<Map<String, ?>> items = (List<Map<String, ?>>) response.get("items");
             int eventIndex = 0;
             for (Map<String, ?> i: items) {
                 @SuppressWarnings("unchecked")
-                Map<String, Map<String, ? extends Object>> index = (Map<String, Map<String, ? extends Object>>) i.get("index");
-                EventFuture f = tosend.get(eventIndex);
+                Map<String, ? extends Object> index = (Map<String, ? extends Object>) i.get("index");
+                EventFuture f = tosend.get(eventIndex++);
                 if (! index.containsKey("error")) {
                     f.complete(true);
                 } else {
+                    @SuppressWarnings("unchecked")
                     Map<String, ? extends Object> error =  Optional.ofNullable((Map<String, ? extends Object>) index.get("error")).orElse(Collections.emptyMap());
                     String type = (String) error.get("type");
+                    if (isRetryable(index.get("status"), type)) {
+                        retry.add(f);
+                        continue;
+                    }
                     String errorReason = (String) error.get("reason");
                     Optional<Map<?, ?>> errorCause = Optional.ofNullable((Map<?, ?>) error.get("caused_by"));
-                    f.failure(String.format("%s %s, caused by %s %s",
+                    failed(f, String.format("%s %s, caused by %s %s",
                                             type,
                                             errorReason,
                                             errorCause.orElse(Collections.emptyMap()).get("type"), errorCause.orElse(Collections.emptyMap()).get("reason")));
                 }
             }
+            if (! retry.isEmpty()) {
+                bulkRejected();
+            } else if (batchSizer != null) {
+                batchSizer.success(tosend.size(), bulk.bytes, latency);
+            }
         } else if (response != null && Boolean.FALSE.equals(response.get("errors"))) {
-            documents.stream().forEach(i -> i.complete(true));
+            tosend.forEach(i -> i.complete(true));
+            if (batchSizer != null) {
+                batchSizer.success(tosend.size(), bulk.bytes, latency);
+            }
         } else {
-            documents.stream().forEach(i -> i.complete(false));
+            // The outcome is unknown, resending might duplicate documents
+            tosend.forEach(i -> i.complete(false));
+        }
+        if (batchSizer != null) {
+            bulkLimit.update(batchSizer.getLimit());
+        }
+        return retry;
+    }
+
+    private void bulkRejected() {
+        bulkRejected.mark();
+        if (batchSizer != null) {
+            batchSizer.rejected();
+        }
+    }
+
+    /**
+     * A document was refused because of a transient ES condition, it can be sent again
+     */
+    private boolean isRetryable(Object status, String type) {
+        return Integer.valueOf(429).equals(status)
+                        || Integer.valueOf(503).equals(status)
+                        || "es_rejected_execution_exception".equals(type);
+    }
+
+    /**
+     * A document will never be accepted, send it to the dead letter output if there is one.
+     */
+    private void failed(EventFuture f, String message) {
+        if (deadLetterQueue != null) {
+            Event copy = f.getEvent().duplicate();
+            if (copy != null) {
+                copy.putMeta("deadLetterCause", message);
+                if (! deadLetterQueue.offer(copy)) {
+                    logger.warn("Dead letter output {} full, event dropped", deadLetter);
+                    copy.end();
+                }
+            }
         }
+        f.failure(message);
     }
 
-    private byte[] putContent(List<EventFuture> events, List<EventFuture> toprocess) {
-        StringBuilder builder = new StringBuilder();
-        StringBuilder eventbuilder = new StringBuilder();
-        Map<String, String> settings = new HashMap<>(2);
-        Map<String, Object> action = Collections.singletonMap("index", settings);
-        Map<String, Object> esjson = new HashMap<>();
-        ObjectMapper jsonmapper = json.get();
+    private int putContent(List<EventFuture> events, List<EventFuture> toprocess, BulkBuffer buffer) throws IOException {
+        ObjectMapper jsonmapper = bulkMapper.get();
+        JsonGenerator gen = jsonmapper.getFactory().createGenerator(buffer);
+        gen.setCodec(jsonmapper);
         int validEvents = 0;
         for (EventFuture ef: events) {
+            Event e = ef.getEvent();
+            String indexvalue;
+            String typevalue;
             try {
-                Event e = ef.getEvent();
-                eventbuilder.setLength(0);
-                esjson.clear();
-                esjson.putAll(e);
-                esjson.put("@timestamp", ISO8601.get().format(e.getTimestamp()));
-                String indexvalue;
                 if (indexExpression != null) {
                     indexvalue = Optional.ofNullable(indexExpression.eval(e)).map( i-> i.toString()).orElse(null);
                 } else {
                     indexvalue = esIndexFormat.get().format(e.getTimestamp());
                 }
-                if (indexvalue == null || indexvalue.isEmpty()) {
-                    ef.completeExceptionally(new EncodeException("No usable index name for event"));
-                    logger.debug("No usable index name for event {}", e);
-                    continue;
-                } else {
-                    settings.put("_index", indexvalue);
-                }
-                String typevalue;
                 if (typeExpression != null) {
                     typevalue = Optional.ofNullable(typeExpression.eval(e)).map( i-> i.toString()).orElse(null);
                 } else {
-                    typevalue = Optional.ofNullable(esjson.remove(type)).map(i -> i.toString()).orElse(null);
+                    typevalue = Optional.ofNullable(e.get(type)).map(i -> i.toString()).orElse(null);
                 }
-                if (typevalue == null || typevalue.isEmpty()) {
-                    ef.completeExceptionally(new EncodeException("No usable type for event"));
-                    logger.debug("No usable type for event {}", e);
-                    continue;
-                } else {
-                    settings.put("_type", typevalue);
-                }
-                eventbuilder.append(jsonmapper.writeValueAsString(action));
-                eventbuilder.append("\n");
-                eventbuilder.append(jsonmapper.writeValueAsString(esjson));
-                eventbuilder.append("\n");
-                builder.append(eventbuilder);
+            } catch (ProcessorException ex) {
+                ef.completeExceptionally(ex);
+                logger.debug("Failed to serialized {}: {}", ef.getEvent(),Helpers.resolveThrowableException(ex));
+                continue;
+            }
+            if (indexvalue == null || indexvalue.isEmpty()) {
+                ef.completeExceptionally(new EncodeException("No usable index name for event"));
+                logger.debug("No usable index name for event {}", e);
+                continue;
+            }
+            if (typevalue == null || typevalue.isEmpty()) {
+                ef.completeExceptionally(new EncodeException("No usable type for event"));
+                logger.debug("No usable type for event {}", e);
+                continue;
+            }
+            // Where to rollback if this event can't be serialized
+            int mark = buffer.size();
+            try {
+                gen.writeStartObject();
+                gen.writeObjectFieldStart("index");
+                gen.writeStringField("_index", indexvalue);
+                gen.writeStringField("_type", typevalue);
+                gen.writeEndObject();
+                gen.writeEndObject();
+                gen.writeRaw('\n');
+                gen.writeObject(e);
+                gen.writeRaw('\n');
+                gen.flush();
                 validEvents++;
                 toprocess.add(ef);
-            } catch (JsonProcessingException | ProcessorException ex) {
+            } catch (JsonProcessingException ex) {
                 ef.completeExceptionally(ex);
                 logger.debug("Failed to serialized {}: {}", ef.getEvent(),Helpers.resolveThrowableException(ex));
-                continue;
+                // The generator is in an unknown state, drop it with the partial document
+                buffer.truncate(mark);
+                gen = jsonmapper.getFactory().createGenerator(buffer);
+                gen.setCodec(jsonmapper);
             }
         }
-        if (validEvents == 0) {
-            return new byte[] {};
-        } else {
-            return builder.toString().getBytes(CharsetUtil.UTF_8);
-        }
+        gen.close();
+        return validEvents;
     }
 
     private int checkMajorVersion() {
@@ -376,54 +779,199 @@ public class ElasticSearch extends AbstractHttpSender {
     }
 
     private <T> T doquery(HttpRequest request, String filePart, Function<JsonNode, T> transform, Map<Integer, Function<JsonNode, T>> failureHandlers, T onFailure) {
+        return doquery(request, filePart, transform, failureHandlers, onFailure, false);
+    }
+
+    /**
+     * Send a query to the first node that answers.
+     * @param limited if true, the query uses a slot and nodes without a free slot are not used
+     */
+    private <T> T doquery(HttpRequest request, String filePart, Function<JsonNode, T> transform, Map<Integer, Function<JsonNode, T>> failureHandlers, T onFailure, boolean limited) {
+        limited &= clusterSlots != null;
+        if (limited) {
+            // Wait for a free slot, once acquired at least one node has a free slot too
+            try {
+                clusterSlots.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return onFailure;
+            }
+        }
+        try {
+            return queryNodes(request, filePart, transform, failureHandlers, onFailure, limited);
+        } finally {
+            if (limited) {
+                clusterSlots.release();
+            }
+        }
+    }
+
+    private <T> T queryNodes(HttpRequest request, String filePart, Function<JsonNode, T> transform, Map<Integer, Function<JsonNode, T>> failureHandlers, T onFailure, boolean limited) {
         if (request == null) {
             request = new HttpRequest();
         }
-        URL[] localendPoints = UrlArrayCopy.get();
-        Helpers.shuffleArray(localendPoints);
-        for (URL endPoint: localendPoints) {
-            URL newEndPoint;
-            try {
-                newEndPoint = new URL(endPoint.getProtocol(), endPoint.getHost(), endPoint.getPort(), endPoint.getFile() + filePart);
-            } catch (MalformedURLException e1) {
+        for (EndpointManager.Node node: endpoints.select()) {
+            if (! node.tryAcquire(limited)) {
+                // Already busy, try another one
+                continue;
+            }
+            URL newEndPoint = nodeUrl(node.url, filePart);
+            if (newEndPoint == null) {
+                node.release();
                 continue;
             }
             request.setUrl(newEndPoint);
+            long start = System.nanoTime();
+            NodeAnswer<T> answer = NodeAnswer.brokenNode();
             try (HttpResponse response = doRequest(request)) {
-                if (response.isConnexionFailed()) {
-                    continue;
-                }
-                int status = response.getStatus();
-                String responseMimeType = response.getMimeType();
-                if ((status - status % 100) == 200 && "application/json".equals(responseMimeType)) {
-                    JsonNode node = json.get().readTree(response.getContentReader());
-                    return transform.apply(node);
-                } else if ((status - status % 100) == 200 || (status - status % 100) == 500) {
-                    // This node return 200 but not a application/json, or a 500
-                    // Looks like this node is broken try another one
-                    logger.warn("Broken node: {}, returned '{} {}' {}", newEndPoint, status, response.getStatusMessage(), response.getMimeType());
-                    continue;
-                } else if (failureHandlers.containsKey(status) && "application/json".equals(responseMimeType)){
-                    JsonNode node = json.get().readTree(response.getContentReader());
-                    // Only ES failures can be handled
-                    return failureHandlers.get(status).apply(node);
-                } else if ("application/json".equals(responseMimeType)){
-                    JsonNode node = json.get().readTree(response.getContentReader());
-                    logger.error("Invalid query: {} {}, return '{} {}'", request.getVerb(), newEndPoint, status, response.getStatusMessage());
-                    logger.debug("error body: {}", () -> node.toString());
-                } else {
-                    // Valid, but not good request, useless to try something else
-                    logger.error("Invalid query: {} {}, return '{} {}', {}", request.getVerb(), newEndPoint, status, response.getStatusMessage(), responseMimeType);
-                    break;
-                }
+                answer = readAnswer(request, newEndPoint, response, transform, failureHandlers, onFailure);
             } catch (IOException | UncheckedIOException e) {
-                logger.error("Can't communicate with node {}:{}: {}", endPoint.getHost(), endPoint.getPort(), e.getMessage());
+                logger.error("Can't communicate with node {}:{}: {}", newEndPoint.getHost(), newEndPoint.getPort(), e.getMessage());
                 logger.catching(Level.DEBUG, e);
+            } finally {
+                nodeDone(node, answer, System.nanoTime() - start);
+            }
+            if (! answer.next) {
+                return answer.value;
             }
         }
         return onFailure;
     }
 
+    /**
+     * The same as {@link #queryNodes(HttpRequest, String, Function, Map, Object, boolean)}, but without waiting for
+     * the responses. Each node is tried once the previous one failed.
+     */
+    private <T> CompletableFuture<T> queryNodesAsync(HttpRequest request, String filePart, Iterator<EndpointManager.Node> nodes,
+                                                     Function<JsonNode, T> transform, Map<Integer, Function<JsonNode, T>> failureHandlers, T onFailure,
+                                                     boolean limited) {
+        while (nodes.hasNext()) {
+            EndpointManager.Node node = nodes.next();
+            if (! node.tryAcquire(limited)) {
+                // Already busy, try another one
+                continue;
+            }
+            URL newEndPoint = nodeUrl(node.url, filePart);
+            if (newEndPoint == null) {
+                node.release();
+                continue;
+            }
+            request.setUrl(newEndPoint);
+            long start = System.nanoTime();
+            return doRequestAsync(request).thenCompose(response -> {
+                NodeAnswer<T> answer = NodeAnswer.brokenNode();
+                try (HttpResponse r = response) {
+                    answer = readAnswer(request, newEndPoint, r, transform, failureHandlers, onFailure);
+                } catch (IOException | UncheckedIOException e) {
+                    logger.error("Can't communicate with node {}:{}: {}", newEndPoint.getHost(), newEndPoint.getPort(), e.getMessage());
+                    logger.catching(Level.DEBUG, e);
+                } finally {
+                    nodeDone(node, answer, System.nanoTime() - start);
+                }
+                if (answer.next) {
+                    return queryNodesAsync(request, filePart, nodes, transform, failureHandlers, onFailure, limited);
+                } else {
+                    return CompletableFuture.completedFuture(answer.value);
+                }
+            });
+        }
+        return CompletableFuture.completedFuture(onFailure);
+    }
+
+    private void nodeDone(EndpointManager.Node node, NodeAnswer<?> answer, long latency) {
+        if (answer.broken) {
+            endpoints.failure(node);
+        } else if (answer.next) {
+            node.release();
+        } else {
+            node.success(latency);
+        }
+    }
+
+    private URL nodeUrl(URL endPoint, String filePart) {
+        try {
+            return new URL(endPoint.getProtocol(), endPoint.getHost(), endPoint.getPort(), endPoint.getFile() + filePart);
+        } catch (MalformedURLException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Check the response of a node
+     * @return the value to return or if the next node must be tried
+     * @throws IOException
+     */
+    private <T> NodeAnswer<T> readAnswer(HttpRequest request, URL newEndPoint, HttpResponse response, Function<JsonNode, T> transform, Map<Integer, Function<JsonNode, T>> failureHandlers, T onFailure) throws IOException {
+        if (response.isConnexionFailed()) {
+            return NodeAnswer.brokenNode();
+        }
+        int status = response.getStatus();
+        String responseMimeType = response.getMimeType();
+        if ((status - status % 100) == 200 && "application/json".equals(responseMimeType)) {
+            JsonNode node = json.get().readTree(response.getContentReader());
+            return new NodeAnswer<>(transform.apply(node));
+        } else if ((status - status % 100) == 200 || (status - status % 100) == 500) {
+            // This node return 200 but not a application/json, or a 500
+            // Looks like this node is broken try another one
+            logger.warn("Broken node: {}, returned '{} {}' {}", newEndPoint, status, response.getStatusMessage(), response.getMimeType());
+            return NodeAnswer.brokenNode();
+        } else if (failureHandlers.containsKey(status) && "application/json".equals(responseMimeType)){
+            JsonNode node = json.get().readTree(response.getContentReader());
+            // Only ES failures can be handled
+            return new NodeAnswer<>(failureHandlers.get(status).apply(node));
+        } else if ("application/json".equals(responseMimeType)){
+            JsonNode node = json.get().readTree(response.getContentReader());
+            logger.error("Invalid query: {} {}, return '{} {}'", request.getVerb(), newEndPoint, status, response.getStatusMessage());
+            logger.debug("error body: {}", () -> node.toString());
+            return NodeAnswer.nextNode();
+        } else {
+            // Valid, but not good request, useless to try something else
+            logger.error("Invalid query: {} {}, return '{} {}', {}", request.getVerb(), newEndPoint, status, response.getStatusMessage(), responseMimeType);
+            return new NodeAnswer<>(onFailure);
+        }
+    }
+
+    /**
+     * Update the nodes using the HTTP publish addresses of the cluster nodes
+     */
+    private void discoverNodes() {
+        URL reference = endPoints[0];
+        Function<JsonNode, List<URL>> transform = node -> {
+            List<URL> found = new ArrayList<>();
+            node.path("nodes").forEach(n -> {
+                // Either ip:port or hostname/ip:port
+                String address = n.path("http").path("publish_address").asText("");
+                int slash = address.indexOf('/');
+                int colon = address.lastIndexOf(':');
+                if (colon <= 0) {
+                    return;
+                }
+                String host = slash > 0 ? address.substring(0, slash) : address.substring(0, colon);
+                try {
+                    URL url = new URL(reference.getProtocol(), host, Integer.parseInt(address.substring(colon + 1)), reference.getFile());
+                    addEndpointCredentials(url);
+                    found.add(url);
+                } catch (MalformedURLException | NumberFormatException e) {
+                    logger.warn("Invalid node address: {}", address);
+                }
+            });
+            return found;
+        };
+        List<URL> found = doquery(null, "/_nodes/http", transform, Collections.emptyMap(), Collections.emptyList());
+        if (! found.isEmpty()) {
+            logger.debug("Discovered nodes: {}", found);
+            endpoints.update(found);
+        }
+    }
+
+    @Override
+    protected void customStopSending() {
+        if (discoveryTask != null) {
+            discoveryTask.cancel();
+        }
+        super.customStopSending();
+    }
+
     @Override
     public String getSenderName() {
         return "ElasticSearch";
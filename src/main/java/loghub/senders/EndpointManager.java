@@ -0,0 +1,222 @@
+package loghub.senders;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Choose the node used for a query, using the health of each node.
+ * <p>A node is ejected after too many consecutive failures. Once the ejection delay is elapsed, a single probe
+ * query is allowed, if it fails the node is ejected again for twice as long. The other nodes are ordered by load
+ * and latency, so the least loaded and fastest nodes are used first.</p>
+ */
+class EndpointManager {
+
+    private static final double LATENCYWEIGHT = 0.3;
+    // Ejection delays, in milliseconds
+    private static final long MINEJECTION = 1000;
+    private static final long MAXEJECTION = 60000;
+
+    private enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN,
+    }
+
+    static class Node {
+        final URL url;
+        private final int maxInFlight;
+        private final AtomicInteger inFlight = new AtomicInteger(0);
+        private State state = State.CLOSED;
+        private int failures = 0;
+        private long retryAt = 0;
+        private long ejection = MINEJECTION;
+        // Exponentially weighted average latency, in nanoseconds, 0 if unknown
+        private volatile double latency = 0;
+
+        private Node(URL url, int maxInFlight) {
+            this.url = url;
+            this.maxInFlight = maxInFlight;
+        }
+
+        /**
+         * Reserve a query slot on this node, it must be freed using {@link #success(long)},
+         * {@link EndpointManager#failure(Node)} or {@link #release()}.
+         * @param limited if false, the slot is reserved even if the node is busy
+         * @return false if the node is already busy
+         */
+        boolean tryAcquire(boolean limited) {
+            if (! limited || maxInFlight <= 0) {
+                inFlight.incrementAndGet();
+                return true;
+            }
+            int current;
+            do {
+                current = inFlight.get();
+                if (current >= maxInFlight) {
+                    return false;
+                }
+            } while (! inFlight.compareAndSet(current, current + 1));
+            return true;
+        }
+
+        /**
+         * The query was answered
+         */
+        synchronized void success(long latencyNanos) {
+            inFlight.decrementAndGet();
+            latency = latency == 0 ? latencyNanos : latency * (1 - LATENCYWEIGHT) + latencyNanos * LATENCYWEIGHT;
+            failures = 0;
+            state = State.CLOSED;
+            ejection = MINEJECTION;
+        }
+
+        /**
+         * The query failed because of the node
+         */
+        synchronized void failure(int threshold) {
+            inFlight.decrementAndGet();
+            failures++;
+            if (state == State.HALF_OPEN) {
+                ejection = Math.min(MAXEJECTION, ejection * 2);
+                eject();
+            } else if (state == State.CLOSED && failures >= threshold) {
+                eject();
+            }
+        }
+
+        /**
+         * The query ended, but says nothing about the node health
+         */
+        synchronized void release() {
+            inFlight.decrementAndGet();
+            if (state == State.HALF_OPEN) {
+                // The probe was not conclusive, try again later
+                eject();
+            }
+        }
+
+        private void eject() {
+            state = State.OPEN;
+            retryAt = System.currentTimeMillis() + ejection;
+        }
+
+        /**
+         * @return CLOSED if the node can be used, HALF_OPEN if it must be probed, OPEN if it must not be used
+         */
+        private synchronized State check(long now) {
+            if (state != State.CLOSED && retryAt <= now) {
+                // Only one probe at a time, but a lost probe is tried again later
+                state = State.HALF_OPEN;
+                retryAt = now + ejection;
+                return State.HALF_OPEN;
+            } else {
+                return state == State.CLOSED ? State.CLOSED : State.OPEN;
+            }
+        }
+
+        private synchronized long getRetryAt() {
+            return retryAt;
+        }
+
+        private double getScore() {
+            // 1 ms is added, so that unloaded nodes are not all equal to 0
+            return (latency + TimeUnit.MILLISECONDS.toNanos(1)) * (inFlight.get() + 1);
+        }
+
+        @Override
+        public String toString() {
+            return url.toString();
+        }
+    }
+
+    private final int maxInFlight;
+    private final int failureThreshold;
+    private volatile List<Node> nodes;
+
+    /**
+     * @param endpoints the initial nodes
+     * @param maxInFlight the maximum number of queries for each node, 0 or less for no limit
+     * @param failureThreshold the number of consecutive failures that eject a node
+     */
+    EndpointManager(URL[] endpoints, int maxInFlight, int failureThreshold) {
+        this.maxInFlight = maxInFlight;
+        this.failureThreshold = Math.max(1, failureThreshold);
+        List<Node> newNodes = new ArrayList<>(endpoints.length);
+        for (URL endpoint: endpoints) {
+            newNodes.add(new Node(endpoint, maxInFlight));
+        }
+        nodes = Collections.unmodifiableList(newNodes);
+    }
+
+    /**
+     * @return the nodes to try for a query, in the preferred order
+     */
+    List<Node> select() {
+        List<Node> current = nodes;
+        long now = System.currentTimeMillis();
+        List<Node> probes = new ArrayList<>();
+        List<Node> usable = new ArrayList<>(current.size());
+        List<Node> ejected = new ArrayList<>();
+        for (Node n: current) {
+            switch (n.check(now)) {
+            case CLOSED:
+                usable.add(n);
+                break;
+            case HALF_OPEN:
+                probes.add(n);
+                break;
+            case OPEN:
+                ejected.add(n);
+                break;
+            }
+        }
+        // Shuffled first, so the equivalent nodes are used evenly
+        Collections.shuffle(usable, ThreadLocalRandom.current());
+        usable.sort(Comparator.comparingDouble(Node::getScore));
+        if (usable.isEmpty() && probes.isEmpty()) {
+            // Everything is broken, try anyway the nodes that will be back the soonest
+            ejected.sort(Comparator.comparingLong(Node::getRetryAt));
+            return ejected;
+        } else {
+            // The probes are tried first, or they might never be used
+            probes.addAll(usable);
+            return probes;
+        }
+    }
+
+    void failure(Node node) {
+        node.failure(failureThreshold);
+    }
+
+    /**
+     * Replace the known nodes, the health of the nodes already known is kept.
+     * @param endpoints the new nodes, ignored if empty
+     */
+    synchronized void update(Collection<URL> endpoints) {
+        if (endpoints.isEmpty()) {
+            return;
+        }
+        Map<String, Node> known = new HashMap<>(nodes.size());
+        // URL.equals resolve the host, the string form is used instead
+        nodes.forEach(n -> known.put(n.url.toString(), n));
+        List<Node> newNodes = new ArrayList<>(endpoints.size());
+        for (URL endpoint: endpoints) {
+            newNodes.add(known.getOrDefault(endpoint.toString(), new Node(endpoint, maxInFlight)));
+        }
+        nodes = Collections.unmodifiableList(newNodes);
+    }
+
+    List<Node> getNodes() {
+        return nodes;
+    }
+
+}
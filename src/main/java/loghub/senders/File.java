@@ -1,30 +1,61 @@
 package loghub.senders;
 
 import java.io.IOException;
-import java.nio.channels.AsynchronousFileChannel;
-import java.nio.channels.CompletionHandler;
-import java.nio.channels.NonWritableChannelException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.GZIPOutputStream;
 
 import org.apache.logging.log4j.Level;
 
-import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
+import com.github.luben.zstd.ZstdOutputStream;
+
+import io.netty.util.concurrent.DefaultThreadFactory;
 import loghub.BuilderClass;
 import loghub.Event;
 import loghub.Helpers;
+import loghub.ThreadBuilder;
 import loghub.configuration.Properties;
 import loghub.encoders.EncodeException;
 import lombok.Getter;
 import lombok.Setter;
 
+/**
+ * Write events to a file. The events are accumulated in a direct buffer while the previous one is written, so many
+ * events are written with a single system call and acknowledged together (group commit).
+ * <p>The file can be rotated on size or age, the rotated files are named using {@link String#format(String, Object...)}
+ * with the rotation date and a sequence number as arguments, and can be compressed. If a rotation fails, the
+ * events are still written to the current file and the rotation is tried again a minute later.</p>
+ */
 @AsyncSender
 @BuilderClass(File.Builder.class)
 public class File extends Sender {
 
+    public enum Fsync {
+        // Let the OS flush the file
+        NEVER,
+        // Flush after each write, before acknowledging the events
+        COMMIT,
+        // Flush every fsyncInterval milliseconds
+        PERIODIC,
+    }
+
+    private static final long ROTATIONRETRY = TimeUnit.MINUTES.toMillis(1);
+
     public static class Builder extends Sender.Builder<File> {
         @Setter
         private String fileName;
@@ -32,6 +63,20 @@ public class File extends Sender {
         private String separator = "";
         @Setter
         private boolean truncate = false;
+        @Setter
+        private int bufferSize = 1024 * 1024;
+        @Setter
+        private long rotateSize = -1;
+        @Setter
+        private int rotateInterval = -1;
+        @Setter
+        private String rotatePattern = null;
+        @Setter
+        private String compressRotated = null;
+        @Setter
+        private String fsync = Fsync.NEVER.name();
+        @Setter
+        private int fsyncInterval = 1000;
         @Override
         public File build() {
             return new File(this);
@@ -40,29 +85,58 @@ public class File extends Sender {
     public static Builder getBuilder() {
         return new Builder();
     }
-  
-    private final CompletionHandler<Integer, Event> handler = new CompletionHandler<Integer, Event>() {
 
-        @Override
-        public void completed(Integer result, Event event) {
-            File.this.processStatus(event, true);
+    /**
+     * Events waiting to be written
+     */
+    private static class Commit {
+        private final ByteBuffer buffer;
+        // An event bigger than the buffer
+        private ByteBuffer oversized = null;
+        private final List<Event> events = new ArrayList<>();
+        Commit(int size) {
+            buffer = ByteBuffer.allocateDirect(size);
         }
-
-        @Override
-        public void failed(Throwable ex, Event event) {
-            File.this.handleException(ex);
-            File.this.processStatus(event, false);
+        boolean isEmpty() {
+            return events.isEmpty();
         }
-
-    };
+        void clear() {
+            buffer.clear();
+            oversized = null;
+            events.clear();
+        }
+    }
 
     @Getter
     private final String fileName;
     private final byte[] separatorBytes;
     private final boolean truncate;
+    private final long rotateSize;
+    private final long rotateInterval;
+    private final String rotatePattern;
+    private final String compressRotated;
+    private final String fsyncPolicy;
+    private Fsync fsync;
+    private final long fsyncInterval;
 
-    private AsynchronousFileChannel destination;
-    private AtomicLong position;
+    // The commit being filled and the one being written
+    private Commit active;
+    private Commit writing;
+    private final ReentrantLock commitLock = new ReentrantLock();
+    private final Condition dataAvailable = commitLock.newCondition();
+    private final Condition spaceAvailable = commitLock.newCondition();
+    private volatile boolean closed = false;
+
+    // Only used by the writer thread
+    private FileChannel destination;
+    private long size;
+    private long openedAt;
+    private long lastSync;
+    private int rotationSequence = 0;
+    // Don't try again a failed rotation before this time
+    private long rotationRetry = 0;
+    private Thread writer = null;
+    private ExecutorService compressor = null;
 
     public File(Builder builder) {
         super(builder);
@@ -73,53 +147,149 @@ public class File extends Sender {
         }
         fileName = builder.fileName;
         truncate = builder.truncate;
+        active = new Commit(Math.max(4096, builder.bufferSize));
+        writing = new Commit(Math.max(4096, builder.bufferSize));
+        rotateSize = builder.rotateSize;
+        rotateInterval = builder.rotateInterval > 0 ? TimeUnit.SECONDS.toMillis(builder.rotateInterval) : -1;
+        rotatePattern = builder.rotatePattern != null ? builder.rotatePattern : fileName + ".%1$tY%1$tm%1$td%1$tH%1$tM%1$tS.%2$d";
+        compressRotated = builder.compressRotated;
+        fsyncPolicy = builder.fsync;
+        fsyncInterval = builder.fsyncInterval;
     }
 
-
     @Override
     public boolean configure(Properties properties) {
+        if (compressRotated != null && ! "gzip".equalsIgnoreCase(compressRotated) && ! "zstd".equalsIgnoreCase(compressRotated)) {
+            logger.error("Unknown compression for rotated files: {}", compressRotated);
+            return false;
+        }
         try {
-            destination = AsynchronousFileChannel.open(Paths.get(fileName), StandardOpenOption.WRITE, StandardOpenOption.CREATE);
-            // Failed to used StandardOpenOption.(APPEND vs CREATE), so truncate if need after creation
-            if (truncate) {
-                destination.truncate(0);
-            }
-            position = new AtomicLong(destination.size());
+            fsync = Fsync.valueOf(fsyncPolicy.toUpperCase(Locale.ENGLISH));
+        } catch (IllegalArgumentException | NullPointerException e) {
+            logger.error("Unknown fsync policy: {}", fsyncPolicy);
+            return false;
+        }
+        try {
+            destination = open(truncate);
         } catch (IOException | UnsupportedOperationException e) {
             logger.error("error openening output file {}: {}", fileName, Helpers.resolveThrowableException(e));
             logger.catching(Level.DEBUG, e);
             return false;
         }
-        return super.configure(properties);
+        if (super.configure(properties)) {
+            if (compressRotated != null) {
+                compressor = Executors.newSingleThreadExecutor(new DefaultThreadFactory(getName() + "Compressor", true));
+            }
+            writer = ThreadBuilder.get()
+                                  .setName(getName() + "Writer")
+                                  .setTask(this::writeLoop)
+                                  .setDaemon(true)
+                                  .build(true);
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    private FileChannel open(boolean truncate) throws IOException {
+        FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                                               truncate ? StandardOpenOption.TRUNCATE_EXISTING : StandardOpenOption.APPEND);
+        size = channel.size();
+        openedAt = System.currentTimeMillis();
+        lastSync = openedAt;
+        return channel;
     }
 
     @Override
     public boolean send(Event event) throws SendException, EncodeException {
+        byte[] msg = encode(event);
+        int length = msg.length + separatorBytes.length;
+        commitLock.lock();
         try {
-            byte[] msg = getEncoder().encode(event);
-            ByteBuf buffer = Unpooled.buffer(msg.length
-                                             + separatorBytes.length);
-            buffer.writeBytes(msg);
-            buffer.writeBytes(separatorBytes);
-            long writepose = position.getAndAdd(msg.length
-                                                + separatorBytes.length);
-            destination.write(buffer.nioBuffer(), writepose, event,
-                              handler);
+            while (true) {
+                if (closed) {
+                    logger.error("error writing event to {}: closed", fileName);
+                    processStatus(event, false);
+                    return false;
+                } else if (active.oversized == null && active.buffer.remaining() >= length) {
+                    // Nothing can follow an oversized event in the same commit, it's written after the buffer
+                    active.buffer.put(msg);
+                    active.buffer.put(separatorBytes);
+                    break;
+                } else if (active.isEmpty()) {
+                    // Too big for the buffer, written alone
+                    active.oversized = ByteBuffer.allocate(length);
+                    active.oversized.put(msg);
+                    active.oversized.put(separatorBytes);
+                    active.oversized.flip();
+                    break;
+                } else {
+                    // Wait for the writer to take this commit
+                    spaceAvailable.await();
+                }
+            }
+            active.events.add(event);
+            dataAvailable.signal();
             return true;
-        } catch (IllegalArgumentException | NonWritableChannelException e) {
-            logger.error("error writing event to {}: {}", fileName,
-                         Helpers.resolveThrowableException(e));
-            logger.catching(Level.DEBUG, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            processStatus(event, false);
             return false;
-        } 
+        } finally {
+            commitLock.unlock();
+        }
     }
 
     /**
-     * Used by unit test, don't use it
+     * The writer thread, it writes whatever was accumulated since the last write.
      */
-    @Override
-    public void close() {
+    private void writeLoop() {
+        while (true) {
+            commitLock.lock();
+            try {
+                while (active.isEmpty() && ! closed) {
+                    long wait = nextDeadline() - System.currentTimeMillis();
+                    if (wait <= 0) {
+                        break;
+                    }
+                    dataAvailable.await(wait, TimeUnit.MILLISECONDS);
+                }
+                if (active.isEmpty() && closed) {
+                    break;
+                }
+                Commit swap = writing;
+                writing = active;
+                active = swap;
+                spaceAvailable.signalAll();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } finally {
+                commitLock.unlock();
+            }
+            if (! writing.isEmpty()) {
+                write(writing);
+                writing.clear();
+            }
+            try {
+                maintain();
+            } catch (IOException e) {
+                logger.error("Failed to rotate {}: {}", fileName, Helpers.resolveThrowableException(e));
+                logger.catching(Level.DEBUG, e);
+            }
+        }
+        commitLock.lock();
         try {
+            closed = true;
+            // Failed to write them
+            active.events.forEach(e -> processStatus(e, false));
+            active.clear();
+            spaceAvailable.signalAll();
+        } finally {
+            commitLock.unlock();
+        }
+        try {
+            destination.force(true);
             destination.close();
         } catch (IOException e) {
             logger.error("Failed to close {}: {}", fileName,
@@ -128,20 +298,136 @@ public class File extends Sender {
         }
     }
 
-    @Override
-    public void customStopSending() {
-        if (destination.isOpen()) {
+    private void write(Commit commit) {
+        commit.buffer.flip();
+        ByteBuffer[] content = commit.oversized == null ? new ByteBuffer[] {commit.buffer} : new ByteBuffer[] {commit.buffer, commit.oversized};
+        boolean status;
+        try {
+            while (commit.buffer.hasRemaining() || (commit.oversized != null && commit.oversized.hasRemaining())) {
+                size += destination.write(content);
+            }
+            if (fsync == Fsync.COMMIT) {
+                destination.force(false);
+                lastSync = System.currentTimeMillis();
+            }
+            status = true;
+        } catch (IOException e) {
+            logger.error("error writing event to {}: {}", fileName,
+                         Helpers.resolveThrowableException(e));
+            logger.catching(Level.DEBUG, e);
+            status = false;
+        }
+        for (Event e: commit.events) {
+            processStatus(e, status);
+        }
+    }
+
+    /**
+     * @return when the writer must wake up for a rotation or a sync, in milliseconds
+     */
+    private long nextDeadline() {
+        long next = Long.MAX_VALUE;
+        if (rotateInterval > 0) {
+            next = Math.min(next, openedAt + rotateInterval);
+        }
+        if (fsync == Fsync.PERIODIC) {
+            next = Math.min(next, lastSync + fsyncInterval);
+        }
+        return next;
+    }
+
+    /**
+     * Do the periodic sync and the rotation
+     */
+    private void maintain() throws IOException {
+        long now = System.currentTimeMillis();
+        if (fsync == Fsync.PERIODIC && now >= lastSync + fsyncInterval) {
+            destination.force(false);
+            lastSync = now;
+        }
+        boolean rotate = (rotateSize > 0 && size >= rotateSize) || (rotateInterval > 0 && now >= openedAt + rotateInterval);
+        if (rotate && size > 0 && now >= rotationRetry) {
+            destination.force(true);
+            Path current = Paths.get(fileName);
+            Path rotated = Paths.get(String.format(rotatePattern, new Date(now), rotationSequence++));
+            // Moved while still opened, if it fails the current file is still usable
             try {
-                // The lock will not be released, as you don't release a closed file
-                destination.lock();
-                destination.force(true);
-                destination.close();
+                Files.move(current, rotated);
             } catch (IOException e) {
-                logger.error("Failed to close {}: {}", fileName,
-                             Helpers.resolveThrowableException(e));
-                logger.catching(Level.DEBUG, e);
-            } 
+                rotationRetry = now + ROTATIONRETRY;
+                throw e;
+            }
+            try {
+                destination.close();
+            } finally {
+                destination = open(false);
+            }
+            if (compressor != null) {
+                compressor.execute(() -> compress(rotated));
+            }
+        } else if (rotate) {
+            // Nothing to rotate, wait for a full interval
+            openedAt = now;
+        }
+    }
+
+    private void compress(Path rotated) {
+        Path compressed = Paths.get(rotated.toString() + ("gzip".equalsIgnoreCase(compressRotated) ? ".gz" : ".zst"));
+        try (OutputStream os = Files.newOutputStream(compressed);
+             OutputStream cos = "gzip".equalsIgnoreCase(compressRotated) ? new GZIPOutputStream(os, 64 * 1024) : new ZstdOutputStream(os)) {
+            Files.copy(rotated, cos);
+        } catch (IOException e) {
+            logger.error("Failed to compress {}: {}", rotated, Helpers.resolveThrowableException(e));
+            logger.catching(Level.DEBUG, e);
+            return;
+        }
+        try {
+            Files.delete(rotated);
+        } catch (IOException e) {
+            logger.error("Failed to delete {}: {}", rotated, Helpers.resolveThrowableException(e));
+            logger.catching(Level.DEBUG, e);
+        }
+    }
+
+    /**
+     * Stop the writer, the events already accepted are written
+     */
+    private void stopWriter() {
+        commitLock.lock();
+        try {
+            closed = true;
+            dataAvailable.signal();
+        } finally {
+            commitLock.unlock();
+        }
+        if (writer != null) {
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
         }
+        if (compressor != null) {
+            compressor.shutdown();
+            try {
+                compressor.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Used by unit test, don't use it
+     */
+    @Override
+    public void close() {
+        stopWriter();
+    }
+
+    @Override
+    public void customStopSending() {
+        stopWriter();
     }
 
     @Override
@@ -0,0 +1,139 @@
+package loghub.senders;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import com.github.luben.zstd.Zstd;
+
+/**
+ * Compress HTTP request bodies. An instance reuses its compression state and its output buffer,
+ * so it must be used by a single thread and the output is only valid until the next compression.
+ */
+abstract class HttpCompressor {
+
+    private static final int MINBUFFER = 64 * 1024;
+
+    protected byte[] buffer = new byte[MINBUFFER];
+    protected int size = 0;
+
+    /**
+     * @param name the content encoding, gzip or zstd
+     * @param level the compression level, -1 for the default level
+     * @return a new compressor, or null if the encoding is unknown
+     */
+    static HttpCompressor getCompressor(String name, int level) {
+        switch (name.toLowerCase()) {
+        case "gzip":
+            return new Gzip(level);
+        case "zstd":
+            return new Zstandard(level);
+        default:
+            return null;
+        }
+    }
+
+    /**
+     * @return the value of the Content-Encoding header
+     */
+    abstract String getEncoding();
+
+    /**
+     * Compress a part of an array, the result is in {@link #getBuffer()}.
+     * @return the size of the compressed content
+     * @throws IOException
+     */
+    abstract int compress(byte[] content, int offset, int length) throws IOException;
+
+    byte[] getBuffer() {
+        return buffer;
+    }
+
+    int size() {
+        return size;
+    }
+
+    protected void ensureCapacity(int capacity) {
+        if (buffer.length < capacity) {
+            buffer = Arrays.copyOf(buffer, Math.max(capacity, buffer.length * 2));
+        }
+    }
+
+    /**
+     * Gzip, using a reused deflater and writing the header and the trailer directly.
+     */
+    static final class Gzip extends HttpCompressor {
+        private static final byte[] HEADER = new byte[] {
+                0x1f, (byte) 0x8b,      // Magic number
+                Deflater.DEFLATED,      // Compression method
+                0,                      // Flags
+                0, 0, 0, 0,             // Modification time
+                0,                      // Extra flags
+                (byte) 0xff             // Unknown OS
+        };
+        private final Deflater deflater;
+        private final CRC32 crc = new CRC32();
+
+        Gzip(int level) {
+            deflater = new Deflater(level, true);
+        }
+
+        @Override
+        String getEncoding() {
+            return "gzip";
+        }
+
+        @Override
+        int compress(byte[] content, int offset, int length) {
+            deflater.reset();
+            crc.reset();
+            crc.update(content, offset, length);
+            System.arraycopy(HEADER, 0, buffer, 0, HEADER.length);
+            size = HEADER.length;
+            deflater.setInput(content, offset, length);
+            deflater.finish();
+            while (! deflater.finished()) {
+                ensureCapacity(size + 1);
+                size += deflater.deflate(buffer, size, buffer.length - size);
+            }
+            ensureCapacity(size + 8);
+            writeInt((int) crc.getValue());
+            writeInt(length);
+            return size;
+        }
+
+        private void writeInt(int value) {
+            // Little endian
+            buffer[size++] = (byte) value;
+            buffer[size++] = (byte) (value >> 8);
+            buffer[size++] = (byte) (value >> 16);
+            buffer[size++] = (byte) (value >> 24);
+        }
+    }
+
+    static final class Zstandard extends HttpCompressor {
+        private final int level;
+
+        Zstandard(int level) {
+            this.level = level < 0 ? 3 : level;
+        }
+
+        @Override
+        String getEncoding() {
+            return "zstd";
+        }
+
+        @Override
+        int compress(byte[] content, int offset, int length) throws IOException {
+            ensureCapacity((int) Zstd.compressBound(length));
+            long result = Zstd.compressByteArray(buffer, 0, buffer.length, content, offset, length, level);
+            if (Zstd.isError(result)) {
+                throw new IOException("Zstd compression failed: " + Zstd.getErrorName(result));
+            }
+            size = (int) result;
+            return size;
+        }
+    }
+
+}
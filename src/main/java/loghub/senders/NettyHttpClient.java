@@ -0,0 +1,283 @@
+package loghub.senders;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.EventLoop;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.util.ReferenceCountUtil;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import io.netty.util.concurrent.ScheduledFuture;
+
+/**
+ * A non blocking HTTP/1.1 client, running on a event loop shared by all the senders.
+ * <p>Each endpoint has a pool of keep-alive connections. A request is sent on the least loaded connection,
+ * up to a number of pipelined requests for each connection. When all the connections are full, a new one
+ * is opened, up to a limit, then the requests wait for a free connection.</p>
+ * <p>All the state of an endpoint is handled inside its event loop, so no locking is needed.</p>
+ */
+class NettyHttpClient implements Closeable {
+
+    private static final EventLoopGroup group = new NioEventLoopGroup(0, new DefaultThreadFactory("httpclient", true));
+
+    private static final int MAXCONTENTLENGTH = 64 * 1024 * 1024;
+
+    private static class PendingRequest {
+        private final FullHttpRequest request;
+        private final CompletableFuture<FullHttpResponse> promise = new CompletableFuture<>();
+        PendingRequest(FullHttpRequest request) {
+            this.request = request;
+        }
+        void fail(Throwable t) {
+            ReferenceCountUtil.release(request);
+            promise.completeExceptionally(t);
+        }
+    }
+
+    /**
+     * Match the responses with the requests, in the sending order.
+     */
+    private class ResponseHandler extends SimpleChannelInboundHandler<FullHttpResponse> {
+        private final Deque<PendingRequest> inflight = new ArrayDeque<>();
+        private final EndpointPool pool;
+        private ResponseHandler(EndpointPool pool) {
+            this.pool = pool;
+        }
+        private void send(Channel channel, PendingRequest pending) {
+            inflight.add(pending);
+            ScheduledFuture<?> timer = channel.eventLoop().schedule(() -> {
+                if (! pending.promise.isDone()) {
+                    pending.promise.completeExceptionally(new IOException("Request timeout"));
+                    // The next responses are lost, this channel can't be used any more
+                    channel.close();
+                }
+            }, timeout, TimeUnit.SECONDS);
+            pending.promise.whenComplete((r, e) -> timer.cancel(false));
+            channel.writeAndFlush(pending.request).addListener(f -> {
+                if (! f.isSuccess()) {
+                    channel.close();
+                }
+            });
+        }
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, FullHttpResponse msg) {
+            PendingRequest pending = inflight.poll();
+            if (pending == null) {
+                // A response to nothing, the stream is broken
+                ctx.close();
+                return;
+            }
+            if (! pending.promise.complete(msg.retain())) {
+                // Already timed out
+                msg.release();
+            }
+            if (! HttpUtil.isKeepAlive(msg)) {
+                ctx.close();
+            } else {
+                pool.drain();
+            }
+        }
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+            pool.closed(ctx.channel());
+            PendingRequest pending;
+            while ((pending = inflight.poll()) != null) {
+                pending.promise.completeExceptionally(new ClosedChannelException());
+            }
+            super.channelInactive(ctx);
+        }
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            PendingRequest pending;
+            while ((pending = inflight.poll()) != null) {
+                pending.promise.completeExceptionally(cause);
+            }
+            ctx.close();
+        }
+    }
+
+    private class EndpointPool {
+        private final EventLoop loop = group.next();
+        private final String host;
+        private final int port;
+        private final boolean secure;
+        private final List<Channel> channels = new ArrayList<>();
+        private final Deque<PendingRequest> waiting = new ArrayDeque<>();
+        private int connecting = 0;
+
+        private EndpointPool(URL endpoint) {
+            host = endpoint.getHost();
+            secure = "https".equals(endpoint.getProtocol());
+            port = endpoint.getPort() > 0 ? endpoint.getPort() : endpoint.getDefaultPort();
+        }
+
+        private void execute(PendingRequest pending) {
+            loop.execute(() -> {
+                waiting.add(pending);
+                drain();
+            });
+        }
+
+        /**
+         * Send the waiting requests to the available channels, and connect new one if needed.
+         * A new connection is preferred to pipelining.
+         */
+        private void drain() {
+            while (! waiting.isEmpty()) {
+                Channel channel = leastLoaded();
+                if ((channel == null || load(channel) > 0) && connecting == 0 && channels.size() < maxConnections) {
+                    connect();
+                }
+                if (channel == null) {
+                    break;
+                }
+                channel.pipeline().get(ResponseHandler.class).send(channel, waiting.poll());
+            }
+        }
+
+        private int load(Channel channel) {
+            return channel.pipeline().get(ResponseHandler.class).inflight.size();
+        }
+
+        private Channel leastLoaded() {
+            Channel found = null;
+            int foundLoad = maxPipelined;
+            for (Channel c: channels) {
+                int load = load(c);
+                if (c.isActive() && load < foundLoad) {
+                    found = c;
+                    foundLoad = load;
+                }
+            }
+            return found;
+        }
+
+        private void connect() {
+            connecting++;
+            Bootstrap bootstrap = new Bootstrap()
+                            .group(loop)
+                            .channel(NioSocketChannel.class)
+                            .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, timeout * 1000)
+                            .option(ChannelOption.TCP_NODELAY, true)
+                            .option(ChannelOption.SO_KEEPALIVE, true)
+                            .handler(new ChannelInitializer<Channel>() {
+                                @Override
+                                protected void initChannel(Channel ch) {
+                                    ChannelPipeline p = ch.pipeline();
+                                    if (secure) {
+                                        SSLEngine engine = ssl.createSSLEngine(host, port);
+                                        engine.setUseClientMode(true);
+                                        p.addLast(new SslHandler(engine));
+                                    }
+                                    p.addLast(new HttpClientCodec());
+                                    p.addLast(new HttpObjectAggregator(MAXCONTENTLENGTH));
+                                    p.addLast(new ResponseHandler(EndpointPool.this));
+                                }
+                            });
+            ChannelFuture connected = bootstrap.connect(host, port);
+            connected.addListener(f -> {
+                connecting--;
+                if (f.isSuccess()) {
+                    channels.add(connected.channel());
+                    drain();
+                } else if (channels.isEmpty() && connecting == 0) {
+                    // The endpoint is unreachable
+                    PendingRequest pending;
+                    while ((pending = waiting.poll()) != null) {
+                        pending.fail(f.cause());
+                    }
+                }
+            });
+        }
+
+        private void closed(Channel channel) {
+            channels.remove(channel);
+            drain();
+        }
+
+        private void close() {
+            loop.execute(() -> {
+                PendingRequest pending;
+                while ((pending = waiting.poll()) != null) {
+                    pending.fail(new ClosedChannelException());
+                }
+                new ArrayList<>(channels).forEach(Channel::close);
+            });
+        }
+    }
+
+    private final SSLContext ssl;
+    private final int timeout;
+    private final int maxConnections;
+    private final int maxPipelined;
+    private final Map<String, EndpointPool> pools = new ConcurrentHashMap<>();
+
+    /**
+     * @param ssl the SSL context used for https
+     * @param timeout the connection and request timeout, in seconds
+     * @param maxConnections the maximum number of connections for each endpoint
+     * @param maxPipelined the maximum number of requests sent on a connection without waiting for the response
+     */
+    NettyHttpClient(SSLContext ssl, int timeout, int maxConnections, int maxPipelined) {
+        this.ssl = ssl;
+        this.timeout = timeout;
+        this.maxConnections = Math.max(1, maxConnections);
+        this.maxPipelined = Math.max(1, maxPipelined);
+    }
+
+    /**
+     * Send a request.
+     * @param endpoint the destination, only the protocol, host and port are used
+     * @param request the request, released once sent
+     * @return the response, it must be released by the caller
+     */
+    CompletableFuture<FullHttpResponse> execute(URL endpoint, FullHttpRequest request) {
+        String key = endpoint.getProtocol() + "://" + endpoint.getHost() + ":" + endpoint.getPort();
+        PendingRequest pending = new PendingRequest(request);
+        pools.computeIfAbsent(key, k -> new EndpointPool(endpoint)).execute(pending);
+        return pending.promise;
+    }
+
+    /**
+     * Run a task on the shared event loop, after a delay.
+     */
+    void schedule(Runnable task, long delay, TimeUnit unit) {
+        group.schedule(task, delay, unit);
+    }
+
+    @Override
+    public void close() {
+        pools.values().forEach(EndpointPool::close);
+        pools.clear();
+    }
+
+}
@@ -20,6 +20,7 @@ import loghub.encoders.EncodeException;
 import lombok.Setter;
 
 @SelfEncoder
+@ParallelSender
 @BuilderClass(Nsca.Builder.class)
 public class Nsca extends Sender {
 
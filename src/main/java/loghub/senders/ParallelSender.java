@@ -0,0 +1,20 @@
+package loghub.senders;
+
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+/**
+ * A sender whose {@link Sender#send(loghub.Event)} can be used by many threads at once.
+ */
+@Documented
+@Retention(RUNTIME)
+@Target(TYPE)
+@Inherited
+public @interface ParallelSender {
+
+}
@@ -4,13 +4,25 @@ import java.io.Closeable;
 import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Queue;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 import java.util.stream.IntStream;
@@ -27,47 +39,120 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import com.codahale.metrics.Counter;
+import com.codahale.metrics.Histogram;
 import com.codahale.metrics.Timer;
 
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.concurrent.DefaultThreadFactory;
 import loghub.AbstractBuilder;
 import loghub.CanBatch;
 import loghub.Event;
+import loghub.Expression;
+import loghub.Expression.ExpressionException;
 import loghub.Filter;
 import loghub.FilterException;
 import loghub.Helpers;
+import loghub.ProcessorException;
 import loghub.Stats;
 import loghub.ThreadBuilder;
 import loghub.configuration.Properties;
 import loghub.encoders.EncodeException;
+import loghub.encoders.EncodeException.RuntimeDecodeException;
 import loghub.encoders.Encoder;
 import lombok.Getter;
 import lombok.Setter;
 
 public abstract class Sender extends Thread implements Closeable {
 
+    /**
+     * A batch is filled by many producers without locking. Once swapped out by {@link Sender#swap(Batch)}, it's
+     * sealed: no producer can enter it any more, and the events are moved to the list when all the producers
+     * inside are gone.
+     */
     protected static class Batch extends ArrayList<EventFuture> {
-        private final Counter counter;
+        private static final int SEALED = 1 << 30;
         private final Sender sender;
+        // The events being added, moved to the list once sealed
+        private final Queue<EventFuture> pending;
+        // The number of producers adding an event, with the SEALED flag
+        private final AtomicInteger writers = new AtomicInteger(0);
+        private final AtomicInteger count = new AtomicInteger(0);
+        private final AtomicLong bytes = new AtomicLong(0);
+        // Batch timing, in nanoseconds, firstEvent is 0 until an event is added
+        private final AtomicLong firstEvent = new AtomicLong(0);
+        private volatile long lastEvent = 0;
+        private volatile Timeout deadline = null;
         Batch() {
             super(0);
             this.sender = null;
-            counter = null;
+            pending = null;
         }
         Batch(Sender sender) {
             super(sender.batchSize);
             this.sender = sender;
-            counter = Properties.metrics.counter("sender." + sender.getName() + ".activeBatches");
-            counter.inc();
+            pending = new ConcurrentLinkedQueue<>();
         }
         void finished() {
             super.stream().forEach(sender::processStatus);
-            counter.dec();
+            sender.activeBatches.dec();
         }
         public EventFuture add(Event e) {
             EventFuture fe = new EventFuture(e);
             add(fe);
             return fe;
         }
+        /**
+         * Add an event from a producer
+         * @return false if the batch is already sealed, the event was not added
+         */
+        private boolean offer(Event e, long size) {
+            int current;
+            do {
+                current = writers.get();
+                if ((current & SEALED) != 0) {
+                    return false;
+                }
+            } while (! writers.compareAndSet(current, current + 1));
+            try {
+                pending.add(new EventFuture(e));
+                count.incrementAndGet();
+                bytes.addAndGet(size);
+                lastEvent = System.nanoTime();
+                if (firstEvent.compareAndSet(0, lastEvent)) {
+                    sender.armDeadline(this);
+                }
+                return true;
+            } finally {
+                writers.decrementAndGet();
+            }
+        }
+        /**
+         * Forbid new events, wait for the producers still adding one and fill the list
+         */
+        private void seal() {
+            writers.getAndUpdate(w -> w | SEALED);
+            while (writers.get() != SEALED) {
+                // The producers only do a few atomic operations, it will be short
+                Thread.yield();
+            }
+            EventFuture ef;
+            while ((ef = pending.poll()) != null) {
+                super.add(ef);
+            }
+        }
+        /**
+         * @return the number of events, including the ones not yet in the list
+         */
+        public int getCount() {
+            return count.get();
+        }
+        /**
+         * @return the estimated size of the events, only counted if the sender has a bytes limit
+         */
+        public long getBytes() {
+            return bytes.get();
+        }
         @Override
         public Stream<EventFuture> stream() {
             return super.stream().filter(EventFuture::isNotDone);
@@ -81,6 +166,10 @@ public abstract class Sender extends Thread implements Closeable {
     // A marker to end processing
     static private final Batch NULLBATCH = new Batch();
 
+    // Resolution of the batches deadlines
+    private static final long TICKDURATION = 10;
+    private static final HashedWheelTimer batchesTimer = new HashedWheelTimer(new DefaultThreadFactory("senderbatches", true), TICKDURATION, TimeUnit.MILLISECONDS);
+
     static public class EventFuture extends CompletableFuture<Boolean> {
         @Getter
         private final Event event;
@@ -112,9 +201,33 @@ public abstract class Sender extends Thread implements Closeable {
         @Setter
         protected int flushInterval = 5;
         @Setter
+        protected int maxBatchAge = -1;
+        @Setter
+        protected int linger = -1;
+        @Setter
+        protected int batchBytes = -1;
+        @Setter
         private Filter filter;
+        @Setter
+        protected int sendThreads = 1;
+        @Setter
+        protected String orderingKey = null;
+        @Setter
+        protected int encodeThreads = 0;
     };
 
+    /**
+     * An event being encoded by the encode stage
+     */
+    private static class PreEncoded {
+        private final Event event;
+        private final CompletableFuture<byte[]> content;
+        private PreEncoded(Event event, CompletableFuture<byte[]> content) {
+            this.event = event;
+            this.content = content;
+        }
+    }
+
     protected final Logger logger;
 
     private BlockingQueue<Event> inQueue;
@@ -127,15 +240,33 @@ public abstract class Sender extends Thread implements Closeable {
     private final int batchSize;
     @Getter
     private final Filter filter;
-    private volatile long lastFlush = 0;
     private final Thread[] threads;
     private final BlockingQueue<Batch> batches;
     private final Runnable publisher;
     private final AtomicReference<Batch> batch = new AtomicReference<>();
-    private final int flushInterval;
+    // Batch deadlines, in nanoseconds, 0 if not used
+    private final long maxBatchAge;
+    private final long linger;
+    private final long batchBytes;
     private volatile boolean closed = false;
-    // Don't allow to stop while sending an event
-    private final Semaphore stopSemaphore = new Semaphore(1, true);
+    // Metrics, resolved when configured
+    private Counter activeBatches;
+    private Histogram batchesSize;
+    private Histogram batchAge;
+    private Timer flushDuration;
+    // Parallel sending, for the senders without batches
+    private final int sendThreads;
+    private final String orderingKeySrc;
+    private Expression orderingKey = null;
+    private final int encodeThreads;
+    private final List<BlockingQueue<Event>> workersQueues;
+    private final BlockingQueue<PreEncoded> encodedQueue;
+    // The event being sent by the I/O thread, when there is an encode stage
+    private final ThreadLocal<PreEncoded> preEncoded = new ThreadLocal<>();
+    private final List<Thread> sendWorkers = new ArrayList<>();
+    private ExecutorService encoders = null;
+    // Don't allow to stop while sending an event, a permit for each sending thread
+    private final Semaphore stopSemaphore;
 
     public Sender(Builder<?  extends  Sender> builder) {
         filter = builder.filter;
@@ -149,21 +280,44 @@ public abstract class Sender extends Thread implements Closeable {
             builder.workers = Math.max(1, builder.workers);
         }
         if (builder.batchSize > 0 && getClass().getAnnotation(CanBatch.class) != null) {
-            flushInterval = builder.flushInterval * 1000;
+            long age = builder.maxBatchAge > 0 ? builder.maxBatchAge : builder.flushInterval * 1000L;
+            maxBatchAge = TimeUnit.MILLISECONDS.toNanos(Math.max(0, age));
+            linger = TimeUnit.MILLISECONDS.toNanos(Math.max(0, builder.linger));
+            batchBytes = Math.max(0, builder.batchBytes);
             isAsync = true;
             batchSize = builder.batchSize;
             threads = new Thread[builder.workers];
             batches = new ArrayBlockingQueue<>(threads.length * 8);
             publisher = getPublisher();
-            batch.set(new Batch(this));
         } else {
-            flushInterval = 0;
+            maxBatchAge = 0;
+            linger = 0;
+            batchBytes = 0;
             isAsync = getClass().getAnnotation(AsyncSender.class) != null;
             threads = null;
             batchSize = -1;
             batches = null;
             publisher = null;
         }
+        if (threads == null) {
+            sendThreads = Math.max(1, builder.sendThreads);
+            orderingKeySrc = builder.orderingKey;
+            encodeThreads = Math.max(0, builder.encodeThreads);
+        } else {
+            sendThreads = 1;
+            orderingKeySrc = null;
+            encodeThreads = 0;
+        }
+        if (sendThreads > 1 && orderingKeySrc != null) {
+            workersQueues = new ArrayList<>(sendThreads);
+            for (int i = 0; i < sendThreads; i++) {
+                workersQueues.add(new ArrayBlockingQueue<>(1024));
+            }
+        } else {
+            workersQueues = null;
+        }
+        encodedQueue = encodeThreads > 0 ? new ArrayBlockingQueue<>(encodeThreads * 16) : null;
+        stopSemaphore = new Semaphore(sendThreads, true);
         this.setUncaughtExceptionHandler((t,e) -> {
             logger.error("Uncatched Exception: " + Helpers.resolveThrowableException(e), e);
         });
@@ -171,8 +325,29 @@ public abstract class Sender extends Thread implements Closeable {
 
     public boolean configure(Properties properties) {
         if (threads != null) {
+            activeBatches = Properties.metrics.counter("sender." + getName() + ".activeBatches");
+            batchesSize = Properties.metrics.histogram("sender." + getName() + ".batchesSize");
+            flushDuration = Properties.metrics.timer("sender." + getName() + ".flushDuration");
+            batchAge = Properties.metrics.histogram("sender." + getName() + ".batchAge");
+            batch.set(new Batch(this));
             buildSyncer(properties);
         }
+        if (sendThreads > 1 && getClass().getAnnotation(ParallelSender.class) == null) {
+            logger.error("This sender can't use many send threads");
+            return false;
+        }
+        if (encodeThreads > 0 && (encoder == null || sendThreads > 1)) {
+            logger.error("The encode stage needs an encoder and a single send thread");
+            return false;
+        }
+        if (orderingKeySrc != null) {
+            try {
+                orderingKey = new Expression(orderingKeySrc, properties);
+            } catch (ExpressionException e) {
+                Expression.logError(e, orderingKeySrc, logger);
+                return false;
+            }
+        }
         if (encoder != null) {
             return encoder.configure(properties, this);
         } else if (getClass().getAnnotation(SelfEncoder.class) == null) {
@@ -195,22 +370,32 @@ public abstract class Sender extends Thread implements Closeable {
                     if (flushedBatch == NULLBATCH) {
                         break;
                     }
-                    Properties.metrics.histogram("sender." + getName() + ".batchesSize").update(flushedBatch.size());
+                    batchesSize.update(flushedBatch.size());
                     if (flushedBatch.isEmpty()) {
                         flushedBatch.finished();
                         continue;
-                    } else {
-                        lastFlush = System.currentTimeMillis();
                     }
-                    try (Timer.Context tctx = Properties.metrics.timer("sender." + getName() + ".flushDuration").time()) {
-                        flush(flushedBatch);
-                        flushedBatch.forEach(fe -> fe.complete(true));
+                    // The age includes the wait for a free publisher
+                    batchAge.update(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - flushedBatch.firstEvent.get()));
+                    Timer.Context tctx = flushDuration.time();
+                    CompletableFuture<?> flushed;
+                    try {
+                        flushed = flushAsync(flushedBatch);
                     } catch (Throwable ex) {
-                        Sender.this.handleException(ex);
-                        flushedBatch.forEach(fe -> fe.complete(false));
-                    } finally {
-                        flushedBatch.finished();
+                        flushed = new CompletableFuture<>();
+                        flushed.completeExceptionally(ex);
                     }
+                    // Might be run by another thread, when the flush is really asynchronous
+                    flushed.whenComplete((r, ex) -> {
+                        tctx.close();
+                        if (ex != null) {
+                            Sender.this.handleException(ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex);
+                            flushedBatch.forEach(fe -> fe.complete(false));
+                        } else {
+                            flushedBatch.forEach(fe -> fe.complete(true));
+                        }
+                        flushedBatch.finished();
+                    });
                 }
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
@@ -226,28 +411,82 @@ public abstract class Sender extends Thread implements Closeable {
                  .map(i -> i.setDaemon(false))
                  .map(i -> i.build(true))
                  .toArray(i -> threads);
-        //Schedule a task to flush every 5 seconds
-        Runnable flush = () -> {
-            try {
-                long now =  System.currentTimeMillis();
-                if ((now - lastFlush) > flushInterval) {
-                    batches.add(batch.getAndSet(new Batch(this)));
-                }
-            } catch (IllegalStateException e) {
-                logger.warn("Failed to launch a scheduled batch: " + Helpers.resolveThrowableException(e));
-                logger.catching(Level.DEBUG, e);
-            }
-        };
-        properties.registerScheduledTask(getName() + "Flusher" , flush, 5000);
         Helpers.waitAllThreads(Arrays.stream(threads));
     }
 
+    /**
+     * Arm the deadline of a new batch, the first one to expire of the max age and the linger.
+     */
+    private void armDeadline(Batch current) {
+        long delay = Math.min(maxBatchAge > 0 ? maxBatchAge : Long.MAX_VALUE, linger > 0 ? linger : Long.MAX_VALUE);
+        if (delay != Long.MAX_VALUE) {
+            current.deadline = batchesTimer.newTimeout(t -> expired(current), delay, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Run by the timer wheel when a batch deadline is reached. The linger is lazily checked,
+     * so the timer is not rearmed for each new event.
+     */
+    private void expired(Batch expired) {
+        // The timer thread silently swallows Throwable, they are handled here
+        try {
+            if (closed || batch.get() != expired) {
+                return;
+            }
+            long now = System.nanoTime();
+            long ageDeadline = maxBatchAge > 0 ? expired.firstEvent.get() + maxBatchAge : Long.MAX_VALUE;
+            long lingerDeadline = linger > 0 ? expired.lastEvent + linger : Long.MAX_VALUE;
+            long next = Math.min(ageDeadline, lingerDeadline);
+            if (next > now) {
+                // Events were added since, wait for the new linger deadline
+                expired.deadline = batchesTimer.newTimeout(t -> expired(expired), next - now, TimeUnit.NANOSECONDS);
+            } else if (batches.remainingCapacity() == 0) {
+                // Don't block the timer thread, the publishers are busy anyway
+                expired.deadline = batchesTimer.newTimeout(t -> expired(expired), TICKDURATION * 10, TimeUnit.MILLISECONDS);
+            } else if (swap(expired) && ! batches.offer(expired)) {
+                CompletableFuture.runAsync(() -> publish(expired));
+            }
+        } catch (Throwable ex) {
+            handleException(ex);
+        }
+    }
+
+    /**
+     * Replace the current batch, if it's still the expected one, and seal it.
+     * @return true if this thread did the swap and must publish the batch
+     */
+    private boolean swap(Batch expected) {
+        if (batch.compareAndSet(expected, new Batch(this))) {
+            Timeout deadline = expected.deadline;
+            if (deadline != null) {
+                deadline.cancel();
+            }
+            expected.seal();
+            activeBatches.inc();
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    private void publish(Batch flushed) {
+        try {
+            batches.put(flushed);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            flushed.forEach(ef -> ef.complete(false));
+            flushed.finished();
+        }
+    }
+
     public final synchronized void stopSending() {
         boolean locked = false;
         try {
-            stopSemaphore.acquire();
+            stopSemaphore.acquire(sendThreads);
             locked = true;
             closed = true;
+            stopWorkers();
             if (isWithBatch()) {
                 List<Batch> missedBatches = new ArrayList<>();
                 // Empty the waiting batches list and put the end-of-processing mark instead
@@ -257,7 +496,14 @@ public abstract class Sender extends Thread implements Closeable {
                     batches.add(NULLBATCH);
                 }
                 // Mark all waiting events as missed
-                batch.get().forEach(ef -> ef.complete(false));
+                Optional.ofNullable(batch.get()).ifPresent(b -> {
+                    if (b.deadline != null) {
+                        b.deadline.cancel();
+                    }
+                    // The producers are stopped by the closed flag, the last ones are waited for
+                    b.seal();
+                    b.forEach(ef -> ef.complete(false));
+                });
                 missedBatches.forEach(b -> b.forEach(ef -> ef.complete(false)));
                 // Wait for all publisher threads to be finished
                 Arrays.stream(threads).forEach(t -> {
@@ -291,7 +537,7 @@ public abstract class Sender extends Thread implements Closeable {
             Thread.currentThread().interrupt();
         } finally {
             if (locked) {
-                stopSemaphore.release();
+                stopSemaphore.release(sendThreads);
             }
             try {
                 join();
@@ -308,17 +554,29 @@ public abstract class Sender extends Thread implements Closeable {
 
     protected abstract boolean send(Event e) throws SendException, EncodeException;
 
+    /**
+     * Add an event to the current batch, it can be used concurrently by many threads.
+     * @param event the event to add
+     * @return false if the sender is closed, the event was not added
+     */
     protected boolean queue(Event event) {
-        if (closed) {
-            return false;
-        }
-        batch.get().add(event);
-        if (batch.get().size() >= batchSize) {
+        long size = batchBytes > 0 ? estimateSize(event) : 0;
+        Batch current;
+        do {
+            if (closed) {
+                return false;
+            }
+            // A sealed batch is already swapped, the next try will get the new one
+            current = batch.get();
+        } while (! current.offer(event, size));
+        if (isBatchFull(current) && swap(current)) {
             logger.debug("batch full, flush");
             try {
-                batches.put(batch.getAndSet(new Batch(this)));
+                batches.put(current);
             } catch (InterruptedException e) {
-                interrupt();
+                Thread.currentThread().interrupt();
+                current.forEach(ef -> ef.complete(false));
+                current.finished();
             }
             if (batches.size() > threads.length) {
                 logger.warn("{} waiting flush batches, add workers", () -> batches.size() - threads.length);
@@ -327,12 +585,83 @@ public abstract class Sender extends Thread implements Closeable {
         return true;
     }
 
+    /**
+     * Check if a batch must be flushed. The default is to flush when the batch size is reached.
+     * @param batch the batch being filled
+     * @return true if the batch is full
+     */
+    protected boolean isBatchFull(Batch batch) {
+        return batch.getCount() >= batchSize || isBatchTooBig(batch);
+    }
+
+    /**
+     * @param batch the batch being filled
+     * @return true if the estimated size of the batch reached the bytes limit
+     */
+    protected boolean isBatchTooBig(Batch batch) {
+        return batchBytes > 0 && batch.getBytes() >= batchBytes;
+    }
+
+    /**
+     * A cheap estimation of the size of an encoded event, used for the batch bytes limit.
+     * @param event the event
+     * @return the estimated size
+     */
+    protected long estimateSize(Event event) {
+        return estimateSize((Object) event) + 32;
+    }
+
+    private long estimateSize(Object o) {
+        if (o == null) {
+            return 4;
+        } else if (o instanceof CharSequence) {
+            return ((CharSequence) o).length() + 2;
+        } else if (o instanceof Number || o instanceof Boolean) {
+            return 8;
+        } else if (o instanceof byte[]) {
+            return ((byte[]) o).length;
+        } else if (o instanceof Map) {
+            long size = 2;
+            for (Map.Entry<?, ?> e: ((Map<?, ?>) o).entrySet()) {
+                size += estimateSize(e.getKey()) + estimateSize(e.getValue()) + 2;
+            }
+            return size;
+        } else if (o instanceof Collection) {
+            long size = 2;
+            for (Object i: (Collection<?>) o) {
+                size += estimateSize(i) + 1;
+            }
+            return size;
+        } else if (o instanceof Object[]) {
+            long size = 2;
+            for (Object i: (Object[]) o) {
+                size += estimateSize(i) + 1;
+            }
+            return size;
+        } else {
+            return 16;
+        }
+    }
+
     public abstract String getSenderName();
 
     protected void flush(Batch documents) throws SendException, EncodeException {
         throw new UnsupportedOperationException("Not a batching sender");
     }
 
+    /**
+     * Flush a batch, the returned future is completed once all the events are sent or failed.
+     * The default implementation use {@link #flush(Batch)} in the current thread.
+     * @param documents the batch to send
+     * @return a future completed when the batch is done
+     * @throws SendException
+     * @throws EncodeException
+     */
+    protected CompletableFuture<?> flushAsync(Batch documents) throws SendException, EncodeException {
+        flush(documents);
+        return CompletableFuture.completedFuture(null);
+    }
+
     @FunctionalInterface
     private interface ByteSource {
         byte[] get() throws EncodeException;
@@ -343,7 +672,22 @@ public abstract class Sender extends Thread implements Closeable {
     }
 
     protected byte[] encode(Event event) throws EncodeException {
-        return genericEncoder(() -> encoder.encode(event));
+        PreEncoded encoded = encodedQueue != null ? preEncoded.get() : null;
+        if (encoded != null && encoded.event == event) {
+            // Already done by the encode stage
+            preEncoded.remove();
+            try {
+                return encoded.content.join();
+            } catch (CompletionException ex) {
+                if (ex.getCause() instanceof RuntimeDecodeException) {
+                    throw ((RuntimeDecodeException) ex.getCause()).getDecodeException();
+                } else {
+                    throw new EncodeException("Encoding failed", ex.getCause());
+                }
+            }
+        } else {
+            return genericEncoder(() -> encoder.encode(event));
+        }
     }
 
     private byte[] genericEncoder(ByteSource bs) throws EncodeException {
@@ -358,13 +702,34 @@ public abstract class Sender extends Thread implements Closeable {
         }
     }
 
+    @FunctionalInterface
+    private interface EventSource {
+        Event take() throws InterruptedException;
+    }
+
     public void run() {
+        startWorkers();
+        if (encodedQueue != null) {
+            // This thread is the I/O thread, some senders need it
+            sendLoop(() -> {
+                PreEncoded encoded = encodedQueue.take();
+                preEncoded.set(encoded);
+                return encoded.event;
+            });
+        } else if (workersQueues != null) {
+            dispatchLoop();
+        } else {
+            sendLoop(inQueue::take);
+        }
+    }
+
+    private void sendLoop(EventSource source) {
         while (isRunning()) {
             Event event = null;
             try {
-                event = inQueue.take();
+                event = source.take();
             } catch (InterruptedException e) {
-                interrupt();
+                Thread.currentThread().interrupt();
                 break;
             }
             try {
@@ -380,7 +745,7 @@ public abstract class Sender extends Thread implements Closeable {
                 }
                 event = null;
             } catch (InterruptedException e) {
-                interrupt();
+                Thread.currentThread().interrupt();
                 break;
             } catch (Throwable t) {
                 handleException(t);
@@ -391,6 +756,112 @@ public abstract class Sender extends Thread implements Closeable {
         }
     }
 
+    /**
+     * Start the threads needed by the parallel sending or the encode stage
+     */
+    private void startWorkers() {
+        if (encodedQueue != null) {
+            encoders = Executors.newFixedThreadPool(encodeThreads, new DefaultThreadFactory(getName() + "Encoder", true));
+            sendWorkers.add(ThreadBuilder.get().setName(getName() + "EncodeDispatcher").setTask(this::encodeLoop).setDaemon(true).build(true));
+        } else if (workersQueues != null) {
+            for (int i = 0; i < sendThreads; i++) {
+                BlockingQueue<Event> workerQueue = workersQueues.get(i);
+                sendWorkers.add(ThreadBuilder.get().setName(getName() + "Sender" + (i + 1)).setTask(() -> sendLoop(workerQueue::take)).setDaemon(true).build(true));
+            }
+        } else {
+            // This thread is the first worker
+            for (int i = 1; i < sendThreads; i++) {
+                sendWorkers.add(ThreadBuilder.get().setName(getName() + "Sender" + (i + 1)).setTask(() -> sendLoop(inQueue::take)).setDaemon(true).build(true));
+            }
+        }
+    }
+
+    /**
+     * Send the events with the same ordering key to the same worker, so they are sent in order
+     */
+    private void dispatchLoop() {
+        while (isRunning()) {
+            Event event;
+            try {
+                event = inQueue.take();
+            } catch (InterruptedException e) {
+                interrupt();
+                break;
+            }
+            int worker;
+            try {
+                Object key = orderingKey.eval(event);
+                worker = key != null ? Math.floorMod(key.hashCode(), sendThreads) : ThreadLocalRandom.current().nextInt(sendThreads);
+            } catch (ProcessorException e) {
+                logger.debug("Unusable ordering key for {}: {}", event, Helpers.resolveThrowableException(e));
+                worker = ThreadLocalRandom.current().nextInt(sendThreads);
+            }
+            try {
+                workersQueues.get(worker).put(event);
+            } catch (InterruptedException e) {
+                processStatus(event, false);
+                interrupt();
+                break;
+            }
+        }
+    }
+
+    /**
+     * Start the encoding of the events, in the sending order
+     */
+    private void encodeLoop() {
+        while (isRunning()) {
+            Event event;
+            try {
+                event = inQueue.take();
+            } catch (InterruptedException e) {
+                break;
+            }
+            try {
+                CompletableFuture<byte[]> content = CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return genericEncoder(() -> encoder.encode(event));
+                    } catch (EncodeException ex) {
+                        throw new RuntimeDecodeException(ex);
+                    }
+                }, encoders);
+                encodedQueue.put(new PreEncoded(event, content));
+            } catch (RejectedExecutionException e) {
+                // Stopping
+                processStatus(event, false);
+                break;
+            } catch (InterruptedException e) {
+                processStatus(event, false);
+                break;
+            }
+        }
+    }
+
+    private void stopWorkers() {
+        sendWorkers.forEach(Thread::interrupt);
+        if (encoders != null) {
+            encoders.shutdownNow();
+        }
+        sendWorkers.forEach(t -> {
+            try {
+                t.join(1000);
+            } catch (InterruptedException e) {
+                interrupt();
+            }
+        });
+        // The events still waiting are lost
+        if (workersQueues != null) {
+            List<Event> missed = new ArrayList<>();
+            workersQueues.forEach(q -> q.drainTo(missed));
+            missed.forEach(e -> processStatus(e, false));
+        }
+        if (encodedQueue != null) {
+            List<PreEncoded> missed = new ArrayList<>();
+            encodedQueue.drainTo(missed);
+            missed.forEach(e -> processStatus(e.event, false));
+        }
+    }
+
     protected boolean isRunning() {
         return !closed && ! isInterrupted();
     }
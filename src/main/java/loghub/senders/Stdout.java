@@ -8,6 +8,7 @@ import loghub.Event;
 import loghub.encoders.EncodeException;
 import lombok.Setter;
 
+@ParallelSender
 @BuilderClass(Stdout.Builder.class)
 public class Stdout extends Sender {
 
@@ -42,9 +43,12 @@ public class Stdout extends Sender {
     public boolean send(Event event) throws SendException, EncodeException {
         try {
             byte[] msg = encode(event);
-            destination.write(msg);
-            destination.println();
-            destination.flush();
+            // Don't mix the lines of parallel senders
+            synchronized (destination) {
+                destination.write(msg);
+                destination.println();
+                destination.flush();
+            }
             return true;
         } catch (IOException e) {
             throw new SendException(e);
@@ -12,6 +12,7 @@ import loghub.configuration.Properties;
 import loghub.encoders.EncodeException;
 import lombok.Setter;
 
+@ParallelSender
 public class Udp extends Sender {
 
     public static class Builder extends Sender.Builder<Udp> {
@@ -0,0 +1,78 @@
+package loghub;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compare the structural copy of an event with the serialization one.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DuplicateBenchmark {
+
+    @State(Scope.Thread)
+    public static class SourceEvent {
+        EventInstance event;
+        @Setup
+        public void setup() throws UnknownHostException {
+            event = (EventInstance) Event.emptyTestEvent(ConnectionContext.EMPTY);
+            event.put("message", "a typical log line, with a few words in it");
+            event.put("host", InetAddress.getByName("127.0.0.1"));
+            event.put("date", new Date());
+            event.put("count", 42);
+            Map<String, Object> nested = new HashMap<>();
+            nested.put("a", 1L);
+            nested.put("b", 2.0);
+            List<Object> values = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                values.add("value" + i);
+            }
+            nested.put("values", values);
+            event.put("nested", nested);
+            event.putMeta("meta", "value");
+        }
+    }
+
+    @Benchmark
+    public Event structural(SourceEvent source) {
+        return source.event.duplicate();
+    }
+
+    @Benchmark
+    public Event serialization(SourceEvent source) throws ClassNotFoundException, IOException {
+        return source.event.serializedDuplicate();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                        .include(DuplicateBenchmark.class.getSimpleName())
+                        .build();
+        new Runner(opt).run();
+    }
+
+}
@@ -0,0 +1,74 @@
+package loghub;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import loghub.Expression.ExpressionException;
+import loghub.configuration.Properties;
+
+/**
+ * Check how the evaluation of a shared expression scale with the number of
+ * workers. The main method runs it with 1, 2, 4... threads, up to the given
+ * number of workers.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExpressionBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class SharedExpression {
+        Expression expression;
+        @Setup
+        public void setup() throws ExpressionException {
+            Map<String, VarFormatter> formatters = Collections.singletonMap("faaf", new VarFormatter("${value}"));
+            expression = new Expression("event.value == formatters.faaf.format(event)", new Properties(Collections.emptyMap()).groovyClassLoader, formatters);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadEvent {
+        Event event;
+        @Setup
+        public void setup() {
+            event = Event.emptyTestEvent(ConnectionContext.EMPTY);
+            event.put("value", "a");
+        }
+    }
+
+    @Benchmark
+    public Object eval(SharedExpression shared, ThreadEvent local) throws ProcessorException {
+        return shared.expression.eval(local.event);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        // Same default as numWorkers in Properties
+        int numWorkers = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors() * 2;
+        for (int threads = 1; threads <= numWorkers; threads *= 2) {
+            Options opt = new OptionsBuilder()
+                            .include(ExpressionBenchmark.class.getSimpleName())
+                            .threads(threads)
+                            .build();
+            new Runner(opt).run();
+        }
+    }
+
+}
@@ -1,9 +1,13 @@
 package loghub;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.logging.log4j.Level;
@@ -16,6 +20,7 @@ import org.junit.Test;
 import loghub.Event.Action;
 import loghub.EventsProcessor.ProcessingStatus;
 import loghub.configuration.Properties;
+import loghub.processors.AnonymousSubPipeline;
 import loghub.processors.Identity;
 
 public class TestEvent {
@@ -74,6 +79,114 @@ public class TestEvent {
         e2.end();
     }
 
+    @Test
+    public void TestDeepCopy() {
+        Event e = Tools.getEvent();
+        Map<String, Object> nested = new HashMap<>();
+        List<Object> values = new ArrayList<>();
+        values.add("a");
+        nested.put("values", values);
+        nested.put("date", new Date(0));
+        nested.put("array", new int[] {1, 2});
+        e.put("nested", nested);
+        e.put("alias", values);
+        e.putMeta("meta", 1);
+        Event e2 = e.duplicate();
+        Assert.assertEquals(e.get("alias"), e2.get("alias"));
+        Assert.assertEquals(1, e2.getMeta("meta"));
+        @SuppressWarnings("unchecked")
+        Map<String, Object> nested2 = (Map<String, Object>) e2.get("nested");
+        Assert.assertNotSame(nested, nested2);
+        Assert.assertNotSame(values, nested2.get("values"));
+        Assert.assertNotSame(nested.get("date"), nested2.get("date"));
+        Assert.assertArrayEquals(new int[] {1, 2}, (int[]) nested2.get("array"));
+        Assert.assertNotSame(nested.get("array"), nested2.get("array"));
+        // A shared container stay shared in the copy
+        Assert.assertSame(nested2.get("values"), e2.get("alias"));
+        values.add("b");
+        Assert.assertEquals(1, ((List<?>) e2.get("alias")).size());
+        e.end();
+        e2.end();
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void TestSharedCopy() throws ProcessorException {
+        Event e = Tools.getEvent();
+        e.applyAtPath(Action.PUT, new String[]{"a", "b", "c"}, 1, true);
+        e.applyAtPath(Action.PUT, new String[]{"a", "d", "e"}, 2, true);
+        Map<String, Object> ordered = new LinkedHashMap<>();
+        ordered.put("z", new Date(0));
+        ordered.put("y", new ArrayList<>(Collections.singletonList(1)));
+        ordered.put("x", 3);
+        e.put("o", ordered);
+        Event e2 = e.duplicateShared();
+        e2.applyAtPath(Action.PUT, new String[]{"a", "b", "c"}, 3, true);
+        Assert.assertEquals(1, e.applyAtPath(Action.GET, new String[]{"a", "b", "c"}, null));
+        Assert.assertEquals(3, e2.applyAtPath(Action.GET, new String[]{"a", "b", "c"}, null));
+        e.applyAtPath(Action.REMOVE, new String[]{"a", "d", "e"}, null);
+        Assert.assertEquals(2, e2.applyAtPath(Action.GET, new String[]{"a", "d", "e"}, null));
+        // In place modifications, on both events
+        Map<String, Object> o1 = (Map<String, Object>) e.get("o");
+        Map<String, Object> o2 = (Map<String, Object>) e2.get("o");
+        ((List<Object>) o1.get("y")).add(2);
+        ((Date) o2.get("z")).setTime(1);
+        o2.put("w", 4);
+        Assert.assertEquals(Arrays.asList(1, 2), o1.get("y"));
+        Assert.assertEquals(Collections.singletonList(1), o2.get("y"));
+        Assert.assertEquals(new Date(0), o1.get("z"));
+        Assert.assertEquals(new Date(1), o2.get("z"));
+        Assert.assertFalse(o1.containsKey("w"));
+        // The order is kept
+        Assert.assertEquals(Arrays.asList("z", "y", "x"), new ArrayList<>(o1.keySet()));
+        Assert.assertEquals(Arrays.asList("z", "y", "x", "w"), new ArrayList<>(o2.keySet()));
+        // A second fork after the modifications
+        Event e3 = e.duplicateShared();
+        ((List<Object>) ((Map<String, Object>) e3.get("o")).get("y")).add(3);
+        Assert.assertEquals(Arrays.asList(1, 2, 3), ((Map<String, Object>) e3.get("o")).get("y"));
+        Assert.assertEquals(Arrays.asList(1, 2), ((Map<String, Object>) e.get("o")).get("y"));
+        e.end();
+        e2.end();
+        e3.end();
+    }
+
+    @Test
+    public void TestFailedCopy() {
+        Event e = Tools.getEvent();
+        e.put("a", new Object());
+        long inflight = Properties.metrics.allEventsInflight().getCount();
+        Assert.assertNull(e.duplicate());
+        Assert.assertNull(e.duplicateShared());
+        Assert.assertEquals(inflight, Properties.metrics.allEventsInflight().getCount());
+        e.end();
+    }
+
+    @Test
+    public void TestProcessorsOrder() {
+        Event e = Tools.getEvent();
+        Processor a = new Identity();
+        Processor b = new Identity();
+        Processor c = new Identity();
+        Processor d = new Identity();
+        Processor x = new Identity();
+        Processor y = new Identity();
+        AnonymousSubPipeline sub = new AnonymousSubPipeline();
+        sub.setPipeline(new Pipeline(Arrays.asList(b, c), null, null));
+        e.appendProcessors(Arrays.asList(a, sub, d));
+        Assert.assertSame(a, e.next());
+        e.insertProcessor(x);
+        Assert.assertEquals(3, e.processingLeft());
+        Assert.assertSame(x, e.next());
+        Assert.assertSame(b, e.next());
+        e.appendProcessor(y);
+        Assert.assertSame(c, e.next());
+        Assert.assertSame(d, e.next());
+        Assert.assertSame(y, e.next());
+        Assert.assertNull(e.next());
+        Assert.assertEquals(0, e.processingLeft());
+        e.end();
+    }
+
     @Test
     public void TestLoop() {
         Map<String, Object> conf = new HashMap<>();
@@ -0,0 +1,81 @@
+package loghub;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestShardedBlockingQueue {
+
+    @Test
+    public void testAffinity() throws InterruptedException {
+        ShardedBlockingQueue<Integer> queue = new ShardedBlockingQueue<>(8, 2, false);
+        queue.setKey(i -> i % 2);
+        queue.addAll(Arrays.asList(0, 1, 2, 3, 4, 5));
+        BlockingQueue<Integer> even = queue.consumer(0);
+        BlockingQueue<Integer> odd = queue.consumer(1);
+        List<Integer> evens = new ArrayList<>();
+        Assert.assertEquals(0, (int) even.take());
+        even.drainTo(evens);
+        Assert.assertEquals(Arrays.asList(2, 4), evens);
+        Assert.assertNull(even.poll(10, TimeUnit.MILLISECONDS));
+        Assert.assertEquals(1, (int) odd.take());
+        Assert.assertEquals(3, (int) odd.poll());
+        Assert.assertEquals(5, (int) queue.take());
+        Assert.assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void testStealing() throws InterruptedException {
+        ShardedBlockingQueue<Integer> queue = new ShardedBlockingQueue<>(8, 2, true);
+        queue.setKey(i -> 0);
+        queue.addAll(Arrays.asList(1, 2));
+        BlockingQueue<Integer> idle = queue.consumer(1);
+        Assert.assertEquals(1, (int) idle.take());
+        Assert.assertEquals(2, (int) idle.poll(10, TimeUnit.MILLISECONDS));
+        Assert.assertNull(idle.poll());
+    }
+
+    @Test
+    public void testCapacity() {
+        ShardedBlockingQueue<Integer> queue = new ShardedBlockingQueue<>(4, 2, false);
+        queue.setKey(i -> 0);
+        Assert.assertTrue(queue.offer(1));
+        Assert.assertTrue(queue.offer(2));
+        // The shard is full, even if the queue is not
+        Assert.assertFalse(queue.offer(3));
+        Assert.assertEquals(2, queue.remainingCapacity());
+    }
+
+    @Test
+    public void testRemainder() {
+        ShardedBlockingQueue<Integer> queue = new ShardedBlockingQueue<>(5, 2, false);
+        Assert.assertEquals(5, queue.remainingCapacity());
+        queue.setKey(i -> null);
+        for (int i = 0; i < 5; i++) {
+            Assert.assertTrue(queue.offer(i));
+        }
+        Assert.assertEquals(0, queue.remainingCapacity());
+    }
+
+    @Test
+    public void testNoKey() {
+        ShardedBlockingQueue<Integer> queue = new ShardedBlockingQueue<>(4, 2, false);
+        queue.setKey(i -> null);
+        // Spread over the shards, so the whole capacity is usable
+        for (int i = 0; i < 4; i++) {
+            Assert.assertTrue(queue.offer(i));
+        }
+        List<Integer> first = new ArrayList<>();
+        queue.consumer(0).drainTo(first);
+        Assert.assertEquals(2, first.size());
+        List<Integer> second = new ArrayList<>();
+        queue.consumer(1).drainTo(second);
+        Assert.assertEquals(2, second.size());
+    }
+
+}
@@ -0,0 +1,154 @@
+package loghub;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSession;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import loghub.SpoolBlockingQueue.FsyncPolicy;
+
+public class TestSpoolBlockingQueue {
+
+    private static Logger logger;
+
+    @BeforeClass
+    static public void configure() throws IOException {
+        Tools.configure();
+        logger = LogManager.getLogger();
+        LogUtils.setLevel(logger, Level.TRACE, "loghub.SpoolBlockingQueue");
+    }
+
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+
+    private Event getEvent(int i) {
+        Event e = Tools.getEvent();
+        e.put("message", i);
+        return e;
+    }
+
+    @Test(timeout = 10000)
+    public void testSpill() throws IOException, InterruptedException {
+        Path spooldir = testFolder.newFolder().toPath();
+        try (SpoolBlockingQueue queue = new SpoolBlockingQueue("test", 2, spooldir, 1 << 20, 1024, FsyncPolicy.SEGMENT)) {
+            for (int i = 0; i < 20; i++) {
+                queue.put(getEvent(i));
+            }
+            Assert.assertEquals(20, queue.size());
+            Assert.assertEquals(0, queue.remainingCapacity());
+            for (int i = 0; i < 20; i++) {
+                Event e = queue.take();
+                Assert.assertEquals(i, e.get("message"));
+                e.end();
+            }
+            Assert.assertNull(queue.poll(10, TimeUnit.MILLISECONDS));
+            // Back in memory
+            Assert.assertTrue(queue.offer(getEvent(20)));
+            Assert.assertEquals(20, queue.peek().get("message"));
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testReplay() throws IOException, InterruptedException {
+        Path spooldir = testFolder.newFolder().toPath();
+        try (SpoolBlockingQueue queue = new SpoolBlockingQueue("test", 2, spooldir, 1 << 20, 1024, FsyncPolicy.ALWAYS)) {
+            for (int i = 0; i < 10; i++) {
+                queue.put(getEvent(i));
+            }
+            Assert.assertEquals(0, queue.take().get("message"));
+        }
+        try (SpoolBlockingQueue queue = new SpoolBlockingQueue("test", 2, spooldir, 1 << 20, 1024, FsyncPolicy.ALWAYS)) {
+            Assert.assertEquals(9, queue.size());
+            // The event still in memory is replayed first
+            Assert.assertEquals(1, queue.take().get("message"));
+            Assert.assertEquals(2, queue.take().get("message"));
+        }
+        try (SpoolBlockingQueue queue = new SpoolBlockingQueue("test", 2, spooldir, 1 << 20, 1024, FsyncPolicy.ALWAYS)) {
+            Assert.assertEquals(7, queue.size());
+            List<Event> events = new ArrayList<>();
+            queue.drainTo(events);
+            Assert.assertEquals(7, events.size());
+            for (int i = 0; i < 7; i++) {
+                Assert.assertEquals(i + 3, events.get(i).get("message"));
+            }
+            events.forEach(Event::end);
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testFull() throws IOException, InterruptedException {
+        Path spooldir = testFolder.newFolder().toPath();
+        try (SpoolBlockingQueue queue = new SpoolBlockingQueue("test", 1, spooldir, 2048, 1024, FsyncPolicy.NEVER)) {
+            int accepted = 0;
+            while (queue.offer(getEvent(accepted))) {
+                accepted++;
+            }
+            Assert.assertTrue(accepted > 1);
+            Assert.assertFalse(queue.offer(getEvent(accepted), 10, TimeUnit.MILLISECONDS));
+            Assert.assertEquals(0, queue.take().get("message"));
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testRecycle() throws IOException, InterruptedException {
+        Path spooldir = testFolder.newFolder().toPath();
+        try (SpoolBlockingQueue queue = new SpoolBlockingQueue("test", 1, spooldir, 2048, 1024, FsyncPolicy.NEVER)) {
+            int accepted = 0;
+            while (queue.offer(getEvent(accepted))) {
+                accepted++;
+            }
+            while (! queue.isEmpty()) {
+                queue.take().end();
+            }
+            // The segments already read don't use the disk space any more
+            int again = 0;
+            while (queue.offer(getEvent(again))) {
+                again++;
+            }
+            Assert.assertEquals(accepted, again);
+            Assert.assertEquals(0, queue.take().get("message"));
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testTlsContext() throws IOException, InterruptedException, NoSuchAlgorithmException {
+        Path spooldir = testFolder.newFolder().toPath();
+        SSLSession session = SSLContext.getDefault().createSSLEngine().getSession();
+        InetSocketAddress local = new InetSocketAddress(InetAddress.getLoopbackAddress(), 6514);
+        InetSocketAddress remote = new InetSocketAddress(InetAddress.getLoopbackAddress(), 35000);
+        try (SpoolBlockingQueue queue = new SpoolBlockingQueue("test", 1, spooldir, 1 << 20, 1024, FsyncPolicy.NEVER)) {
+            for (int i = 0; i < 3; i++) {
+                Event e = Event.emptyEvent(new IpConnectionContext(local, remote, session));
+                e.put("message", i);
+                queue.put(e);
+            }
+            Assert.assertEquals(3, queue.size());
+            for (int i = 0; i < 3; i++) {
+                Event e = queue.take();
+                Assert.assertEquals(i, e.get("message"));
+                IpConnectionContext ctx = (IpConnectionContext) e.getConnectionContext();
+                Assert.assertEquals(remote, ctx.getRemoteAddress());
+                // Only the event kept in memory still has its session
+                Assert.assertEquals(i == 0 ? session : null, ctx.getSslParameters());
+                e.end();
+            }
+        }
+    }
+
+}
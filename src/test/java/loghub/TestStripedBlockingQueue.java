@@ -0,0 +1,110 @@
+package loghub;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestStripedBlockingQueue {
+
+    @Test
+    public void testCapacity() throws InterruptedException {
+        StripedBlockingQueue<Integer> queue = new StripedBlockingQueue<>(4, 2);
+        for (int i = 0; i < 4; i++) {
+            Assert.assertTrue(queue.offer(i));
+        }
+        Assert.assertFalse(queue.offer(4));
+        Assert.assertFalse(queue.offer(4, 10, TimeUnit.MILLISECONDS));
+        Assert.assertEquals(4, queue.size());
+        Assert.assertEquals(0, queue.remainingCapacity());
+        Set<Integer> found = new HashSet<>();
+        for (int i = 0; i < 4; i++) {
+            found.add(queue.take());
+        }
+        Assert.assertEquals(new HashSet<>(Arrays.asList(0, 1, 2, 3)), found);
+        Assert.assertNull(queue.poll());
+        Assert.assertNull(queue.poll(10, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testRemainder() {
+        StripedBlockingQueue<Integer> queue = new StripedBlockingQueue<>(5, 2);
+        Assert.assertEquals(5, queue.remainingCapacity());
+        Assert.assertEquals(5, queue.offerAll(Arrays.asList(0, 1, 2, 3, 4, 5)));
+        Assert.assertFalse(queue.offer(5));
+    }
+
+    @Test(timeout = 5000)
+    public void testBlockedPut() throws InterruptedException {
+        StripedBlockingQueue<Integer> queue = new StripedBlockingQueue<>(8, 8);
+        for (int i = 0; i < 8; i++) {
+            Assert.assertTrue(queue.offer(i));
+        }
+        Thread producer = new Thread(() -> {
+            try {
+                queue.put(8);
+                Assert.assertTrue(queue.offer(9, 5, TimeUnit.SECONDS));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        producer.start();
+        // The space is freed in a single stripe each time, the producer must find it
+        queue.take();
+        queue.take();
+        producer.join();
+        Assert.assertEquals(8, queue.size());
+        Assert.assertEquals(0, queue.remainingCapacity());
+    }
+
+    @Test
+    public void testBatches() {
+        StripedBlockingQueue<Integer> queue = new StripedBlockingQueue<>(6, 3);
+        Assert.assertEquals(6, queue.offerAll(Arrays.asList(0, 1, 2, 3, 4, 5, 6, 7)));
+        List<Integer> drained = new ArrayList<>();
+        Assert.assertEquals(4, queue.drainTo(drained, 4));
+        Assert.assertEquals(2, queue.drainTo(drained));
+        Assert.assertEquals(new HashSet<>(Arrays.asList(0, 1, 2, 3, 4, 5)), new HashSet<>(drained));
+        Assert.assertTrue(queue.isEmpty());
+    }
+
+    @Test(timeout = 10000)
+    public void testConcurrent() throws InterruptedException {
+        StripedBlockingQueue<Integer> queue = new StripedBlockingQueue<>(16, 4);
+        int count = 10000;
+        Thread[] producers = new Thread[4];
+        for (int p = 0; p < producers.length; p++) {
+            int base = p * count;
+            producers[p] = new Thread(() -> {
+                for (int i = 0; i < count; i++) {
+                    try {
+                        queue.put(base + i);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            });
+            producers[p].start();
+        }
+        Set<Integer> received = new HashSet<>();
+        List<Integer> batch = new ArrayList<>();
+        while (received.size() < count * producers.length) {
+            batch.add(queue.take());
+            queue.drainTo(batch, 7);
+            received.addAll(batch);
+            batch.clear();
+        }
+        for (Thread t: producers) {
+            t.join();
+        }
+        Assert.assertEquals(count * producers.length, received.size());
+        Assert.assertTrue(queue.isEmpty());
+    }
+
+}
@@ -1,7 +1,9 @@
 package loghub;
 
 import java.io.IOException;
+import java.time.ZoneId;
 import java.time.ZonedDateTime;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
@@ -9,6 +11,10 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
@@ -321,4 +327,36 @@ public class TestVarFormatter {
         vf.format(obj);
     }
 
+    @Test(timeout=10000)
+    public void testConcurrent() throws Exception {
+        VarFormatter vf = new VarFormatter("${a%tY}-${a%tm}-${a%td} ${b%08.2f} ${c%x}", Locale.ENGLISH);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                int offset = t;
+                results.add(executor.submit(() -> {
+                    for (int i = 0; i < 2000; i++) {
+                        Map<String, Object> values = new HashMap<>();
+                        ZonedDateTime date = ZonedDateTime.of(2000 + offset, 1 + i % 12, 1 + i % 28, 0, 0, 0, 0, ZoneId.systemDefault());
+                        values.put("a", date);
+                        values.put("b", (double) i);
+                        values.put("c", i);
+                        String expected = String.format(Locale.ENGLISH, "%tY-%tm-%td %08.2f %x", date, date, date, (double) i, i);
+                        if (! expected.equals(vf.format(values))) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }));
+            }
+            for (Future<Boolean> f: results) {
+                Assert.assertTrue(f.get());
+            }
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(1, TimeUnit.SECONDS);
+        }
+    }
+
 }
@@ -11,6 +11,7 @@ import org.antlr.v4.runtime.ParserRuleContext;
 import org.antlr.v4.runtime.tree.ParseTreeWalker;
 import org.junit.Assert;
 
+import loghub.Expression;
 import loghub.RouteLexer;
 import loghub.RouteParser;
 import loghub.VarFormatter;
@@ -30,6 +31,10 @@ public class ConfigurationTools {
     }
 
     public static <T extends ParserRuleContext> Object parseFragment(CharStream fragment, Function<RouteParser, T> extractor, Map<String, VarFormatter> formatters) {
+        return parseFragment(fragment, extractor, formatters, new HashMap<>());
+    }
+
+    public static <T extends ParserRuleContext> Object parseFragment(CharStream fragment, Function<RouteParser, T> extractor, Map<String, VarFormatter> formatters, Map<String, Expression.Lambda> compiledExpressions) {
         RouteLexer lexer = new RouteLexer(fragment);
 
         CommonTokenStream tokens = new CommonTokenStream(lexer);
@@ -48,6 +53,7 @@ public class ConfigurationTools {
         }
         Assert.assertTrue(conf.stack.isEmpty());
         formatters.putAll(conf.formatters);
+        compiledExpressions.putAll(conf.compiledExpressions);
         return o;
     }
 
@@ -75,4 +81,10 @@ public class ConfigurationTools {
         return parsed.wrapped;
     }
 
+    public static <T> T unWrap(String fragment, Function<RouteParser, ? extends ParserRuleContext> extractor, Map<String, VarFormatter> formatters, Map<String, Expression.Lambda> compiledExpressions) {
+        @SuppressWarnings("unchecked")
+        ObjectWrapped<T> parsed = (ObjectWrapped<T>) ConfigurationTools.parseFragment(CharStreams.fromString(fragment), extractor, formatters, compiledExpressions);
+        return parsed.wrapped;
+    }
+
 }
@@ -36,13 +36,27 @@ public class TestExpressionParsing {
         LogUtils.setLevel(logger, Level.TRACE, "loghub.configuration", "loghub.Expression", "loghub.VarFormatter");
     }
 
-    private String parseExpression(String exp, Map<String, VarFormatter> formats) {
-        return ConfigurationTools.unWrap(exp, i -> i.expression(), formats);
+    private Object evalExpression(String exp, Event ev, Map<String, VarFormatter> formats) throws ExpressionException, ProcessorException {
+        Map<String, Expression.Lambda> compiled = new HashMap<>();
+        String source = ConfigurationTools.unWrap(exp, i -> i.expression(), formats, compiled);
+        Map<String, Object> props = new HashMap<>();
+        props.put(Properties.PROPSNAMES.EXPRESSIONS.toString(), compiled);
+        Properties properties = new Properties(props);
+        Expression expression = new Expression(source, properties.groovyClassLoader, formats);
+        Object value = expression.eval(ev);
+        // If a native version exists, it must return the same value
+        if (compiled.containsKey(source)) {
+            Expression compiledExpression = new Expression(source, properties);
+            Assert.assertTrue(compiledExpression.isCompiled());
+            Assert.assertEquals(value, compiledExpression.eval(ev));
+        }
+        return value;
     }
 
-    private Object evalExpression(String exp, Event ev, Map<String, VarFormatter> formats) throws ExpressionException, ProcessorException {
-        Expression expression = new Expression(parseExpression(exp, formats), new Properties(Collections.emptyMap()).groovyClassLoader, formats);
-        return expression.eval(ev);
+    private boolean isCompiled(String exp) {
+        Map<String, Expression.Lambda> compiled = new HashMap<>();
+        String source = ConfigurationTools.unWrap(exp, i -> i.expression(), new HashMap<>(), compiled);
+        return compiled.containsKey(source);
     }
 
     private Object evalExpression(String exp, Event ev) throws ExpressionException, ProcessorException {
@@ -226,4 +240,38 @@ public class TestExpressionParsing {
         Assert.assertEquals(35710, localAddr.getPort());
     }
 
+    @Test
+    public void testCompiled() throws ExpressionException, ProcessorException {
+        Assert.assertTrue(isCompiled("[a b] == 1 && [#c] != null"));
+        Assert.assertTrue(isCompiled("!([a] =~ /(a.)(.)/)"));
+        Assert.assertTrue(isCompiled("\"${a}\" + [b] >= 2"));
+        Assert.assertFalse(isCompiled("new java.util.Date(1+2)"));
+        Assert.assertFalse(isCompiled("[ @context principal name ] == \"user\""));
+        Event ev =  Tools.getEvent();
+        ev.put("a", Collections.singletonMap("b", 1));
+        ev.putMeta("c", "d");
+        Assert.assertEquals(true, evalExpression("[a b] == 1 && [#c] != null", ev));
+        Assert.assertEquals(false, evalExpression("[a b] < 1 || [#c] == \"e\"", ev));
+    }
+
+    @Test
+    public void testCompiledPrecedence() throws ExpressionException, ProcessorException {
+        Event ev =  Tools.getEvent();
+        ev.put("a", 1);
+        ev.put("b", 2);
+        // evalExpression checks that the native and the Groovy versions agree
+        Assert.assertTrue(isCompiled("[a] == 1 || [b] == 2"));
+        Assert.assertEquals(true, evalExpression("[a] == 1 || [b] == 2", ev));
+        Assert.assertTrue(isCompiled("[a] == 1 + 2"));
+        Assert.assertEquals(false, evalExpression("[a] == 1 + 2", ev));
+        Assert.assertEquals(true, evalExpression("[a] + 1 == [b]", ev));
+        Assert.assertEquals(true, evalExpression("[a] == 1 || [b] == 3 && [a] == 3", ev));
+        Assert.assertEquals(false, evalExpression("([a] == 1 || [b] == 3) && [a] == 3", ev));
+        Assert.assertEquals(true, evalExpression("[a] < [b] == true", ev));
+        Assert.assertEquals(true, evalExpression("1 + [b] > 2 && [a] != null", ev));
+        // The match binds tighter in Groovy, it's not compiled
+        Assert.assertFalse(isCompiled("\"a\" + [a] ==~ /a1/"));
+        Assert.assertEquals(true, evalExpression("\"a\" + [a] ==~ /a1/", ev));
+    }
+
 }
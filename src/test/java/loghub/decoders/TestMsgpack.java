@@ -28,6 +28,8 @@ import org.msgpack.value.ValueFactory;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import loghub.AbstractBuilder;
 import loghub.ConnectionContext;
 import loghub.Event;
@@ -70,6 +72,25 @@ public class TestMsgpack {
 
     }
 
+    @Test
+    public void testByteBuf() throws IOException, DecodeException {
+        Msgpack d = new Msgpack.Builder().build();
+        byte[] packed = objectMapper.writeValueAsBytes(obj);
+
+        // A heap buffer, with some leading bytes to check the offset
+        ByteBuf heap = Unpooled.buffer(packed.length + 3);
+        heap.writeBytes(new byte[3]).writeBytes(packed).skipBytes(3);
+        testContent(d.decode(ConnectionContext.EMPTY, heap).findAny().get());
+        Assert.assertEquals(3, heap.readerIndex());
+
+        ByteBuf direct = Unpooled.directBuffer(packed.length).writeBytes(packed);
+        testContent(d.decode(ConnectionContext.EMPTY, direct).findAny().get());
+        Assert.assertEquals(0, direct.readerIndex());
+        direct.release();
+
+        testContent(d.decode(ConnectionContext.EMPTY, ByteBuffer.wrap(packed)).findAny().get());
+    }
+
     @Test
     public void testmapsimple() throws IOException, DecodeException {
         Decoder d = new Msgpack.Builder().build();
@@ -29,4 +29,18 @@ public class TestStats {
         assertEquals(String.format("some message at loghub.jmx.TestStats.test2 line %d", e.getStackTrace()[0].getLineNumber()), exceptions.getUnhandledExceptions()[0]);
     }
 
+    @Test
+    public void testDropped() throws NotCompliantMBeanException, MalformedObjectNameException, InstanceAlreadyExistsException, MBeanRegistrationException {
+        loghub.Stats.reset();
+        ExceptionsMBean exceptions = new ExceptionsMBean.Implementation();
+        for (int i = 0; i < 150; i++) {
+            loghub.Stats.newDecodError("message " + i);
+        }
+        assertEquals(100, exceptions.getDecodersFailures().length);
+        assertEquals("message 50", exceptions.getDecodersFailures()[0]);
+        assertEquals("message 149", exceptions.getDecodersFailures()[99]);
+        assertEquals(50, exceptions.getDecodersFailuresDropped());
+        assertEquals(150, loghub.Stats.decoderFailures.get());
+    }
+
 }
@@ -8,6 +8,12 @@ import java.beans.IntrospectionException;
 import java.io.IOException;
 import java.io.StringReader;
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
@@ -21,8 +27,10 @@ import loghub.ConnectionContext;
 import loghub.Event;
 import loghub.IpConnectionContext;
 import loghub.LogUtils;
+import loghub.ProcessorException;
 import loghub.Tools;
 import loghub.configuration.ConfigException;
+import loghub.configuration.Configuration;
 import loghub.configuration.Properties;
 
 public class TestFork {
@@ -57,6 +65,55 @@ public class TestFork {
         assertTrue(IpConnectionContext.class.equals(forked.getConnectionContext().getClass()));
     }
 
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testCopyOnWriteMerge() throws ConfigException, IOException, ProcessorException {
+        String confile = "pipeline[main] { merge {index: \"${e%s}\", seeds: {\"a\": 0, \"f\": {}}, doFire: [a] >= 2, forward: false}} pipeline[newpipe] {}";
+
+        Properties conf = Configuration.parse(new StringReader(confile));
+        Assert.assertTrue(conf.pipelines.stream().allMatch(i-> i.configure(conf)));
+        Merge m = (Merge) conf.namedPipeLine.get("main").processors.get(0);
+        Forker forker = new Forker();
+        forker.setDestination("newpipe");
+        forker.setCopyOnWrite(true);
+        Assert.assertTrue(forker.configure(conf));
+
+        Event event = Event.emptyEvent(ConnectionContext.EMPTY);
+        event.put("e", "1");
+        event.put("a", 1);
+        Map<String, Object> f = new LinkedHashMap<>();
+        f.put("l", new ArrayList<>(Collections.singletonList(1)));
+        f.put("m", new HashMap<>(Collections.singletonMap("x", 1)));
+        event.put("f", f);
+        Assert.assertTrue(forker.fork(event));
+        Event forked = conf.mainQueue.remove();
+        ((Map<String, Object>) ((Map<String, Object>) forked.get("f")).get("m")).put("y", 2);
+
+        // Merge modify in place the list and the map of the original event
+        try {
+            m.process(event);
+            Assert.fail("Should be paused");
+        } catch (ProcessorException.PausedEventException ex) {
+        }
+        try {
+            m.process(forked);
+            Assert.fail("Should be dropped");
+        } catch (ProcessorException.DroppedEventException ex) {
+        }
+        Event merged = conf.mainQueue.remove();
+        Map<String, Object> mergedf = (Map<String, Object>) merged.get("f");
+        assertEquals(2L, merged.get("a"));
+        assertEquals(Arrays.asList(1, Collections.singletonList(1)), mergedf.get("l"));
+        Map<String, Object> expected = new HashMap<>();
+        expected.put("x", 1);
+        expected.put("y", 2);
+        assertEquals(expected, mergedf.get("m"));
+        // The forked event was not modified
+        Map<String, Object> forkedf = (Map<String, Object>) forked.get("f");
+        assertEquals(Collections.singletonList(1), forkedf.get("l"));
+        assertEquals(expected, forkedf.get("m"));
+    }
+
     @Test
     public void test_loghub_processors_Forker() throws ClassNotFoundException, IntrospectionException {
         BeanChecks.beansCheck(logger, "loghub.processors.Forker"
@@ -69,6 +69,92 @@ public class TestTcpLinesStream {
         }
     }
 
+    @Test(timeout=5000)
+    public void testBackpressure() throws IOException, InterruptedException {
+        try {
+            // The queue holds a single event, so the reading is paused after each line
+            makeReceiver( i -> {}, Collections.emptyMap());
+            try(Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);) {
+                OutputStream os = socket.getOutputStream();
+                for (int i = 0; i < 5; i++) {
+                    os.write(("LogHub" + i + "\n").getBytes(StandardCharsets.UTF_8));
+                    os.flush();
+                }
+                for (int i = 0; i < 5; i++) {
+                    Event e = queue.poll(1, TimeUnit.SECONDS);
+                    Assert.assertNotNull(e);
+                    Assert.assertEquals("LogHub" + i, e.get("message"));
+                }
+            }
+        } finally {
+            if (receiver != null) {
+                receiver.stopReceiving();
+            }
+        }
+    }
+
+    @Test(timeout=5000)
+    public void testFraming() throws IOException, InterruptedException {
+        try {
+            makeReceiver( i -> i.setFraming("AUTO"), Collections.emptyMap());
+            try(Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);) {
+                OutputStream os = socket.getOutputStream();
+                // A line starting with a number is not octet counted
+                os.write("10 <13>LogHub12 <13>LogHub2\nLogHub3\r\n2 LogHub4\n".getBytes(StandardCharsets.UTF_8));
+                os.flush();
+                for (String expected: new String[] {"<13>LogHub", "<13>LogHub2", "LogHub3", "2 LogHub4"}) {
+                    Event e = queue.poll(1, TimeUnit.SECONDS);
+                    Assert.assertNotNull(e);
+                    Assert.assertEquals(expected, e.get("message"));
+                }
+            }
+        } finally {
+            if (receiver != null) {
+                receiver.stopReceiving();
+            }
+        }
+    }
+
+    @Test(timeout=5000)
+    public void testSyslog() throws IOException, InterruptedException {
+        try {
+            makeReceiver( i -> {
+                i.setSyslog(true);
+                i.setMaxLength(1024);
+            }, Collections.emptyMap());
+            try(Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);) {
+                OutputStream os = socket.getOutputStream();
+                os.write("<165>1 2003-10-11T22:14:15.003Z mymachine.example.com evntslog - ID47 [exampleSDID@32473 iut=\"3\" eventSource=\"Appli\\\"cation\"][examplePriority@32473 class=\"high\"] \uFEFFAn application event\n".getBytes(StandardCharsets.UTF_8));
+                os.write("<34>Oct 11 22:14:15 mymachine su: 'su root' failed\n".getBytes(StandardCharsets.UTF_8));
+                os.flush();
+                Event e = queue.poll(1, TimeUnit.SECONDS);
+                Assert.assertNotNull(e);
+                Assert.assertEquals(20, e.get("facility"));
+                Assert.assertEquals(5, e.get("severity"));
+                Assert.assertEquals(1065910455003L, e.getTimestamp().getTime());
+                Assert.assertEquals("mymachine.example.com", e.get("logsource"));
+                Assert.assertEquals("evntslog", e.get("program"));
+                Assert.assertFalse(e.containsKey("pid"));
+                Assert.assertEquals("ID47", e.get("syslog5424_msgid"));
+                @SuppressWarnings("unchecked")
+                Map<String, Map<String, Object>> sd = (Map<String, Map<String, Object>>) e.get("syslog5424_sd");
+                Assert.assertEquals("3", sd.get("exampleSDID@32473").get("iut"));
+                Assert.assertEquals("Appli\"cation", sd.get("exampleSDID@32473").get("eventSource"));
+                Assert.assertEquals("high", sd.get("examplePriority@32473").get("class"));
+                Assert.assertEquals("An application event", e.get("message"));
+                e = queue.poll(1, TimeUnit.SECONDS);
+                Assert.assertNotNull(e);
+                Assert.assertEquals(4, e.get("facility"));
+                Assert.assertEquals(2, e.get("severity"));
+                Assert.assertEquals("Oct 11 22:14:15 mymachine su: 'su root' failed", e.get("message"));
+            }
+        } finally {
+            if (receiver != null) {
+                receiver.stopReceiving();
+            }
+        }
+    }
+
     @Test(timeout=5000)
     public void testSSL() throws IOException, InterruptedException {
         try {
@@ -32,6 +32,7 @@ import loghub.LogUtils;
 import loghub.Pipeline;
 import loghub.Tools;
 import loghub.configuration.Properties;
+import loghub.decoders.Json;
 import loghub.decoders.StringCodec;
 
 public class TestUdp {
@@ -168,6 +169,30 @@ public class TestUdp {
         }
     }
 
+    @Test(timeout=5000)
+    public void testBatch() throws InterruptedException, IOException {
+        int port = Tools.tryGetPort();
+        BlockingQueue<Event> receiver = new ArrayBlockingQueue<>(10);
+        try (Udp r = getReceiver(b -> {
+                 b.setHost(InetAddress.getLoopbackAddress().getHostAddress());
+                 b.setPort(port);
+                 b.setDecoder(Json.getBuilder().build());
+             })) {
+            r.setOutQueue(receiver);
+            r.setPipeline(new Pipeline(Collections.emptyList(), "testone", null));
+            Assert.assertTrue(r.configure(new Properties(Collections.emptyMap())));
+            r.start();
+            try (DatagramSocket send = new DatagramSocket()) {
+                byte[] buf = "[{\"a\": 1}, {\"a\": 2}, {\"a\": 3}]".getBytes(StandardCharsets.UTF_8);
+                send.send(new DatagramPacket(buf, buf.length, new InetSocketAddress(InetAddress.getLoopbackAddress(), port)));
+            }
+            for (int i = 1; i <= 3; i++) {
+                Event e = receiver.take();
+                Assert.assertEquals(i, e.get("a"));
+            }
+        }
+    }
+
     @Test
     public void testAlreadyBinded() throws IOException {
         try (DatagramSocket ss = new DatagramSocket(0, InetAddress.getLoopbackAddress());
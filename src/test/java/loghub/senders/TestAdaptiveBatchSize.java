@@ -0,0 +1,45 @@
+package loghub.senders;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestAdaptiveBatchSize {
+
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(2000);
+
+    @Test
+    public void testGrowAndShrink() {
+        AdaptiveBatchSize sizer = new AdaptiveBatchSize(20, 5, 100, Long.MAX_VALUE, 1000);
+        Assert.assertEquals(20, sizer.getLimit());
+        sizer.success(20, 2000, FAST);
+        Assert.assertEquals(22, sizer.getLimit());
+        // A partial batch don't change the size
+        sizer.success(10, 1000, FAST);
+        Assert.assertEquals(22, sizer.getLimit());
+        for (int i = 0; i < 100; i++) {
+            sizer.success(sizer.getLimit(), 100 * sizer.getLimit(), FAST);
+        }
+        Assert.assertEquals(100, sizer.getLimit());
+        sizer.success(100, 10000, SLOW);
+        Assert.assertEquals(75, sizer.getLimit());
+        sizer.rejected();
+        Assert.assertEquals(37, sizer.getLimit());
+        for (int i = 0; i < 10; i++) {
+            sizer.rejected();
+        }
+        Assert.assertEquals(5, sizer.getLimit());
+    }
+
+    @Test
+    public void testBytesLimit() {
+        AdaptiveBatchSize sizer = new AdaptiveBatchSize(100, 1, 1000, 10000, 1000);
+        Assert.assertEquals(100, sizer.getLimit());
+        // 500 bytes per event, only 20 events fit in 10000 bytes
+        sizer.success(100, 50000, FAST);
+        Assert.assertEquals(20, sizer.getLimit());
+    }
+
+}
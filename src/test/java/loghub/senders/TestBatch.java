@@ -0,0 +1,214 @@
+package loghub.senders;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Histogram;
+
+import loghub.CanBatch;
+import loghub.Event;
+import loghub.LogUtils;
+import loghub.Tools;
+import loghub.configuration.Properties;
+
+public class TestBatch {
+
+    private static final AtomicInteger senderCount = new AtomicInteger();
+
+    /**
+     * Keep the flushed batches, with their size when flushed
+     */
+    @CanBatch
+    @SelfEncoder
+    private static class BatchSender extends Sender {
+        private static class Builder extends Sender.Builder<BatchSender> {
+            @Override
+            public BatchSender build() {
+                return new BatchSender(this);
+            }
+        }
+        private final BlockingQueue<Batch> flushed = new LinkedBlockingQueue<>();
+        private final Map<Batch, Integer> flushedCount = new ConcurrentHashMap<>();
+        private final AtomicInteger received = new AtomicInteger();
+        BatchSender(Builder builder) {
+            super(builder);
+        }
+        @Override
+        protected void flush(Batch documents) {
+            flushedCount.put(documents, documents.getCount());
+            received.addAndGet(documents.size());
+            flushed.add(documents);
+        }
+        @Override
+        protected boolean send(Event e) {
+            throw new UnsupportedOperationException();
+        }
+        @Override
+        public String getSenderName() {
+            return "BatchSender";
+        }
+    }
+
+    private static Logger logger;
+
+    @BeforeClass
+    static public void configure() throws IOException {
+        Tools.configure();
+        logger = LogManager.getLogger();
+        LogUtils.setLevel(logger, Level.TRACE, "loghub.senders.Sender");
+    }
+
+    private BatchSender getSender(Consumer<BatchSender.Builder> prepare) {
+        BatchSender.Builder builder = new BatchSender.Builder();
+        builder.setWorkers(2);
+        prepare.accept(builder);
+        BatchSender sender = builder.build();
+        // Each test has its own metrics
+        sender.setName("BatchSender" + senderCount.incrementAndGet());
+        Assert.assertTrue(sender.configure(new Properties(Collections.emptyMap())));
+        return sender;
+    }
+
+    private Event getEvent(Object message) {
+        Event ev = Tools.getEvent();
+        ev.put("message", message);
+        return ev;
+    }
+
+    @Test(timeout = 30000)
+    public void testConcurrent() throws InterruptedException {
+        int producers = 8;
+        int eventsCount = 10000;
+        // Small batches and short deadlines, so size and timer swaps race
+        BatchSender sender = getSender(b -> {
+            b.setBatchSize(10);
+            b.setMaxBatchAge(1);
+            b.setLinger(1);
+        });
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>(producers);
+        for (int p = 0; p < producers; p++) {
+            int first = p * eventsCount;
+            Thread t = new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = first; i < first + eventsCount; i++) {
+                        Assert.assertTrue(sender.queue(getEvent(i)));
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            t.start();
+            threads.add(t);
+        }
+        start.countDown();
+        for (Thread t: threads) {
+            t.join();
+        }
+        // The last batch is flushed by the timer
+        while (sender.received.get() < producers * eventsCount) {
+            Thread.sleep(10);
+        }
+        Counter activeBatches = Properties.metrics.counter("sender." + sender.getName() + ".activeBatches");
+        while (activeBatches.getCount() > 0) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(0, activeBatches.getCount());
+        Assert.assertEquals(producers * eventsCount, sender.received.get());
+        // Each event is in exactly one batch
+        int[] seen = new int[producers * eventsCount];
+        for (Batch b: sender.flushed) {
+            // Nothing added after the batch was sealed
+            Assert.assertEquals(sender.flushedCount.get(b).intValue(), b.getCount());
+            Assert.assertEquals(b.getCount(), b.size());
+            for (Sender.EventFuture ef: b) {
+                seen[(Integer) ef.getEvent().get("message")]++;
+            }
+        }
+        for (int i = 0; i < seen.length; i++) {
+            Assert.assertEquals("event " + i, 1, seen[i]);
+        }
+        sender.stopSending();
+    }
+
+    @Test(timeout = 5000)
+    public void testMaxBatchAge() throws InterruptedException {
+        BatchSender sender = getSender(b -> {
+            b.setBatchSize(100);
+            b.setMaxBatchAge(100);
+        });
+        Histogram batchAge = Properties.metrics.histogram("sender." + sender.getName() + ".batchAge");
+        long start = System.nanoTime();
+        Assert.assertTrue(sender.queue(getEvent(1)));
+        Batch b = sender.flushed.poll(2, TimeUnit.SECONDS);
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        Assert.assertNotNull(b);
+        Assert.assertEquals(1, b.size());
+        Assert.assertTrue("Flushed after " + elapsed + "ms", elapsed >= 100);
+        Assert.assertEquals(1, batchAge.getCount());
+        Assert.assertTrue(batchAge.getSnapshot().getMax() >= 100);
+        sender.stopSending();
+    }
+
+    @Test(timeout = 5000)
+    public void testLinger() throws InterruptedException {
+        BatchSender sender = getSender(b -> {
+            b.setBatchSize(100);
+            b.setMaxBatchAge(10000);
+            b.setLinger(100);
+        });
+        for (int i = 0; i < 3; i++) {
+            Assert.assertTrue(sender.queue(getEvent(i)));
+            Thread.sleep(30);
+        }
+        long last = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(30);
+        // Published once the events stopped arriving, long before the max age
+        Batch b = sender.flushed.poll(2, TimeUnit.SECONDS);
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - last);
+        Assert.assertNotNull(b);
+        Assert.assertEquals(3, b.size());
+        Assert.assertTrue("Flushed after " + elapsed + "ms", elapsed >= 100);
+        sender.stopSending();
+    }
+
+    @Test(timeout = 5000)
+    public void testBatchBytes() throws InterruptedException {
+        BatchSender sender = getSender(b -> {
+            b.setBatchSize(1000);
+            b.setMaxBatchAge(10000);
+            b.setBatchBytes(500);
+        });
+        char[] message = new char[100];
+        Arrays.fill(message, 'a');
+        // Each event is estimated to 147 bytes, so the fourth one reaches the limit
+        for (int i = 0; i < 4; i++) {
+            Assert.assertTrue(sender.queue(getEvent(new String(message))));
+        }
+        Batch b = sender.flushed.poll(1, TimeUnit.SECONDS);
+        Assert.assertNotNull(b);
+        Assert.assertEquals(4, b.size());
+        Assert.assertTrue(b.getBytes() >= 500);
+        sender.stopSending();
+    }
+
+}
@@ -9,6 +9,7 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.TimeZone;
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
@@ -17,21 +18,66 @@ import org.apache.logging.log4j.core.config.Configurator;
 import org.junit.Assert;
 import org.junit.BeforeClass;
 import org.junit.Ignore;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.ExternalResource;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.util.CharsetUtil;
 import loghub.BeanChecks;
 import loghub.BeanChecks.BeanInfo;
 import loghub.Event;
+import loghub.HttpTestServer;
 import loghub.LogUtils;
 import loghub.Stats;
 import loghub.Tools;
 import loghub.configuration.ConfigurationTools;
 import loghub.configuration.Properties;
+import loghub.netty.http.ContentType;
+import loghub.netty.http.HttpRequestProcessing;
 
 public class TestElasticSearch {
 
+    /**
+     * A fake Elastic node, that reject the first bulk request
+     */
+    @ContentType("application/json")
+    private static class FakeElastic extends HttpRequestProcessing {
+        private final AtomicInteger bulks = new AtomicInteger();
+        FakeElastic() {
+            super(i -> true, "GET", "POST");
+        }
+        @Override
+        protected void processRequest(FullHttpRequest request, ChannelHandlerContext ctx) {
+            HttpResponseStatus status = HttpResponseStatus.OK;
+            String answer;
+            if ("/".equals(request.uri())) {
+                answer = "{\"version\": {\"number\": \"7.6.0\"}}";
+            } else if (request.uri().startsWith("/_bulk") && bulks.getAndIncrement() == 0) {
+                status = HttpResponseStatus.TOO_MANY_REQUESTS;
+                answer = "{\"error\": \"rejected\", \"status\": 429}";
+            } else if (request.uri().startsWith("/_bulk")) {
+                answer = "{\"errors\": false, \"items\": []}";
+            } else {
+                answer = "{}";
+            }
+            ByteBuf content = Unpooled.copiedBuffer(answer, CharsetUtil.UTF_8);
+            writeResponse(ctx, request, status, content, content.readableBytes());
+        }
+    }
+
     private static Logger logger = LogManager.getLogger();
 
+    private final int serverPort = Tools.tryGetPort();
+    private final FakeElastic elastic = new FakeElastic();
+
+    @Rule
+    public ExternalResource resource = new HttpTestServer(null, serverPort, elastic);
+
     @BeforeClass
     static public void configure() throws IOException {
         Tools.configure();
@@ -157,6 +203,39 @@ public class TestElasticSearch {
         Assert.assertEquals(0, Properties.metrics.counter("Allevents.inflight").getCount());
     }
 
+    @Test(timeout = 10000)
+    public void testBulkRetry() throws InterruptedException {
+        Stats.reset();
+        int count = 5;
+        ArrayBlockingQueue<Event> queue = new ArrayBlockingQueue<>(count);
+        ElasticSearch.Builder esbuilder = new ElasticSearch.Builder();
+        esbuilder.setDestinations(new String[]{"http://localhost:" + serverPort});
+        esbuilder.setTimeout(1);
+        esbuilder.setBatchSize(count);
+        esbuilder.setNettyClient(true);
+        esbuilder.setTemplateName(null);
+        esbuilder.setRetryDelay(10);
+        ElasticSearch es = esbuilder.build();
+        es.setInQueue(queue);
+        Assert.assertTrue("Elastic configuration failed", es.configure(new Properties(Collections.emptyMap())));
+        es.start();
+        for (int i = 0 ; i < count ; i++) {
+            Event ev = Tools.getEvent();
+            ev.put("type", "junit");
+            ev.put("value", "atest" + i);
+            ev.setTimestamp(new Date(0));
+            queue.add(ev);
+        }
+        while (Stats.sent.get() < count) {
+            Thread.sleep(10);
+        }
+        es.stopSending();
+        es.close();
+        // The rejected bulk was sent again
+        Assert.assertEquals(2, elastic.bulks.get());
+        Assert.assertEquals(count, Stats.sent.get());
+    }
+
     @Test
     public void testParse() throws MalformedURLException, URISyntaxException {
         String[] destinations  = new String[] {"//localhost", "//truc:9301", "truc", "truc:9300"};
@@ -223,6 +302,9 @@ public class TestElasticSearch {
                               , BeanInfo.build("workers", Integer.TYPE)
                               , BeanInfo.build("batchSize", Integer.TYPE)
                               , BeanInfo.build("flushInterval", Integer.TYPE)
+                              , BeanInfo.build("maxBatchAge", Integer.TYPE)
+                              , BeanInfo.build("linger", Integer.TYPE)
+                              , BeanInfo.build("batchBytes", Integer.TYPE)
                               , BeanInfo.build("destinations", BeanChecks.LSTRING)
                               , BeanInfo.build("indexX", String.class)
                               , BeanInfo.build("timeout", Integer.TYPE)
@@ -0,0 +1,78 @@
+package loghub.senders;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestEndpointManager {
+
+    private URL[] getUrls() throws MalformedURLException {
+        return new URL[] {new URL("http://node1:9200/"), new URL("http://node2:9200/"), new URL("http://node3:9200/")};
+    }
+
+    @Test
+    public void testEjection() throws MalformedURLException {
+        EndpointManager manager = new EndpointManager(getUrls(), 2, 2);
+        EndpointManager.Node node1 = manager.getNodes().get(0);
+        for (int i = 0; i < 2; i++) {
+            Assert.assertTrue(node1.tryAcquire(true));
+            manager.failure(node1);
+        }
+        List<EndpointManager.Node> selected = manager.select();
+        Assert.assertEquals(2, selected.size());
+        Assert.assertFalse(selected.contains(node1));
+    }
+
+    @Test
+    public void testAllEjected() throws MalformedURLException {
+        EndpointManager manager = new EndpointManager(getUrls(), 2, 1);
+        for (EndpointManager.Node n: manager.getNodes()) {
+            Assert.assertTrue(n.tryAcquire(true));
+            manager.failure(n);
+        }
+        // Nothing is usable, but the nodes are still tried
+        Assert.assertEquals(3, manager.select().size());
+    }
+
+    @Test
+    public void testSlots() throws MalformedURLException {
+        EndpointManager manager = new EndpointManager(getUrls(), 1, 1);
+        EndpointManager.Node node1 = manager.getNodes().get(0);
+        Assert.assertTrue(node1.tryAcquire(true));
+        Assert.assertFalse(node1.tryAcquire(true));
+        Assert.assertTrue(node1.tryAcquire(false));
+        node1.release();
+        node1.release();
+        Assert.assertTrue(node1.tryAcquire(true));
+    }
+
+    @Test
+    public void testFastest() throws MalformedURLException {
+        EndpointManager manager = new EndpointManager(getUrls(), 2, 1);
+        long latency = TimeUnit.MILLISECONDS.toNanos(1000);
+        for (EndpointManager.Node n: manager.getNodes()) {
+            n.tryAcquire(true);
+            n.success(latency);
+            latency /= 10;
+        }
+        List<EndpointManager.Node> selected = manager.select();
+        Assert.assertEquals("http://node3:9200/", selected.get(0).url.toString());
+        Assert.assertEquals("http://node1:9200/", selected.get(2).url.toString());
+    }
+
+    @Test
+    public void testUpdate() throws MalformedURLException {
+        EndpointManager manager = new EndpointManager(getUrls(), 2, 1);
+        EndpointManager.Node node2 = manager.getNodes().get(1);
+        manager.update(Arrays.asList(new URL("http://node2:9200/"), new URL("http://node4:9200/")));
+        Assert.assertEquals(2, manager.getNodes().size());
+        Assert.assertSame(node2, manager.getNodes().get(0));
+        Assert.assertEquals("http://node4:9200/", manager.getNodes().get(1).url.toString());
+    }
+
+}
@@ -1,8 +1,10 @@
 package loghub.senders;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Semaphore;
@@ -135,6 +137,19 @@ public class TestFile {
         Assert.assertEquals(2L, Stats.sent.get());
     }
 
+    @Test(timeout=2000)
+    public void testRotate() throws IOException, InterruptedException {
+        send(i -> {
+            i.setTruncate(true);
+            i.setRotateSize(1);
+            i.setRotatePattern(outFile + ".%2$d");
+            i.setCompressRotated("gzip");
+        }, 0, true);
+        Assert.assertTrue(Files.exists(Paths.get(outFile + ".0.gz")));
+        Assert.assertFalse(Files.exists(Paths.get(outFile + ".0")));
+        Assert.assertEquals(1L, Stats.sent.get());
+    }
+
     @Test
     public void testBrokenFormatter() throws InterruptedException, IOException {
         outFile = Paths.get(folder.getRoot().getCanonicalPath(), "file1").toAbsolutePath().toString();
@@ -149,6 +164,80 @@ public class TestFile {
         Assert.assertFalse(fsend.configure(new Properties(Collections.emptyMap())));
     }
 
+    @Test(timeout=5000)
+    public void testOversized() throws IOException, SendException, EncodeException {
+        outFile = Paths.get(folder.getRoot().getCanonicalPath(), "file1").toAbsolutePath().toString();
+        StringField.Builder builder1 = StringField.getBuilder();
+        builder1.setFormat("${message%s}");
+        File.Builder builder = File.getBuilder();
+        builder.setFileName(outFile);
+        builder.setEncoder(builder1.build());
+        builder.setTruncate(true);
+        builder.setSeparator("\n");
+        builder.setBufferSize(4096);
+        File fsend = builder.build();
+        fsend.setInQueue(queue);
+        Assert.assertTrue(fsend.configure(new Properties(Collections.emptyMap())));
+        char[] big = new char[5000];
+        Arrays.fill(big, 'a');
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            // Some events bigger than the buffer, mixed with small ones
+            String message = i % 10 == 0 ? new String(big) + i : Integer.toString(i);
+            Event ev = Tools.getEvent();
+            ev.put("message", message);
+            Assert.assertTrue(fsend.send(ev));
+            expected.append(message).append('\n');
+        }
+        fsend.close();
+        Assert.assertEquals(expected.toString(), new String(Files.readAllBytes(Paths.get(outFile)), StandardCharsets.UTF_8));
+        Assert.assertEquals(100L, Stats.sent.get());
+    }
+
+    @Test(timeout=5000)
+    public void testFailedRotate() throws IOException, SendException, EncodeException {
+        outFile = Paths.get(folder.getRoot().getCanonicalPath(), "file1").toAbsolutePath().toString();
+        StringField.Builder builder1 = StringField.getBuilder();
+        builder1.setFormat("${message%s}");
+        File.Builder builder = File.getBuilder();
+        builder.setFileName(outFile);
+        builder.setEncoder(builder1.build());
+        builder.setTruncate(true);
+        builder.setSeparator("\n");
+        builder.setRotateSize(1);
+        // The destination directory doesn't exist, the move fails
+        builder.setRotatePattern(outFile + ".missing/file1.%2$d");
+        File fsend = builder.build();
+        fsend.setInQueue(queue);
+        Assert.assertTrue(fsend.configure(new Properties(Collections.emptyMap())));
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 10; i++) {
+            Event ev = Tools.getEvent();
+            ev.put("message", i);
+            Assert.assertTrue(fsend.send(ev));
+            expected.append(i).append('\n');
+        }
+        fsend.close();
+        // Still written in the current file
+        Assert.assertEquals(expected.toString(), new String(Files.readAllBytes(Paths.get(outFile)), StandardCharsets.UTF_8));
+        Assert.assertEquals(10L, Stats.sent.get());
+        Assert.assertEquals(0L, Stats.failedSend.get());
+    }
+
+    @Test
+    public void testBadFsync() throws IOException {
+        outFile = Paths.get(folder.getRoot().getCanonicalPath(), "file1").toAbsolutePath().toString();
+        StringField.Builder builder1 = StringField.getBuilder();
+        builder1.setFormat("${message%s}");
+        File.Builder builder = File.getBuilder();
+        builder.setFileName(outFile);
+        builder.setEncoder(builder1.build());
+        builder.setFsync("sometimes");
+        File fsend = builder.build();
+        fsend.setInQueue(queue);
+        Assert.assertFalse(fsend.configure(new Properties(Collections.emptyMap())));
+    }
+
     @Test(timeout=2000)
     public void testFailing() throws IOException, InterruptedException, SendException, EncodeException {
         File fsend = send(i -> {}, -1, false);
@@ -0,0 +1,54 @@
+package loghub.senders;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestHttpCompressor {
+
+    private byte[] gunzip(byte[] content, int length) throws IOException {
+        try (InputStream is = new GZIPInputStream(new ByteArrayInputStream(content, 0, length));
+             ByteArrayOutputStream os = new ByteArrayOutputStream()) {
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = is.read(buffer)) > 0) {
+                os.write(buffer, 0, read);
+            }
+            return os.toByteArray();
+        }
+    }
+
+    @Test
+    public void testGzip() throws IOException {
+        HttpCompressor compressor = HttpCompressor.getCompressor("gzip", -1);
+        Assert.assertEquals("gzip", compressor.getEncoding());
+        StringBuilder buffer = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            buffer.append("{\"index\":{\"_index\":\"loghub-2020.01.01\"}}\n{\"value\":\"atest").append(i).append("\"}\n");
+        }
+        byte[] content = buffer.toString().getBytes(StandardCharsets.UTF_8);
+        // Compressed twice, to check the reuse
+        for (int i = 0; i < 2; i++) {
+            int length = compressor.compress(content, 0, content.length);
+            Assert.assertTrue(length < content.length / 4);
+            Assert.assertArrayEquals(content, gunzip(compressor.getBuffer(), length));
+        }
+        // A part of an array
+        int length = compressor.compress(content, 10, 100);
+        byte[] part = new byte[100];
+        System.arraycopy(content, 10, part, 0, 100);
+        Assert.assertArrayEquals(part, gunzip(compressor.getBuffer(), length));
+    }
+
+    @Test
+    public void testUnknown() {
+        Assert.assertNull(HttpCompressor.getCompressor("lzma", -1));
+    }
+
+}
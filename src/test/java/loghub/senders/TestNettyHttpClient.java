@@ -0,0 +1,157 @@
+package loghub.senders;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.config.Configurator;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExternalResource;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.util.CharsetUtil;
+import loghub.HttpTestServer;
+import loghub.LogUtils;
+import loghub.Tools;
+import loghub.netty.http.ContentType;
+import loghub.netty.http.HttpRequestProcessing;
+
+public class TestNettyHttpClient {
+
+    /**
+     * Answer with the client port and the requested path
+     */
+    @ContentType("text/plain")
+    private static class EchoHandler extends HttpRequestProcessing {
+        EchoHandler() {
+            super(i -> i.startsWith("/echo"), "GET");
+        }
+        @Override
+        protected void processRequest(FullHttpRequest request, ChannelHandlerContext ctx) {
+            String answer = ((InetSocketAddress) ctx.channel().remoteAddress()).getPort() + " " + request.uri();
+            ByteBuf content = Unpooled.copiedBuffer(answer, CharsetUtil.UTF_8);
+            writeResponse(ctx, request, content, content.readableBytes());
+        }
+    }
+
+    /**
+     * Never answer
+     */
+    private static class SlowHandler extends HttpRequestProcessing {
+        SlowHandler() {
+            super(i -> i.startsWith("/slow"), "GET");
+        }
+        @Override
+        protected void processRequest(FullHttpRequest request, ChannelHandlerContext ctx) {
+        }
+    }
+
+    private static Logger logger;
+
+    @BeforeClass
+    static public void configure() throws IOException {
+        Tools.configure();
+        logger = LogManager.getLogger();
+        LogUtils.setLevel(logger, Level.TRACE, "loghub.senders.NettyHttpClient", "loghub.HttpTestServer");
+        Configurator.setLevel("org", Level.ERROR);
+    }
+
+    private final int serverPort = Tools.tryGetPort();
+
+    @Rule
+    public ExternalResource resource = new HttpTestServer(null, serverPort, new EchoHandler(), new SlowHandler());
+
+    private URL getUrl() throws MalformedURLException {
+        return new URL("http", "localhost", serverPort, "/");
+    }
+
+    private FullHttpRequest request(String path) {
+        FullHttpRequest request = new DefaultFullHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.GET, path, Unpooled.EMPTY_BUFFER);
+        request.headers().set(HttpHeaderNames.HOST, "localhost:" + serverPort);
+        HttpUtil.setContentLength(request, 0);
+        return request;
+    }
+
+    /**
+     * @return the client port and the path
+     */
+    private String[] answer(CompletableFuture<FullHttpResponse> response) throws InterruptedException, ExecutionException {
+        FullHttpResponse r = response.get();
+        try {
+            return r.content().toString(CharsetUtil.UTF_8).split(" ");
+        } finally {
+            r.release();
+        }
+    }
+
+    @Test(timeout = 5000)
+    public void testKeepAlive() throws InterruptedException, ExecutionException, MalformedURLException {
+        try (NettyHttpClient client = new NettyHttpClient(null, 1, 1, 1)) {
+            String[] first = answer(client.execute(getUrl(), request("/echo/1")));
+            String[] second = answer(client.execute(getUrl(), request("/echo/2")));
+            Assert.assertEquals("/echo/1", first[1]);
+            Assert.assertEquals("/echo/2", second[1]);
+            // The connection was reused
+            Assert.assertEquals(first[0], second[0]);
+        }
+    }
+
+    @Test(timeout = 5000)
+    public void testPipelining() throws InterruptedException, ExecutionException, MalformedURLException {
+        try (NettyHttpClient client = new NettyHttpClient(null, 1, 1, 10)) {
+            List<CompletableFuture<FullHttpResponse>> responses = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                responses.add(client.execute(getUrl(), request("/echo/" + i)));
+            }
+            Set<String> ports = new HashSet<>();
+            for (int i = 0; i < 10; i++) {
+                String[] answer = answer(responses.get(i));
+                Assert.assertEquals("/echo/" + i, answer[1]);
+                ports.add(answer[0]);
+            }
+            // All sent on a single connection
+            Assert.assertEquals(1, ports.size());
+        }
+    }
+
+    @Test(timeout = 5000)
+    public void testTimeout() throws InterruptedException, ExecutionException, MalformedURLException {
+        try (NettyHttpClient client = new NettyHttpClient(null, 1, 1, 2)) {
+            String[] before = answer(client.execute(getUrl(), request("/echo/1")));
+            try {
+                client.execute(getUrl(), request("/slow")).get();
+                Assert.fail("Should have timed out");
+            } catch (ExecutionException e) {
+                Assert.assertTrue(e.getCause() instanceof IOException);
+                Assert.assertEquals("Request timeout", e.getCause().getMessage());
+            }
+            // The timed out connection was closed, a new one is used
+            String[] after = answer(client.execute(getUrl(), request("/echo/2")));
+            Assert.assertEquals("/echo/2", after[1]);
+            Assert.assertNotEquals(before[0], after[0]);
+        }
+    }
+
+}